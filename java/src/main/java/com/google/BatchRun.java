@@ -0,0 +1,116 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A class used to run a script of commands without a terminal, for offline
+ * jobs piped into the player. Commands are streamed line by line, a search's
+ * question is answered by the line after it like on the console, and output
+ * goes to whatever sink the caller buffers, without the prompt. EXIT or the
+ * end of the input ends the run.
+ *
+ * Every command is timed, {@link Stats} keeps the count and a latency
+ * histogram so a run of millions of commands needs no per-command memory.
+ */
+final class BatchRun {
+
+    private final VideoPlayer player;
+    private final CommandParser parser;
+    private final BufferedReader in;
+
+    /** Runs the commands read from in on a player of the shared state, printing to out. */
+    BatchRun(SharedState shared, BufferedReader in, OutputSink out) {
+        this.in = in;
+        this.player = new VideoPlayer(shared, out, this::nextLine);
+        this.parser = new CommandParser(player);
+    }
+
+    VideoPlayer getPlayer() {
+        return player;
+    }
+
+    private String nextLine() {
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Runs every command up to EXIT or the end of the input. */
+    Stats run() throws IOException {
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equalsIgnoreCase("exit"))
+                break;
+            long began = System.nanoTime();
+            parser.executeCommand(Arrays.asList(line.split("\\s+")));
+            stats.record(System.nanoTime() - began);
+        }
+        stats.elapsed = System.nanoTime() - start;
+        return stats;
+    }
+
+    /** Number of commands, their total time and a log-linear latency histogram. */
+    static final class Stats {
+        // 8 buckets per power of two of nanoseconds, within 12.5% of the true value
+        private static final int SUB_BUCKETS = 8;
+        private final long[] buckets = new long[64 * SUB_BUCKETS];
+        private long commands;
+        private long max;
+        long elapsed;
+
+        void record(long nanos) {
+            commands++;
+            max = Math.max(max, nanos);
+            buckets[bucket(nanos)]++;
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS)
+                return (int) Math.max(nanos, 0);
+            int log = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (log - 3)) & (SUB_BUCKETS - 1);
+            return (log - 2) * SUB_BUCKETS + sub;
+        }
+
+        /** The smallest value of the bucket, the reported latencies err low by at most one bucket. */
+        private static long lowest(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int log = bucket / SUB_BUCKETS + 2;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (log - 3);
+        }
+
+        long getCommands() {
+            return commands;
+        }
+
+        /** Latency in nanoseconds that the given fraction of commands did not exceed. */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * commands);
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank && seen > 0)
+                    return Math.min(lowest(bucket), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsed / 1e9;
+            return String.format(Locale.ROOT,
+                    "%d commands in %.3f s, %.0f commands/s, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    commands, seconds, seconds > 0 ? commands / seconds : 0.0, percentile(0.5) / 1e3,
+                    percentile(0.99) / 1e3, percentile(0.999) / 1e3, max / 1e3);
+        }
+    }
+}
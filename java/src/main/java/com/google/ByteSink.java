@@ -0,0 +1,123 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * A class used to encode what is printed to UTF-8 straight into a byte
+ * buffer, characters and digits one at a time, without a String, an encoder
+ * or a lock in between. The buffer starts small and grows up to the chunk
+ * size, a full chunk or a flush hands the bytes to {@link #emit(byte[], int)}.
+ */
+abstract class ByteSink implements OutputSink {
+
+    private static final int INITIAL_SIZE = 256;
+
+    private final int chunkSize;
+    private byte[] buffer;
+    private int length;
+
+    ByteSink(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, 32);
+    }
+
+    /**
+     * Hands over the first length bytes of the buffer. Returns the buffer to
+     * print the next chunk into, the same one if it was copied out, or null
+     * if the receiver keeps it and a new one is to be allocated on demand.
+     */
+    abstract byte[] emit(byte[] bytes, int length);
+
+    @Override
+    public OutputSink print(CharSequence text) {
+        if (text == null)
+            return print("null");
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                room(1);
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                room(2);
+                buffer[length++] = (byte) (0xc0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                room(4);
+                buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // half a pair, replaced like the JDK's encoder does
+                room(1);
+                buffer[length++] = '?';
+            } else {
+                room(3);
+                buffer[length++] = (byte) (0xe0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public OutputSink print(char c) {
+        if (c >= 0x80)
+            return print(String.valueOf(c));
+        room(1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    @Override
+    public OutputSink print(long value) {
+        if (value == Long.MIN_VALUE)
+            return print("-9223372036854775808");
+        if (value < 0) {
+            print('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+        room(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    @Override
+    public OutputSink println() {
+        return print('\n');
+    }
+
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    /** Emits what is buffered. */
+    final void drain() {
+        if (length == 0)
+            return;
+        buffer = emit(buffer, length);
+        length = 0;
+    }
+
+    /** Makes room for the next bytes, at most 20 of them. */
+    private void room(int bytes) {
+        while (buffer == null || length + bytes > buffer.length) {
+            if (buffer == null)
+                buffer = new byte[Math.min(INITIAL_SIZE, chunkSize)];
+            else if (buffer.length < chunkSize)
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, chunkSize));
+            else
+                drain();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class used to represent the difference between two versions of the
+ * catalog, keyed by video id. Changed videos carry their new title and tags
+ * and replace the live {@link Video} objects, taking over their ordinals and
+ * flags, so playlists, which hold ordinals, keep pointing at them.
+ */
+final class CatalogDelta {
+
+    final List<Video> added = new ArrayList<>();
+    final List<String> removed = new ArrayList<>();
+    final List<Video> changed = new ArrayList<>();
+
+    boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * Diffs a freshly parsed catalog against the fingerprints of the previous
+     * one, and replaces the fingerprints with those of the new catalog.
+     */
+    static CatalogDelta diff(Map<String, Long> fingerprints, CatalogParser.Result result) {
+        HashMap<String, Video> latest = new HashMap<>((int) (result.size() / 0.75f) + 1);
+        result.forEach(video -> latest.put(video.getVideoId(), video));
+
+        CatalogDelta delta = new CatalogDelta();
+        for (String id : fingerprints.keySet()) {
+            if (!latest.containsKey(id))
+                delta.removed.add(id);
+        }
+        for (String id : delta.removed)
+            fingerprints.remove(id);
+        for (Video video : latest.values()) {
+            long fingerprint = fingerprint(video);
+            Long previous = fingerprints.put(video.getVideoId(), fingerprint);
+            if (previous == null)
+                delta.added.add(video);
+            else if (previous != fingerprint)
+                delta.changed.add(video);
+        }
+        return delta;
+    }
+
+    /** A 64 bit FNV-1a hash of the title and tags of a video. */
+    static long fingerprint(Video video) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fingerprint(hash, video.getTitle());
+        for (int tag : video.getTagIds())
+            hash = fingerprint(hash, TagDictionary.tag(tag));
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String s) {
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        // a separator byte keeps ("ab", "c") and ("a", "bc") apart
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+}
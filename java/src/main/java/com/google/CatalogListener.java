@@ -0,0 +1,22 @@
+package com.google;
+
+/**
+ * An interface used to follow incremental catalog changes applied by
+ * {@link VideoLibrary#apply(CatalogDelta)}. Indexes built over the catalog
+ * implement it to stay in sync without being rebuilt.
+ */
+interface CatalogListener {
+
+    default void videoAdded(Video video) {
+    }
+
+    default void videoRemoved(Video video) {
+    }
+
+    /**
+     * Called once the video replaced the previous one with its id, a video
+     * with the old title and tags that keeps its ordinal.
+     */
+    default void videoChanged(Video previous, Video video) {
+    }
+}
@@ -0,0 +1,346 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * A class used to parse the "title | id | tag1, tag2" catalog format straight
+ * from a memory-mapped file. The scanner walks the bytes once per line and only
+ * decodes the trimmed title, id and tag ranges into Strings, so no intermediate
+ * line String, split arrays or regex objects are created.
+ */
+final class CatalogParser {
+
+    /** Largest region mapped at once, windows are always cut at a line break. */
+    static final int MAX_WINDOW = 1 << 30;
+
+    /** Chunks per worker thread, a few more than one evens out skewed lines. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK = 1 << 16;
+    private static final int PROBE_SIZE = 8192;
+
+    private static final byte SEPARATOR = '|';
+    private static final byte TAG_SEPARATOR = ',';
+    private static final int[] NO_TAGS = new int[0];
+
+    private CatalogParser() {
+    }
+
+    /** A line that could not be parsed into a video. */
+    static final class MalformedLine {
+        final long lineNumber;
+        final String text;
+
+        MalformedLine(long lineNumber, String text) {
+            this.lineNumber = lineNumber;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + lineNumber + ": " + text;
+        }
+    }
+
+    /** The videos and malformed lines of one line aligned chunk of the file. */
+    static final class Chunk {
+        final List<Video> videos = new ArrayList<>();
+        final List<MalformedLine> errors = new ArrayList<>();
+        long lines;
+    }
+
+    /** The parsed chunks of a catalog file, in file order. */
+    static final class Result {
+        private final List<Chunk> chunks;
+        private final int size;
+
+        Result(List<Chunk> chunks) {
+            this.chunks = chunks;
+            int total = 0;
+            for (Chunk chunk : chunks)
+                total += chunk.videos.size();
+            this.size = total;
+        }
+
+        /** Number of parsed videos, duplicates included. */
+        int size() {
+            return size;
+        }
+
+        void forEach(Consumer<Video> sink) {
+            for (Chunk chunk : chunks)
+                chunk.videos.forEach(sink);
+        }
+
+        /**
+         * Returns the malformed lines of every chunk with line numbers relative
+         * to the whole file.
+         */
+        List<MalformedLine> errors() {
+            List<MalformedLine> errors = new ArrayList<>();
+            long firstLine = 0;
+            for (Chunk chunk : chunks) {
+                for (MalformedLine error : chunk.errors)
+                    errors.add(new MalformedLine(firstLine + error.lineNumber, error.text));
+                firstLine += chunk.lines;
+            }
+            return errors;
+        }
+    }
+
+    /**
+     * Parses the whole catalog file on the calling thread.
+     */
+    static Result parse(Path path) throws IOException {
+        return parse(path, 1);
+    }
+
+    /**
+     * Parses the catalog file split into line aligned chunks. With more than
+     * one thread the chunks are parsed on a dedicated fork-join pool, the
+     * result is always in file order regardless of the thread count.
+     */
+    static Result parse(Path path, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = threads == 1 ? MAX_WINDOW
+                    : Math.min(MAX_WINDOW, Math.max(MIN_CHUNK, size / ((long) threads * CHUNKS_PER_THREAD) + 1));
+            List<long[]> ranges = split(channel, size, chunkSize);
+            List<Chunk> chunks = new ArrayList<>(ranges.size());
+            if (threads == 1 || ranges.size() == 1) {
+                for (long[] range : ranges)
+                    chunks.add(parseRange(channel, range[0], range[1]));
+                return new Result(chunks);
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(ranges.size());
+                for (long[] range : ranges)
+                    tasks.add(pool.submit(() -> parseRange(channel, range[0], range[1])));
+                for (ForkJoinTask<Chunk> task : tasks)
+                    chunks.add(task.join());
+            } catch (RuntimeException e) {
+                // join() may rethrow a copy of the worker's exception, look at the whole chain
+                for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                }
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+            return new Result(chunks);
+        }
+    }
+
+    /**
+     * Parses the catalog file on the calling thread, handing every video to
+     * the sink as soon as its line is read, in file order. Only the current
+     * window of the file is mapped and nothing is kept per video, so a catalog
+     * larger than the heap can be streamed into other storage. Returns the
+     * malformed lines.
+     */
+    static List<MalformedLine> stream(Path path, Consumer<Video> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Chunk> chunks = new ArrayList<>();
+            for (long[] range : split(channel, channel.size(), MAX_WINDOW)) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1]);
+                Chunk chunk = new Chunk();
+                parse(window, 0, (int) range[1], chunk, sink);
+                chunks.add(chunk);
+            }
+            return new Result(chunks).errors();
+        }
+    }
+
+    private static Chunk parseRange(FileChannel channel, long position, long length) {
+        try {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            Chunk chunk = new Chunk();
+            parse(window, 0, (int) length, chunk);
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Cuts the file into ranges of roughly chunkSize bytes, every range ends
+     * just after a line break (or at the end of the file).
+     */
+    private static List<long[]> split(FileChannel channel, long size, long chunkSize) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = nextLineStart(channel, probe, end - 1, size);
+                if (end - start > MAX_WINDOW)
+                    throw new IOException("Catalog line longer than " + MAX_WINDOW + " bytes at offset " + start);
+            }
+            ranges.add(new long[] { start, end - start });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, ByteBuffer probe, long from, long size)
+            throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the records in [from, to) of the buffer into the chunk. The range
+     * must start at the beginning of a line.
+     */
+    static void parse(ByteBuffer buf, int from, int to, Chunk chunk) {
+        parse(buf, from, to, chunk, chunk.videos::add);
+    }
+
+    /** Parses like {@link #parse(ByteBuffer, int, int, Chunk)}, the videos go to the sink instead. */
+    private static void parse(ByteBuffer buf, int from, int to, Chunk chunk, Consumer<Video> sink) {
+        int pos = from;
+        while (pos < to) {
+            int lineEnd = pos;
+            while (lineEnd < to && buf.get(lineEnd) != '\n' && buf.get(lineEnd) != '\r')
+                lineEnd++;
+            Video video = parseLine(buf, pos, lineEnd);
+            if (video != null)
+                sink.accept(video);
+            else if (!isBlank(buf, pos, lineEnd))
+                chunk.errors.add(new MalformedLine(chunk.lines + 1, decodeStripped(buf, pos, lineEnd)));
+            chunk.lines++;
+            pos = lineEnd;
+            if (pos < to && buf.get(pos) == '\r')
+                pos++;
+            if (pos < to && buf.get(pos) == '\n')
+                pos++;
+        }
+    }
+
+    /**
+     * Parses a single record. Returns null for a line without an id field,
+     * which the old split based loader could not handle either.
+     */
+    static Video parseLine(ByteBuffer buf, int from, int to) {
+        int firstBar = indexOf(buf, SEPARATOR, from, to);
+        if (firstBar < 0 || onlySeparators(buf, firstBar, to))
+            return null;
+        int secondBar = indexOf(buf, SEPARATOR, firstBar + 1, to);
+        int idEnd = secondBar < 0 ? to : secondBar;
+
+        String title = decodeStripped(buf, from, firstBar);
+        String id = decodeStripped(buf, firstBar + 1, idEnd);
+        int[] tags = secondBar < 0 ? NO_TAGS : parseTags(buf, secondBar + 1, to);
+        return new Video(title, id, tags);
+    }
+
+    /**
+     * Mirrors {@code field.split(",")} followed by {@code strip()}: trailing
+     * empty segments are dropped and a record ending in "|" has no tags.
+     */
+    private static int[] parseTags(ByteBuffer buf, int from, int to) {
+        int fieldEnd = indexOf(buf, SEPARATOR, from, to);
+        if (fieldEnd < 0)
+            fieldEnd = to;
+        if (from == fieldEnd) {
+            // an empty field only survives split() when something follows it
+            return onlySeparators(buf, fieldEnd, to) ? NO_TAGS : new int[] { TagDictionary.intern("") };
+        }
+        int[] tags = new int[4];
+        int count = 0;
+        int start = from;
+        int lastKept = 0;
+        while (true) {
+            int comma = indexOf(buf, TAG_SEPARATOR, start, fieldEnd);
+            int end = comma < 0 ? fieldEnd : comma;
+            if (count == tags.length)
+                tags = Arrays.copyOf(tags, count * 2);
+            tags[count++] = TagDictionary.intern(decodeStripped(buf, start, end));
+            if (end > start)
+                lastKept = count;
+            if (comma < 0)
+                break;
+            start = comma + 1;
+        }
+        return Arrays.copyOf(tags, lastKept);
+    }
+
+    private static boolean onlySeparators(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) != SEPARATOR)
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isAsciiWhitespace(buf.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Decodes [from, to) as UTF-8 with the same whitespace rules as strip(). */
+    static String decodeStripped(ByteBuffer buf, int from, int to) {
+        while (from < to && isAsciiWhitespace(buf.get(from)))
+            from++;
+        while (to > from && isAsciiWhitespace(buf.get(to - 1)))
+            to--;
+        if (from == to)
+            return "";
+        boolean ascii = true;
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = buf.get(from + i);
+            ascii &= b >= 0;
+            bytes[i] = b;
+        }
+        if (ascii)
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        // non-ASCII whitespace at either end is rare, leave it to strip()
+        return new String(bytes, StandardCharsets.UTF_8).strip();
+    }
+
+    private static boolean isAsciiWhitespace(byte b) {
+        return b >= 0 && Character.isWhitespace(b);
+    }
+}
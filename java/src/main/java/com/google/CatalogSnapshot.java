@@ -0,0 +1,378 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A class used to represent a binary, memory-mapped snapshot of videos.txt.
+ * The snapshot holds one record per video, numbered like the ordinals of the
+ * library it was written from: the UTF-8 title and id, the tags as numbers
+ * into a table of the distinct tags, the records in title order and
+ * open-addressing id and title indexes, so a library can answer lookups
+ * straight from the mapped file without parsing the text or building any
+ * index on the heap.
+ *
+ * <pre>
+ * header   magic, version, source size, source mtime, checksum,
+ *          record count, tag count, tag reference count, index capacity,
+ *          text length, tag text length
+ * int[]    text offsets, title and id per record (2 * record count + 1)
+ * byte[]   text, padded to 4 bytes
+ * int[]    tag text offsets (tag count + 1)
+ * byte[]   tag text, padded to 4 bytes
+ * int[]    first tag reference per record (record count + 1)
+ * int[]    tag references (tag numbers)
+ * int[]    record per title rank, in {@link Video#compareTo} order
+ * int[]    id index, record + 1 per slot, 0 when empty
+ * int[]    title index, same layout
+ * </pre>
+ *
+ * The checksum is a CRC32C over the whole file but the checksum itself, so
+ * a damaged count in the header is caught like damaged data. The title
+ * index holds the record the library's title lookup returned when the
+ * snapshot was written.
+ */
+final class CatalogSnapshot {
+
+    static final int MAGIC = 0x56534E50; // "VSNP"
+    static final int VERSION = 2;
+    static final String SUFFIX = ".snapshot";
+
+    private static final int HEADER_SIZE = 64;
+    private static final int CHECKSUM_OFFSET = 24;
+
+    /** The catalog a snapshot is written from, records are its ordinals. */
+    interface Source {
+        /** Number of records, every ordinal below it holds a video. */
+        int size();
+
+        String title(int record);
+
+        String videoId(int record);
+
+        int[] tagIds(int record);
+
+        /** Returns the record at the given rank of the title order. */
+        int sortedRecord(int rank);
+
+        /** Whether looking up the record's title finds this record. */
+        boolean ownsTitle(int record);
+    }
+
+    private final ByteBuffer buf;
+    private final int records;
+    private final int indexCapacity;
+    private final int textOffsets;
+    private final int text;
+    private final int tagOffsets;
+    private final int tagText;
+    private final int tagStarts;
+    private final int tagRefs;
+    private final int sorted;
+    private final int idIndex;
+    private final int titleIndex;
+    // TagDictionary id + 1 per tag number, 0 until the tag is first decoded
+    private final int[] dictionaryIds;
+
+    private CatalogSnapshot(ByteBuffer buf) {
+        this.buf = buf;
+        this.records = buf.getInt(32);
+        int tags = buf.getInt(36);
+        int tagRefCount = buf.getInt(40);
+        this.indexCapacity = buf.getInt(44);
+        this.textOffsets = HEADER_SIZE;
+        this.text = textOffsets + 4 * (2 * records + 1);
+        this.tagOffsets = text + align(buf.getInt(48));
+        this.tagText = tagOffsets + 4 * (tags + 1);
+        this.tagStarts = tagText + align(buf.getInt(52));
+        this.tagRefs = tagStarts + 4 * (records + 1);
+        this.sorted = tagRefs + 4 * tagRefCount;
+        this.idIndex = sorted + 4 * records;
+        this.titleIndex = idIndex + 4 * indexCapacity;
+        this.dictionaryIds = new int[tags];
+    }
+
+    /** Returns where the snapshot of the given catalog file lives. */
+    static Path pathFor(Path catalog) {
+        return catalog.resolveSibling(catalog.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Maps the snapshot of the given catalog. Returns null when the snapshot is
+     * missing, was written for a different version of the catalog, or fails
+     * its checksum, so the caller can fall back to the text loader.
+     */
+    static CatalogSnapshot open(Path snapshot, Path catalog) throws IOException {
+        if (!Files.isRegularFile(snapshot))
+            return null;
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                return null;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+            return null;
+        if (buf.getLong(8) != Files.size(catalog)
+                || buf.getLong(16) != Files.getLastModifiedTime(catalog).toMillis())
+            return null;
+        if (buf.getLong(CHECKSUM_OFFSET) != checksum(buf))
+            return null;
+        return new CatalogSnapshot(buf);
+    }
+
+    /**
+     * Writes the catalog as a snapshot. The source is read twice, once to
+     * size the file and once to fill it, and records go straight into the
+     * mapped file, so the writer keeps nothing per record on the heap. The
+     * file is written next to the target and moved into place, so readers
+     * never see a partial snapshot.
+     */
+    static void write(Path catalog, Source source, Path snapshot) throws IOException {
+        int records = source.size();
+        // tag number + 1 per TagDictionary id, tags are numbered as they are first seen
+        int[] tagNumbers = new int[TagDictionary.size()];
+        IntList tagsByNumber = new IntList();
+        long textLength = 0;
+        long tagTextLength = 0;
+        long tagRefCount = 0;
+        for (int record = 0; record < records; record++) {
+            textLength += utf8Length(source.title(record)) + utf8Length(source.videoId(record));
+            int[] tagIds = source.tagIds(record);
+            tagRefCount += tagIds.length;
+            for (int tag : tagIds) {
+                if (tag >= tagNumbers.length)
+                    tagNumbers = Arrays.copyOf(tagNumbers, Math.max(tag + 1, 2 * tagNumbers.length));
+                if (tagNumbers[tag] == 0) {
+                    tagsByNumber.add(tag);
+                    tagNumbers[tag] = tagsByNumber.size();
+                    tagTextLength += utf8Length(TagDictionary.tag(tag));
+                }
+            }
+        }
+        int tags = tagsByNumber.size();
+        int capacity = indexCapacity(records);
+        long size = HEADER_SIZE + 4L * (2L * records + 1) + align(textLength) + 4L * (tags + 1)
+                + align(tagTextLength) + 4L * (records + 1) + 4L * tagRefCount + 4L * records
+                + 8L * capacity;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Catalog too large for a snapshot: " + size + " bytes");
+
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(MAGIC).putInt(VERSION);
+            buf.putLong(Files.size(catalog)).putLong(Files.getLastModifiedTime(catalog).toMillis());
+            buf.putLong(0);
+            buf.putInt(records).putInt(tags).putInt((int) tagRefCount).putInt(capacity);
+            buf.putInt((int) textLength).putInt((int) tagTextLength);
+            CatalogSnapshot layout = new CatalogSnapshot(buf);
+
+            int offset = 0;
+            for (int record = 0; record < records; record++) {
+                offset = layout.putText(layout.textOffsets + 8 * record, layout.text, offset,
+                        source.title(record));
+                offset = layout.putText(layout.textOffsets + 8 * record + 4, layout.text, offset,
+                        source.videoId(record));
+            }
+            buf.putInt(layout.textOffsets + 8 * records, offset);
+            offset = 0;
+            for (int number = 0; number < tags; number++)
+                offset = layout.putText(layout.tagOffsets + 4 * number, layout.tagText, offset,
+                        TagDictionary.tag(tagsByNumber.get(number)));
+            buf.putInt(layout.tagOffsets + 4 * tags, offset);
+
+            int ref = 0;
+            for (int record = 0; record < records; record++) {
+                buf.putInt(layout.tagStarts + 4 * record, ref);
+                for (int tag : source.tagIds(record))
+                    buf.putInt(layout.tagRefs + 4 * ref++, tagNumbers[tag] - 1);
+                buf.putInt(layout.sorted + 4 * record, source.sortedRecord(record));
+                // ids are unique and a title has one owner, so an entry only needs a free slot
+                layout.putEntry(layout.idIndex, source.videoId(record).hashCode(), record);
+                if (source.ownsTitle(record))
+                    layout.putEntry(layout.titleIndex, source.title(record).hashCode(), record);
+            }
+            buf.putInt(layout.tagStarts + 4 * records, ref);
+            buf.putLong(CHECKSUM_OFFSET, checksum(buf));
+            buf.force();
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Number of records. */
+    int size() {
+        return records;
+    }
+
+    /** Builds the video stored in the given record. */
+    Video video(int record) {
+        return new Video(title(record), videoId(record), tagIds(record));
+    }
+
+    /**
+     * Builds the video stored in the given record without its tags, they
+     * are decoded from this snapshot through the source when first needed.
+     */
+    Video lazyVideo(int record, LazyVideo.Source source) {
+        return new LazyVideo(title(record), videoId(record), source, record);
+    }
+
+    String title(int record) {
+        return string(textOffsets + 8 * record, text);
+    }
+
+    String videoId(int record) {
+        return string(textOffsets + 8 * record + 4, text);
+    }
+
+    /** Decodes the tags of the record into ids of the global {@link TagDictionary}. */
+    int[] tagIds(int record) {
+        int first = buf.getInt(tagStarts + 4 * record);
+        int last = buf.getInt(tagStarts + 4 * (record + 1));
+        int[] tagIds = new int[last - first];
+        for (int i = first; i < last; i++) {
+            int number = buf.getInt(tagRefs + 4 * i);
+            // a racing decode interns the same tag and stores the same id
+            int id = dictionaryIds[number] - 1;
+            if (id < 0) {
+                id = TagDictionary.intern(string(tagOffsets + 4 * number, tagText));
+                dictionaryIds[number] = id + 1;
+            }
+            tagIds[i - first] = id;
+        }
+        return tagIds;
+    }
+
+    /** Returns the record at the given rank of the title order. */
+    int sortedRecord(int rank) {
+        return buf.getInt(sorted + 4 * rank);
+    }
+
+    /** Returns the record holding the given id, or -1 if there is none. */
+    int findById(String videoId) {
+        return find(idIndex, 4, videoId);
+    }
+
+    /** Returns the record the given title looks up, or -1 if there is none. */
+    int findByTitle(String title) {
+        return find(titleIndex, 0, title);
+    }
+
+    /** Decodes the string whose start is at the given offset slot, its end is in the next one. */
+    private String string(int offsetSlot, int data) {
+        int from = buf.getInt(offsetSlot);
+        int to = buf.getInt(offsetSlot + 4);
+        byte[] bytes = new byte[to - from];
+        ByteBuffer slice = buf.duplicate();
+        slice.position(data + from);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int find(int index, int column, String key) {
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        int mask = indexCapacity - 1;
+        for (int slot = spread(key.hashCode()) & mask;; slot = (slot + 1) & mask) {
+            int entry = buf.getInt(index + 4 * slot);
+            if (entry == 0)
+                return -1;
+            int record = entry - 1;
+            if (textEquals(textOffsets + 8 * record + column, wanted))
+                return record;
+        }
+    }
+
+    private boolean textEquals(int offsetSlot, byte[] wanted) {
+        int from = buf.getInt(offsetSlot);
+        int to = buf.getInt(offsetSlot + 4);
+        if (to - from != wanted.length)
+            return false;
+        for (int i = 0; i < wanted.length; i++) {
+            if (buf.get(text + from + i) != wanted[i])
+                return false;
+        }
+        return true;
+    }
+
+    /** Stores the string at the offset into the data and the offset in its slot, returns its end. */
+    private int putText(int offsetSlot, int data, int offset, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(offsetSlot, offset);
+        ByteBuffer slice = buf.duplicate();
+        slice.position(data + offset);
+        slice.put(bytes);
+        return offset + bytes.length;
+    }
+
+    private void putEntry(int index, int hash, int record) {
+        int mask = indexCapacity - 1;
+        int slot = spread(hash) & mask;
+        while (buf.getInt(index + 4 * slot) != 0)
+            slot = (slot + 1) & mask;
+        buf.putInt(index + 4 * slot, record + 1);
+    }
+
+    /** A CRC32C over the header and the body, leaving out the checksum itself. */
+    private static long checksum(ByteBuffer buf) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer part = buf.duplicate();
+        part.position(0).limit(CHECKSUM_OFFSET);
+        crc.update(part);
+        part.limit(buf.capacity()).position(CHECKSUM_OFFSET + 8);
+        crc.update(part);
+        return crc.getValue();
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate is encoded as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int indexCapacity(int records) {
+        int capacity = 2;
+        while (capacity < records * 2L)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static long align(long length) {
+        return (length + 3) & ~3L;
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+}
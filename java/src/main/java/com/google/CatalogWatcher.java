@@ -0,0 +1,109 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A class used to watch videos.txt for changes. The file is re-parsed and
+ * diffed on a background thread, the resulting deltas are queued until the
+ * command thread picks them up with {@link #poll()}, so a command never sees a
+ * half applied reload.
+ */
+final class CatalogWatcher implements Closeable {
+
+    /** Editors often write a file in several steps, wait for them to settle. */
+    private static final long SETTLE_MILLIS = 50;
+
+    private final Path catalog;
+    private final int loadThreads;
+    private final Supplier<Map<String, Long>> baseline;
+    // null until the first reload, only touched under the watcher's lock
+    private Map<String, Long> fingerprints;
+    private final ConcurrentLinkedQueue<CatalogDelta> pending = new ConcurrentLinkedQueue<>();
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Starts watching the catalog. The baseline gives the fingerprints of the
+     * catalog the library currently holds, it is only asked for on the first
+     * reload, so watching costs nothing at startup. The map it returns is
+     * owned by the watcher from then on.
+     */
+    CatalogWatcher(Path catalog, int loadThreads, Supplier<Map<String, Long>> baseline) throws IOException {
+        this.catalog = catalog.toAbsolutePath();
+        this.loadThreads = loadThreads;
+        this.baseline = baseline;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.catalog.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "catalog-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Returns the oldest delta that has not been applied yet, or null. */
+    CatalogDelta poll() {
+        return pending.poll();
+    }
+
+    /** Whether a delta is waiting, lets callers skip taking a lock for nothing. */
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Re-reads the catalog right away, on the calling thread. Used when the
+     * file change should not wait for the file system notification.
+     */
+    synchronized void reload() {
+        try {
+            if (!Files.exists(catalog))
+                return;
+            if (fingerprints == null)
+                fingerprints = baseline.get();
+            CatalogDelta delta = CatalogDelta.diff(fingerprints, CatalogParser.parse(catalog, loadThreads));
+            if (!delta.isEmpty())
+                pending.add(delta);
+        } catch (IOException e) {
+            System.err.println("Couldn't reload videos.txt: " + e.getMessage());
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (catalog.getFileName().equals(event.context()))
+                        touched = true;
+                }
+                key.reset();
+                if (touched) {
+                    TimeUnit.MILLISECONDS.sleep(SETTLE_MILLIS);
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,89 @@
+package com.google;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class used to let many changes run side by side and an exclusive one
+ * run alone, without the side by side changes sharing a lock word. A thread
+ * entering counts itself on its own stripe, padded so no two stripes share
+ * a cache line, then checks that no exclusive holder is set. The exclusive
+ * holder sets itself first and then waits until every stripe is back to
+ * zero. Each side writes before it reads what the other wrote, so at least
+ * one of them sees the other and backs off.
+ *
+ * The exclusive side is reentrant, and its holder may enter the shared side
+ * too. A thread must not take the exclusive side while it has entered the
+ * shared side, it would wait for itself.
+ */
+final class ChangeGate {
+
+    // ints between two stripes, two cache lines so adjacent line prefetch doesn't pair them either
+    private static final int SPACING = 32;
+    private static final int SPINS = 64;
+
+    private final AtomicIntegerArray entered;
+    private final int mask;
+    private final ReentrantLock exclusive = new ReentrantLock();
+    // the thread holding the exclusive side, null when none does
+    private volatile Thread owner;
+
+    ChangeGate() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+        this.mask = stripes - 1;
+        this.entered = new AtomicIntegerArray(stripes * SPACING);
+    }
+
+    /** Enters the shared side, waiting while another thread holds the exclusive side. */
+    void enter() {
+        int stripe = stripe();
+        while (true) {
+            entered.getAndIncrement(stripe);
+            Thread holder = owner;
+            if (holder == null || holder == Thread.currentThread())
+                return;
+            entered.getAndDecrement(stripe);
+            // the holder keeps the lock until it is done, waiting for the lock is waiting for it
+            exclusive.lock();
+            exclusive.unlock();
+        }
+    }
+
+    /** Leaves the shared side, on the thread that entered it. */
+    void exit() {
+        entered.getAndDecrement(stripe());
+    }
+
+    /** Takes the exclusive side once every thread on the shared side has left. */
+    void lockExclusive() {
+        exclusive.lock();
+        if (exclusive.getHoldCount() > 1)
+            return;
+        owner = Thread.currentThread();
+        for (int spins = 0; isEntered(); spins++) {
+            if (spins < SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(10_000);
+        }
+    }
+
+    void unlockExclusive() {
+        if (exclusive.getHoldCount() == 1)
+            owner = null;
+        exclusive.unlock();
+    }
+
+    private boolean isEntered() {
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            if (entered.get(stripe * SPACING) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private int stripe() {
+        return ((int) Thread.currentThread().getId() & mask) * SPACING;
+    }
+}
@@ -0,0 +1,29 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * A class used to print the output of a session that is written to a socket
+ * by another thread. Every flush hands what was printed to the receiver as a
+ * buffer of its own, the sink doesn't copy it and keeps no buffer between
+ * flushes, so an idle session holds no output memory.
+ */
+final class ChannelSink extends ByteSink {
+
+    // larger output is handed over in several chunks
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Consumer<ByteBuffer> receiver;
+
+    ChannelSink(Consumer<ByteBuffer> receiver) {
+        super(CHUNK_SIZE);
+        this.receiver = receiver;
+    }
+
+    @Override
+    byte[] emit(byte[] bytes, int length) {
+        receiver.accept(ByteBuffer.wrap(bytes, 0, length));
+        return null;
+    }
+}
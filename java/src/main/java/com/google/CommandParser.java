@@ -17,8 +17,9 @@ class CommandParser {
    * Executes the given user command.
    */
   public void executeCommand(List<String> command) {
+    this.videoPlayer.applyCatalogUpdates();
     if (command.isEmpty()) {
-      System.out.println(
+      videoPlayer.out().println(
           "Please enter a valid command, " +
               "type HELP for a list of available commands.");
       return;
@@ -29,13 +30,23 @@ class CommandParser {
         this.videoPlayer.numberOfVideos();
         break;
       case "SHOW_ALL_VIDEOS":
-        this.videoPlayer.showAllVideos();
+        if (command.size() < 2) {
+          this.videoPlayer.showAllVideos();
+          break;
+        }
+        try {
+          this.videoPlayer.showAllVideos(Integer.parseInt(command.get(1)), Integer.parseInt(command.get(2)));
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+          videoPlayer.out().println(
+              "Please enter SHOW_ALL_VIDEOS command optionally followed by "
+                  + "an offset and a page size.");
+        }
         break;
       case "PLAY":
         try {
           this.videoPlayer.playVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter PLAY command followed by video_id.");
+          videoPlayer.out().println("Please enter PLAY command followed by video_id.");
         }
         break;
       case "PLAY_RANDOM":
@@ -57,7 +68,7 @@ class CommandParser {
         try {
           this.videoPlayer.createPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter CREATE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -66,7 +77,7 @@ class CommandParser {
         try {
           this.videoPlayer.addVideoToPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter ADD_TO_PLAYLIST command followed by a "
                   + "playlist name and video_id to add.");
         }
@@ -75,7 +86,7 @@ class CommandParser {
         try {
           this.videoPlayer.removeFromPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter REMOVE_FROM_PLAYLIST command followed by a "
                   + "playlist name and video_id to remove.");
         }
@@ -84,7 +95,7 @@ class CommandParser {
         try {
           this.videoPlayer.clearPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter CLEAR_PLAYLIST command followed by a "
                   + "playlist name.");
         }
@@ -93,7 +104,7 @@ class CommandParser {
         try {
           this.videoPlayer.deletePlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter DELETE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -102,7 +113,7 @@ class CommandParser {
         try {
           this.videoPlayer.showPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SHOW_PLAYLIST command followed by a " +
+          videoPlayer.out().println("Please enter SHOW_PLAYLIST command followed by a " +
               "playlist name.");
         }
         break;
@@ -113,7 +124,7 @@ class CommandParser {
         try {
           this.videoPlayer.searchVideos(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
+          videoPlayer.out().println("Please enter SEARCH_VIDEOS command followed by a " +
               "search term.");
         }
         break;
@@ -121,7 +132,7 @@ class CommandParser {
         try {
           this.videoPlayer.searchVideosWithTag(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          videoPlayer.out().println(
               "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
                   "video tag.");
         }
@@ -133,7 +144,7 @@ class CommandParser {
           try {
             this.videoPlayer.flagVideo(command.get(1));
           } catch (ArrayIndexOutOfBoundsException f) {
-            System.out.println("Please enter FLAG_VIDEO command followed by a" +
+            videoPlayer.out().println("Please enter FLAG_VIDEO command followed by a" +
                 "video_id and an optional flag reason.");
           }
         }
@@ -142,7 +153,7 @@ class CommandParser {
         try {
           this.videoPlayer.allowVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter ALLOW_VIDEO command followed by a " +
+          videoPlayer.out().println("Please enter ALLOW_VIDEO command followed by a " +
               "video_id.");
         }
         break;
@@ -150,7 +161,7 @@ class CommandParser {
         this.getHelp();
         break;
       default:
-        System.out.println(
+        videoPlayer.out().println(
             "Please enter a valid command, type HELP for a list of "
             + "available commands.");
         break;
@@ -164,7 +175,7 @@ class CommandParser {
     String helpText =
         "Available commands:\n"
             + "    NUMBER_OF_VIDEOS - Shows how many videos are in the library.\n"
-            + "    SHOW_ALL_VIDEOS - Lists all videos from the library.\n"
+            + "    SHOW_ALL_VIDEOS [<offset> <limit>] - Lists all videos from the library, or one page of them.\n"
             + "    PLAY <video_id> - Plays specified video.\n"
             + "    PLAY_RANDOM - Plays a random video from the library.\n"
             + "    STOP - Stop the current video.\n"
@@ -184,6 +195,6 @@ class CommandParser {
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
             + "    HELP - Displays help.\n"
             + "    EXIT - Terminates the program execution.\n";
-    System.out.println(helpText);
+    videoPlayer.out().println(helpText);
   }
 }
@@ -0,0 +1,291 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A class used to represent a compressed set of non-negative ints. Values are
+ * grouped by their upper 16 bits, each group is kept as a sorted char array
+ * while it is sparse and as a 65536 bit bitmap once it holds more than
+ * {@link #ARRAY_LIMIT} values, so a rare tag costs a few bytes per video and a
+ * common one a single bit.
+ */
+final class CompressedBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /** Adds the value, returns false if it was already present. */
+    boolean add(int value) {
+        char key = (char) (value >>> 16);
+        int at = find(key);
+        if (at < 0) {
+            at = -at - 1;
+            insert(at, key, new Container());
+        }
+        return containers[at].add((char) value);
+    }
+
+    /** Removes the value, returns false if it was not present. */
+    boolean remove(int value) {
+        int at = find((char) (value >>> 16));
+        if (at < 0 || !containers[at].remove((char) value))
+            return false;
+        if (containers[at].cardinality == 0)
+            delete(at);
+        return true;
+    }
+
+    boolean contains(int value) {
+        int at = find((char) (value >>> 16));
+        return at >= 0 && containers[at].contains((char) value);
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++)
+            cardinality += containers[i].cardinality;
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Adds every value of other to this bitmap. */
+    void or(CompressedBitmap other) {
+        for (int i = 0; i < other.size; i++) {
+            int at = find(other.keys[i]);
+            if (at < 0) {
+                at = -at - 1;
+                insert(at, other.keys[i], other.containers[i].copy());
+            } else {
+                containers[at].or(other.containers[i]);
+            }
+        }
+    }
+
+    /** Removes every value of other from this bitmap. */
+    void andNot(CompressedBitmap other) {
+        for (int i = size - 1; i >= 0; i--) {
+            int at = other.find(keys[i]);
+            if (at < 0)
+                continue;
+            containers[i].andNot(other.containers[at]);
+            if (containers[i].cardinality == 0)
+                delete(i);
+        }
+    }
+
+    /** Returns an independent copy of this bitmap. */
+    CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++)
+            copy.containers[i] = containers[i].copy();
+        copy.size = size;
+        return copy;
+    }
+
+    /** Calls the consumer with every value in ascending order. */
+    void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++)
+            containers[i].forEach(keys[i] << 16, consumer);
+    }
+
+    /** Returns the values in ascending order. */
+    int[] toArray() {
+        int[] values = new int[cardinality()];
+        int[] count = new int[1];
+        forEach(value -> values[count[0]++] = value);
+        return values;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int at, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = container;
+        size++;
+    }
+
+    private void delete(int at) {
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        containers[--size] = null;
+    }
+
+    /** The values sharing one upper half, as a sorted array or a bitmap. */
+    private static final class Container {
+        char[] array = new char[4];
+        long[] bits;
+        int cardinality;
+
+        boolean add(char value) {
+            if (bits != null) {
+                long mask = 1L << value;
+                if ((bits[value >>> 6] & mask) != 0)
+                    return false;
+                bits[value >>> 6] |= mask;
+                cardinality++;
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, value);
+            if (at >= 0)
+                return false;
+            at = -at - 1;
+            if (cardinality == array.length)
+                array = Arrays.copyOf(array, cardinality * 2);
+            System.arraycopy(array, at, array, at + 1, cardinality - at);
+            array[at] = value;
+            cardinality++;
+            if (cardinality > ARRAY_LIMIT)
+                toBitmap();
+            return true;
+        }
+
+        boolean remove(char value) {
+            if (bits != null) {
+                long mask = 1L << value;
+                if ((bits[value >>> 6] & mask) == 0)
+                    return false;
+                bits[value >>> 6] &= ~mask;
+                cardinality--;
+                // only shrink well below the limit so add/remove at the edge doesn't flip back and forth
+                if (cardinality < ARRAY_LIMIT / 2)
+                    toArray();
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, value);
+            if (at < 0)
+                return false;
+            System.arraycopy(array, at + 1, array, at, cardinality - at - 1);
+            cardinality--;
+            return true;
+        }
+
+        boolean contains(char value) {
+            if (bits != null)
+                return (bits[value >>> 6] & (1L << value)) != 0;
+            return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+        }
+
+        void or(Container other) {
+            if (bits == null && other.bits == null && cardinality + other.cardinality <= ARRAY_LIMIT) {
+                char[] merged = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0, j = 0, n = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    char a = array[i], b = other.array[j];
+                    merged[n++] = a <= b ? a : b;
+                    if (a <= b)
+                        i++;
+                    if (b <= a)
+                        j++;
+                }
+                while (i < cardinality)
+                    merged[n++] = array[i++];
+                while (j < other.cardinality)
+                    merged[n++] = other.array[j++];
+                array = merged;
+                cardinality = n;
+                return;
+            }
+            if (bits == null)
+                toBitmap();
+            if (other.bits != null) {
+                for (int w = 0; w < BITMAP_WORDS; w++)
+                    bits[w] |= other.bits[w];
+            } else {
+                for (int j = 0; j < other.cardinality; j++)
+                    bits[other.array[j] >>> 6] |= 1L << other.array[j];
+            }
+            cardinality = count(bits);
+        }
+
+        void andNot(Container other) {
+            if (bits != null) {
+                if (other.bits != null) {
+                    for (int w = 0; w < BITMAP_WORDS; w++)
+                        bits[w] &= ~other.bits[w];
+                } else {
+                    for (int j = 0; j < other.cardinality; j++)
+                        bits[other.array[j] >>> 6] &= ~(1L << other.array[j]);
+                }
+                cardinality = count(bits);
+                if (cardinality < ARRAY_LIMIT / 2)
+                    toArray();
+                return;
+            }
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(array[i]))
+                    array[n++] = array[i];
+            }
+            cardinality = n;
+        }
+
+        void forEach(int high, IntConsumer consumer) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++)
+                    consumer.accept(high | array[i]);
+                return;
+            }
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            copy.array = array == null ? null : Arrays.copyOf(array, Math.max(4, cardinality));
+            copy.bits = bits == null ? null : bits.clone();
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++)
+                bits[array[i] >>> 6] |= 1L << array[i];
+            array = null;
+        }
+
+        private void toArray() {
+            char[] values = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = values;
+            bits = null;
+        }
+
+        private static int count(long[] bits) {
+            int count = 0;
+            for (long word : bits)
+                count += Long.bitCount(word);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A class used to store a sorted list of strings compressed by front coding.
+ * The UTF-8 strings are grouped in blocks of {@link #BLOCK_SIZE}, the first
+ * string of a block is stored whole and every other one as the length of the
+ * prefix it shares with its predecessor plus the remaining bytes. Ids like
+ * amazing_cats_video_id and titles sorted next to each other share most of
+ * their bytes, so they mostly cost their suffix.
+ *
+ * The only index is the address of every block, a lookup binary searches the
+ * block heads and decodes at most one block. Both the blocks and the index
+ * live in {@link OffHeapRegion}s.
+ *
+ * Strings are kept in the order of String.compareTo, see
+ * {@link #compare(byte[], int, byte[], int)}.
+ */
+final class FrontCodedStringStore {
+
+    static final int BLOCK_SIZE = 16;
+
+    private final OffHeapRegion data;
+    private final OffHeapRegion blocks;
+    private final int size;
+    private final int maxLength;
+
+    private FrontCodedStringStore(OffHeapRegion data, OffHeapRegion blocks, int size, int maxLength) {
+        this.data = data;
+        this.blocks = blocks;
+        this.size = size;
+        this.maxLength = maxLength;
+    }
+
+    /** Number of strings, duplicates included. */
+    int size() {
+        return size;
+    }
+
+    /** Bytes taken by the encoded blocks and their index. */
+    long sizeInBytes() {
+        return data.appended() + 8L * blockCount();
+    }
+
+    String get(int index) {
+        Cursor cursor = seek(index);
+        return new String(cursor.buf, 0, cursor.length, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the UTF-8 bytes of the string at index. */
+    byte[] getBytes(int index) {
+        Cursor cursor = seek(index);
+        return Arrays.copyOf(cursor.buf, cursor.length);
+    }
+
+    /**
+     * Returns the index of the first string equal to key, or
+     * (-(insertion point) - 1) when there is none, like Arrays.binarySearch.
+     */
+    int find(String key) {
+        return find(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int find(byte[] key) {
+        if (size == 0)
+            return -1;
+        Cursor cursor = new Cursor();
+        // the last block whose head sorts before the key, the first equal string can't start earlier
+        int low = 1;
+        int high = blockCount() - 1;
+        int block = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            cursor.startBlock(mid);
+            if (compare(cursor.buf, cursor.length, key, key.length) < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int index = block * BLOCK_SIZE;
+        cursor.startBlock(block);
+        for (int end = Math.min(size, index + BLOCK_SIZE); index < end; index++) {
+            if (index % BLOCK_SIZE != 0)
+                cursor.next();
+            int res = compare(cursor.buf, cursor.length, key, key.length);
+            if (res == 0)
+                return index;
+            if (res > 0)
+                return -index - 1;
+        }
+        // every string of the block sorts before the key, which can still be the next head
+        if (index < size) {
+            cursor.startBlock(index / BLOCK_SIZE);
+            if (compare(cursor.buf, cursor.length, key, key.length) == 0)
+                return index;
+        }
+        return -index - 1;
+    }
+
+    /** Visits the strings from index on, in order, until the visitor returns false. */
+    void forEach(int from, Visitor visitor) {
+        if (from >= size)
+            return;
+        Cursor cursor = seek(from);
+        for (int index = from; visitor.visit(index, cursor.buf, cursor.length) && ++index < size;) {
+            if (index % BLOCK_SIZE == 0)
+                cursor.startBlock(index / BLOCK_SIZE);
+            else
+                cursor.next();
+        }
+    }
+
+    /** Receives each string as UTF-8 in a buffer that is reused for the next one. */
+    interface Visitor {
+        boolean visit(int index, byte[] utf8, int length);
+    }
+
+    private Cursor seek(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        Cursor cursor = new Cursor();
+        cursor.startBlock(index / BLOCK_SIZE);
+        for (int i = index % BLOCK_SIZE; i > 0; i--)
+            cursor.next();
+        return cursor;
+    }
+
+    /** Decodes a block one string at a time, each on top of its predecessor. */
+    private final class Cursor {
+        final byte[] buf = new byte[maxLength];
+        long address;
+        int length;
+
+        void startBlock(int block) {
+            address = blocks.getLong(8L * block);
+            read(0);
+        }
+
+        void next() {
+            int shared = readVarint();
+            read(shared);
+        }
+
+        private void read(int shared) {
+            int suffix = readVarint();
+            data.get(address, buf, shared, suffix);
+            address += suffix;
+            length = shared + suffix;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = data.get(address++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+    }
+
+    private int blockCount() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Compares two UTF-8 strings in the UTF-16 order of String.compareTo. The
+     * orders only differ when a supplementary character meets a character
+     * above the surrogates, so the first differing code points are compared
+     * by their leading UTF-16 unit.
+     */
+    static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        int common = Math.min(aLength, bLength);
+        int i = 0;
+        while (i < common && a[i] == b[i])
+            i++;
+        if (i == common)
+            return Integer.compare(aLength, bLength);
+        // both strings agree up to here, so the differing code points start at the same offset
+        while (i > 0 && (a[i] & 0xC0) == 0x80)
+            i--;
+        return compareCodePoints(codePointAt(a, i), codePointAt(b, i));
+    }
+
+    /** Compares two code points by their UTF-16 encoding, like String.compareTo. */
+    static int compareCodePoints(int x, int y) {
+        int res = Character.compare(leadingUnit(x), leadingUnit(y));
+        return res != 0 ? res : Integer.compare(x, y);
+    }
+
+    private static int codePointAt(byte[] s, int i) {
+        int b0 = s[i] & 0xFF;
+        if (b0 < 0x80)
+            return b0;
+        if (b0 < 0xE0)
+            return ((b0 & 0x1F) << 6) | (s[i + 1] & 0x3F);
+        if (b0 < 0xF0)
+            return ((b0 & 0x0F) << 12) | ((s[i + 1] & 0x3F) << 6) | (s[i + 2] & 0x3F);
+        return ((b0 & 0x07) << 18) | ((s[i + 1] & 0x3F) << 12) | ((s[i + 2] & 0x3F) << 6) | (s[i + 3] & 0x3F);
+    }
+
+    private static char leadingUnit(int codePoint) {
+        return Character.isBmpCodePoint(codePoint) ? (char) codePoint : Character.highSurrogate(codePoint);
+    }
+
+    /** Collects strings in ascending order and front codes them block by block. */
+    static final class Builder {
+        private final OffHeapRegion data;
+        private final OffHeapRegion blocks = new OffHeapRegion();
+        private byte[] block = new byte[256];
+        private int blockLength;
+        private byte[] previous = new byte[0];
+        private int size;
+        private int maxLength;
+
+        Builder() {
+            this(new OffHeapRegion());
+        }
+
+        /** Builds into the given region, small pages are for tests. */
+        Builder(OffHeapRegion data) {
+            this.data = data;
+        }
+
+        Builder add(String s) {
+            return add(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Adds the UTF-8 string, which must not sort before the previous one. */
+        Builder add(byte[] utf8) {
+            if (size > 0 && compare(previous, previous.length, utf8, utf8.length) > 0)
+                throw new IllegalArgumentException("strings must be added in ascending order");
+            if (size % BLOCK_SIZE == 0) {
+                flush();
+                writeVarint(utf8.length);
+                write(utf8, 0, utf8.length);
+            } else {
+                int shared = 0;
+                int common = Math.min(previous.length, utf8.length);
+                while (shared < common && previous[shared] == utf8[shared])
+                    shared++;
+                writeVarint(shared);
+                writeVarint(utf8.length - shared);
+                write(utf8, shared, utf8.length - shared);
+            }
+            previous = utf8;
+            maxLength = Math.max(maxLength, utf8.length);
+            size++;
+            return this;
+        }
+
+        FrontCodedStringStore build() {
+            flush();
+            return new FrontCodedStringStore(data, blocks, size, maxLength);
+        }
+
+        /** Appends the finished block in one piece, so a block never crosses a page. */
+        private void flush() {
+            if (blockLength == 0)
+                return;
+            int index = (size - 1) / BLOCK_SIZE;
+            blocks.ensureCapacity(8L * (index + 1));
+            blocks.putLong(8L * index, data.append(Arrays.copyOf(block, blockLength)));
+            blockLength = 0;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        private void writeByte(int b) {
+            if (blockLength == block.length)
+                block = Arrays.copyOf(block, blockLength * 2);
+            block[blockLength++] = (byte) b;
+        }
+
+        private void write(byte[] bytes, int from, int length) {
+            if (blockLength + length > block.length)
+                block = Arrays.copyOf(block, Math.max(blockLength + length, block.length * 2));
+            System.arraycopy(bytes, from, block, blockLength, length);
+            blockLength += length;
+        }
+    }
+}
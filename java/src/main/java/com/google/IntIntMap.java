@@ -0,0 +1,113 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * A class used to map non-negative ints to non-negative ints without boxing.
+ * Open addressing with linear probing, removals shift the following entries
+ * back instead of leaving deleted markers.
+ */
+final class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    IntIntMap() {
+        this(8);
+    }
+
+    IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /** Returns the value of key, or -1 if it is not mapped. */
+    int get(int key) {
+        for (int slot = slot(key);; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return values[slot];
+            if (keys[slot] == EMPTY)
+                return -1;
+        }
+    }
+
+    boolean containsKey(int key) {
+        return get(key) >= 0;
+    }
+
+    /** Maps key to value, returns the previous value or -1. */
+    int put(int key, int value) {
+        int slot = slot(key);
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+        return -1;
+    }
+
+    /** Removes key, returns its value or -1 if it was not mapped. */
+    int remove(int key) {
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY)
+                return -1;
+            slot = (slot + 1) & mask;
+        }
+        int value = values[slot];
+        // move later entries of the probe chain into the gap so lookups never stop early
+        for (int next = (slot + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keys[slot] = EMPTY;
+        size--;
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A class used to make playlist and flag changes survive a restart. Every
+ * change is appended to a binary write-ahead journal, which is replayed on
+ * startup. Once enough records have been appended the current state is
+ * written to a snapshot and the journal starts over, so recovery only reads
+ * the snapshot and the changes made after it.
+ *
+ * <pre>
+ * file     magic, version, generation, then records
+ * record   int payload length, int CRC32C of the payload, payload
+ * payload  type byte, then every field as varint length and UTF-8 bytes
+ * </pre>
+ *
+ * The snapshot holds the same records and is moved into place atomically.
+ * A journal is only replayed on top of the snapshot of its own generation, a
+ * journal older than the snapshot was compacted into it already. Replay of
+ * the journal stops at the first torn or corrupt record and cuts the journal
+ * there, that is where a crash left it. The snapshot was forced before it
+ * was moved into place, so a bad record in it is damage, not a crash:
+ * opening fails instead of replaying the journal on top of part of the
+ * state.
+ */
+final class Journal implements Closeable {
+
+    static final int MAGIC = 0x564A4E4C; // "VJNL"
+    static final int SNAPSHOT_MAGIC = 0x564A534E; // "VJSN"
+    static final int VERSION = 1;
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+    /** System property holding the number of records after which the journal is compacted. */
+    static final String COMPACT_EVERY_PROPERTY = "journal.compactEvery";
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD = 1 << 20;
+    private static final long ASYNC_INTERVAL_MILLIS = 100;
+
+    private static final byte CREATE_PLAYLIST = 1;
+    private static final byte ADD_TO_PLAYLIST = 2;
+    private static final byte REMOVE_FROM_PLAYLIST = 3;
+    private static final byte CLEAR_PLAYLIST = 4;
+    private static final byte DELETE_PLAYLIST = 5;
+    private static final byte FLAG_VIDEO = 6;
+    private static final byte ALLOW_VIDEO = 7;
+
+    /** When an appended record has to be on disk. */
+    enum Durability {
+        /** Every record is forced to disk before the append returns. */
+        PER_OP,
+        /**
+         * The append waits until its record is forced, appends racing each
+         * other share one force.
+         */
+        PER_BATCH,
+        /** Records are forced in the background, a crash loses the last few. */
+        ASYNC
+    }
+
+    /** The changes the journal records, also the receiver of a replay. */
+    interface Mutations {
+        void createPlaylist(String playlistName);
+
+        void addToPlaylist(String playlistName, String videoId);
+
+        void removeFromPlaylist(String playlistName, String videoId);
+
+        void clearPlaylist(String playlistName);
+
+        void deletePlaylist(String playlistName);
+
+        void flagVideo(String videoId, String reason);
+
+        void allowVideo(String videoId);
+    }
+
+    private final Path path;
+    private final Path snapshot;
+    private final Durability durability;
+    private final long compactEvery;
+    private FileChannel channel;
+    private long generation;
+    private byte[] pending = new byte[1 << 12];
+    private int pendingLength;
+    private long appended;
+    private long durable;
+    private long sinceSnapshot;
+    private boolean syncing;
+    private IOException failure;
+    private final Thread flusher;
+    private boolean closed;
+
+    private Journal(Path path, Durability durability, long compactEvery, long generation, long records)
+            throws IOException {
+        this.path = path;
+        this.snapshot = snapshotFor(path);
+        this.durability = durability;
+        this.compactEvery = compactEvery;
+        this.generation = generation;
+        this.sinceSnapshot = records;
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        if (durability == Durability.ASYNC) {
+            flusher = new Thread(this::flushPeriodically, "journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    static Path snapshotFor(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Replays the snapshot and the journal at path into target, then opens the
+     * journal for appending. Missing files mean an empty history.
+     */
+    static Journal open(Path path, Durability durability, Mutations target) throws IOException {
+        return open(path, durability, Long.getLong(COMPACT_EVERY_PROPERTY, 1_000_000), target);
+    }
+
+    static Journal open(Path path, Durability durability, long compactEvery, Mutations target) throws IOException {
+        Path snapshot = snapshotFor(path);
+        long generation = 0;
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = input(snapshot)) {
+                generation = readHeader(in, SNAPSHOT_MAGIC, snapshot);
+                replay(in, target, snapshot);
+            }
+        }
+        long records = 0;
+        if (Files.exists(path) && Files.size(path) >= HEADER_SIZE) {
+            long valid;
+            try (DataInputStream in = input(path)) {
+                long journalGeneration = readHeader(in, MAGIC, path);
+                if (journalGeneration == generation) {
+                    Replay replay = replay(in, target, null);
+                    valid = HEADER_SIZE + replay.bytes;
+                    records = replay.records;
+                } else if (journalGeneration > generation) {
+                    throw new IOException(path + " is newer than its snapshot " + snapshot);
+                } else {
+                    // compacted into the snapshot already, the crash came before the journal was reset
+                    valid = -1;
+                }
+            }
+            if (valid < 0) {
+                writeEmpty(path, generation);
+            } else {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+        } else {
+            writeEmpty(path, generation);
+        }
+        return new Journal(path, durability, compactEvery, generation, records);
+    }
+
+    // --- appending -----------------------------------------------------------
+
+    void createPlaylist(String playlistName) {
+        append(CREATE_PLAYLIST, playlistName, null);
+    }
+
+    void addToPlaylist(String playlistName, String videoId) {
+        append(ADD_TO_PLAYLIST, playlistName, videoId);
+    }
+
+    void removeFromPlaylist(String playlistName, String videoId) {
+        append(REMOVE_FROM_PLAYLIST, playlistName, videoId);
+    }
+
+    void clearPlaylist(String playlistName) {
+        append(CLEAR_PLAYLIST, playlistName, null);
+    }
+
+    void deletePlaylist(String playlistName) {
+        append(DELETE_PLAYLIST, playlistName, null);
+    }
+
+    void flagVideo(String videoId, String reason) {
+        append(FLAG_VIDEO, videoId, reason);
+    }
+
+    void allowVideo(String videoId) {
+        append(ALLOW_VIDEO, videoId, null);
+    }
+
+    /**
+     * Appends the record and returns once it is as durable as the mode
+     * promises. A failed write is rethrown to every later append, the journal
+     * must not silently lose changes.
+     */
+    private void append(byte type, String first, String second) {
+        long sequence;
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("journal is closed");
+            checkFailure();
+            encode(type, first, second);
+            sequence = ++appended;
+            sinceSnapshot++;
+            if (durability == Durability.PER_OP) {
+                try {
+                    writePending();
+                    channel.force(false);
+                    durable = appended;
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            if (durability == Durability.ASYNC)
+                return;
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Group commit: the first appender finding no force in progress writes
+     * everything pending and forces it, the others wait for that force and
+     * return if it covered their record. The force of {@link #close()}
+     * covers every record appended before it.
+     */
+    private void awaitDurable(long sequence) {
+        byte[] batch;
+        int length;
+        long upTo;
+        synchronized (this) {
+            while (true) {
+                if (durable >= sequence)
+                    return;
+                checkFailure();
+                if (closed)
+                    throw new IllegalStateException("journal was closed before the record was forced");
+                if (!syncing)
+                    break;
+                waitForSync();
+            }
+            syncing = true;
+            batch = pending;
+            length = pendingLength;
+            upTo = appended;
+            pending = new byte[Math.max(1 << 12, batch.length)];
+            pendingLength = 0;
+        }
+        IOException error = null;
+        try {
+            channel.write(ByteBuffer.wrap(batch, 0, length));
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error == null)
+                durable = Math.max(durable, upTo);
+            else
+                failure = error;
+            notifyAll();
+            checkFailure();
+        }
+    }
+
+    /** Forces everything appended so far to disk. */
+    void sync() {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        awaitDurable(sequence);
+    }
+
+    private void flushPeriodically() {
+        try {
+            while (true) {
+                Thread.sleep(ASYNC_INTERVAL_MILLIS);
+                synchronized (this) {
+                    if (closed)
+                        return;
+                }
+                sync();
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            // closed, or the failure is reported to the next append
+        }
+    }
+
+    private void writePending() throws IOException {
+        channel.write(ByteBuffer.wrap(pending, 0, pendingLength));
+        pendingLength = 0;
+    }
+
+    private void waitForSync() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the journal", e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null)
+            throw new UncheckedIOException("journal write failed", failure);
+    }
+
+    // --- compaction ----------------------------------------------------------
+
+    /** Whether enough records were appended since the last snapshot to compact. */
+    synchronized boolean needsCompaction() {
+        return sinceSnapshot >= compactEvery;
+    }
+
+    /**
+     * Writes the state produced by the given writer as the new snapshot and
+     * starts an empty journal. The writer must describe the state after the
+     * last appended record, appends wait until the compaction is done.
+     */
+    synchronized void compact(Consumer<Mutations> state) throws IOException {
+        while (syncing)
+            waitForSync();
+        writePending();
+        channel.force(false);
+        durable = appended;
+
+        long next = generation + 1;
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotWriter writer = new SnapshotWriter(Channels.newOutputStream(out));
+            writer.header(SNAPSHOT_MAGIC, next);
+            state.accept(writer);
+            writer.flush();
+            out.force(false);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // a crash here leaves an older journal next to the new snapshot, open() ignores it
+        channel.close();
+        writeEmpty(path, next);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        generation = next;
+        sinceSnapshot = 0;
+    }
+
+    /**
+     * Forces what is pending and closes the journal. Appenders still waiting
+     * for a group force return, their records went out with this one.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            while (syncing)
+                waitForSync();
+            closed = true;
+            try {
+                writePending();
+                channel.force(false);
+                durable = appended;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                channel.close();
+                notifyAll();
+            }
+        }
+        if (flusher != null)
+            flusher.interrupt();
+    }
+
+    // --- encoding ------------------------------------------------------------
+
+    /** Appends the framed record to the pending bytes. */
+    private void encode(byte type, String first, String second) {
+        byte[] a = first.getBytes(StandardCharsets.UTF_8);
+        byte[] b = second == null ? null : second.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + varintSize(a.length) + a.length + (b == null ? 0 : varintSize(b.length) + b.length);
+        if (pendingLength + 8 + payload > pending.length)
+            pending = Arrays.copyOf(pending, Math.max(pendingLength + 8 + payload, pending.length * 2));
+        pendingLength = frame(pending, pendingLength, type, a, b, payload);
+    }
+
+    private static int frame(byte[] buf, int at, byte type, byte[] a, byte[] b, int payload) {
+        ByteBuffer out = ByteBuffer.wrap(buf, at, 8 + payload);
+        out.putInt(payload);
+        out.putInt(0);
+        out.put(type);
+        putString(out, a);
+        if (b != null)
+            putString(out, b);
+        CRC32C crc = new CRC32C();
+        crc.update(buf, at + 8, payload);
+        ByteBuffer.wrap(buf).putInt(at + 4, (int) crc.getValue());
+        return at + 8 + payload;
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            out.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        out.put((byte) length);
+        out.put(bytes);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    /** Encodes the records of a snapshot straight to its file. */
+    private static final class SnapshotWriter implements Mutations {
+        private final DataOutputStream out;
+        private byte[] buf = new byte[1 << 12];
+
+        SnapshotWriter(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        void header(int magic, long generation) {
+            try {
+                out.writeInt(magic);
+                out.writeInt(VERSION);
+                out.writeLong(generation);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        private void write(byte type, String first, String second) {
+            byte[] a = first.getBytes(StandardCharsets.UTF_8);
+            byte[] b = second == null ? null : second.getBytes(StandardCharsets.UTF_8);
+            int payload = 1 + varintSize(a.length) + a.length + (b == null ? 0 : varintSize(b.length) + b.length);
+            if (8 + payload > buf.length)
+                buf = new byte[Math.max(8 + payload, buf.length * 2)];
+            int length = frame(buf, 0, type, a, b, payload);
+            try {
+                out.write(buf, 0, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void createPlaylist(String playlistName) {
+            write(CREATE_PLAYLIST, playlistName, null);
+        }
+
+        @Override
+        public void addToPlaylist(String playlistName, String videoId) {
+            write(ADD_TO_PLAYLIST, playlistName, videoId);
+        }
+
+        @Override
+        public void removeFromPlaylist(String playlistName, String videoId) {
+            write(REMOVE_FROM_PLAYLIST, playlistName, videoId);
+        }
+
+        @Override
+        public void clearPlaylist(String playlistName) {
+            write(CLEAR_PLAYLIST, playlistName, null);
+        }
+
+        @Override
+        public void deletePlaylist(String playlistName) {
+            write(DELETE_PLAYLIST, playlistName, null);
+        }
+
+        @Override
+        public void flagVideo(String videoId, String reason) {
+            write(FLAG_VIDEO, videoId, reason);
+        }
+
+        @Override
+        public void allowVideo(String videoId) {
+            write(ALLOW_VIDEO, videoId, null);
+        }
+    }
+
+    // --- replay --------------------------------------------------------------
+
+    private static DataInputStream input(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    private static long readHeader(DataInputStream in, int magic, Path file) throws IOException {
+        try {
+            if (in.readInt() != magic || in.readInt() != VERSION)
+                throw new IOException(file + " is not a journal of this version");
+            return in.readLong();
+        } catch (EOFException e) {
+            throw new IOException(file + " has a truncated header", e);
+        }
+    }
+
+    private static void writeEmpty(Path path, long generation) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+            out.write(header);
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** How much of a file was replayed. */
+    private static final class Replay {
+        long records;
+        long bytes;
+    }
+
+    /**
+     * Replays records into target until the end of the input. For the journal
+     * a torn or corrupt record ends the replay, for a snapshot, passed as
+     * strict, it is an error: only the end of the file may end a snapshot.
+     */
+    private static Replay replay(DataInputStream in, Mutations target, Path strict) throws IOException {
+        Replay replay = new Replay();
+        byte[] payload = new byte[1 << 12];
+        CRC32C crc = new CRC32C();
+        while (true) {
+            int first = in.read();
+            if (first < 0)
+                return replay;
+            int length;
+            int checksum;
+            try {
+                length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                checksum = in.readInt();
+                if (length < 1 || length > MAX_RECORD)
+                    return corrupt(replay, strict);
+                if (length > payload.length)
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                // a torn last record, it was never acknowledged
+                return corrupt(replay, strict);
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+                return corrupt(replay, strict);
+            apply(payload, length, target);
+            replay.records++;
+            replay.bytes += 8 + length;
+        }
+    }
+
+    /** Ends the replay of the journal at a bad record, fails the replay of a snapshot. */
+    private static Replay corrupt(Replay replay, Path strict) throws IOException {
+        if (strict != null)
+            throw new IOException(strict + " is corrupt after record " + replay.records);
+        return replay;
+    }
+
+    private static void apply(byte[] payload, int length, Mutations target) {
+        int[] at = { 1 };
+        String first = readString(payload, at);
+        String second = at[0] < length ? readString(payload, at) : null;
+        switch (payload[0]) {
+        case CREATE_PLAYLIST:
+            target.createPlaylist(first);
+            break;
+        case ADD_TO_PLAYLIST:
+            target.addToPlaylist(first, second);
+            break;
+        case REMOVE_FROM_PLAYLIST:
+            target.removeFromPlaylist(first, second);
+            break;
+        case CLEAR_PLAYLIST:
+            target.clearPlaylist(first);
+            break;
+        case DELETE_PLAYLIST:
+            target.deletePlaylist(first);
+            break;
+        case FLAG_VIDEO:
+            target.flagVideo(first, second);
+            break;
+        case ALLOW_VIDEO:
+            target.allowVideo(first);
+            break;
+        default:
+            throw new IllegalStateException("unknown journal record type " + payload[0]);
+        }
+    }
+
+    private static String readString(byte[] payload, int[] at) {
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = payload[at[0]++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0)
+                break;
+        }
+        String s = new String(payload, at[0], length, StandardCharsets.UTF_8);
+        at[0] += length;
+        return s;
+    }
+}
@@ -0,0 +1,81 @@
+package com.google;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class used to represent a video whose tags stay in the memory-mapped
+ * {@link CatalogSnapshot} until they are asked for. Only the title, the id
+ * and the flag state are resident, the tags are decoded on every access, or
+ * served from the bounded, lock-free cache of the {@link Source}. A reload
+ * that changes the video replaces it with a plain {@link Video}.
+ */
+final class LazyVideo extends Video {
+
+    private final Source source;
+    private final int record;
+
+    LazyVideo(String title, String videoId, Source source, int record) {
+        super(title, videoId, (int[]) null);
+        this.source = source;
+        this.record = record;
+    }
+
+    @Override
+    int[] getTagIds() {
+        return source.tags(record);
+    }
+
+    /**
+     * Decodes tags from a snapshot, caching recently decoded records. The
+     * cache is direct-mapped: a record has a single slot, chosen by its low
+     * bits, and a decode overwrites whatever record was in it. Readers never
+     * lock, a slot is read and written as one reference.
+     */
+    static final class Source {
+        private final CatalogSnapshot snapshot;
+        private final AtomicReferenceArray<Cached> slots;
+        private final int mask;
+        private final LongAdder decoded = new LongAdder();
+
+        private static final class Cached {
+            final int record;
+            final int[] tags;
+
+            Cached(int record, int[] tags) {
+                this.record = record;
+                this.tags = tags;
+            }
+        }
+
+        /**
+         * Creates a source caching the tags of up to cacheSize records, rounded
+         * down to a power of two, 0 disables the cache.
+         */
+        Source(CatalogSnapshot snapshot, int cacheSize) {
+            this.snapshot = snapshot;
+            int slotCount = cacheSize > 0 ? Integer.highestOneBit(cacheSize) : 0;
+            this.slots = new AtomicReferenceArray<>(slotCount);
+            this.mask = slotCount - 1;
+        }
+
+        int[] tags(int record) {
+            int slot = record & mask;
+            if (slots.length() > 0) {
+                Cached cached = slots.get(slot);
+                if (cached != null && cached.record == record)
+                    return cached.tags;
+            }
+            int[] tags = snapshot.tagIds(record);
+            decoded.increment();
+            if (slots.length() > 0)
+                slots.set(slot, new Cached(record, tags));
+            return tags;
+        }
+
+        /** Number of records decoded from the snapshot so far. */
+        long getDecoded() {
+            return decoded.sum();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A class used to answer case-insensitive substring queries over a set of
+ * strings keyed by int. Every string is case-folded and split into trigrams,
+ * each trigram maps to a sorted posting list of keys. A query intersects the
+ * posting lists of its own trigrams and verifies the few remaining candidates,
+ * so no regex is compiled and only matching strings are looked at.
+ *
+ * Case folding follows {@code Pattern.CASE_INSENSITIVE}, which only folds
+ * US-ASCII letters.
+ */
+final class NgramIndex {
+
+    private static final int N = 3;
+
+    private final HashMap<Long, Postings> postings;
+    private String[] folded;
+    private int size;
+
+    NgramIndex() {
+        this.postings = new HashMap<>();
+        this.folded = new String[16];
+    }
+
+    private NgramIndex(NgramIndex original) {
+        this.postings = new HashMap<>(original.postings);
+        this.folded = original.folded.clone();
+        this.size = original.size;
+    }
+
+    /**
+     * Returns a copy to change while this index is still being searched. The
+     * posting lists are shared until the copy first changes them.
+     */
+    NgramIndex copy() {
+        return new NgramIndex(this);
+    }
+
+    /** Indexes text under key. A key may only hold one text at a time. */
+    void add(int key, String text) {
+        if (key >= folded.length)
+            folded = Arrays.copyOf(folded, Math.max(key + 1, folded.length * 2));
+        String f = fold(text);
+        if (folded[key] != null)
+            throw new IllegalStateException("key already indexed: " + key);
+        folded[key] = f;
+        size++;
+        for (int i = 0; i + N <= f.length(); i++)
+            ownedPostings(gram(f, i), true).add(key);
+    }
+
+    /** Removes the text indexed under key, if any. */
+    void remove(int key) {
+        if (key >= folded.length || folded[key] == null)
+            return;
+        String f = folded[key];
+        folded[key] = null;
+        size--;
+        for (int i = 0; i + N <= f.length(); i++) {
+            Long gram = gram(f, i);
+            Postings list = ownedPostings(gram, false);
+            if (list != null && list.remove(key) && list.size == 0)
+                postings.remove(gram);
+        }
+    }
+
+    /** Returns the posting list of gram to change, copying it if another index shares it. */
+    private Postings ownedPostings(Long gram, boolean create) {
+        Postings list = postings.get(gram);
+        if (list == null) {
+            if (!create)
+                return null;
+            list = new Postings(this);
+            postings.put(gram, list);
+        } else if (list.owner != this) {
+            list = list.copy(this);
+            postings.put(gram, list);
+        }
+        return list;
+    }
+
+    /** Number of indexed strings. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the keys whose text contains the query, ignoring case, in
+     * ascending key order.
+     */
+    int[] search(String query) {
+        String q = fold(query);
+        if (q.length() < N)
+            return scan(q);
+
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + N <= q.length(); i++) {
+            Postings list = postings.get(gram(q, i));
+            if (list == null)
+                return new int[0];
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        Postings smallest = lists.get(0);
+        int[] result = new int[smallest.size];
+        int count = 0;
+        candidates:
+        for (int i = 0; i < smallest.size; i++) {
+            int key = smallest.keys[i];
+            for (int l = 1; l < lists.size(); l++) {
+                if (!lists.get(l).contains(key))
+                    continue candidates;
+            }
+            // the trigrams may occur in a different order or overlap, check the real text
+            if (q.length() == N || folded[key].contains(q))
+                result[count++] = key;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Queries shorter than a trigram have no posting list, check every string. */
+    private int[] scan(String q) {
+        int[] result = new int[size];
+        int count = 0;
+        for (int key = 0; key < folded.length && count < size; key++) {
+            if (folded[key] != null && folded[key].contains(q))
+                result[count++] = key;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Lower-cases US-ASCII letters only, like Pattern.CASE_INSENSITIVE. */
+    static String fold(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                char[] chars = s.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    if (chars[j] >= 'A' && chars[j] <= 'Z')
+                        chars[j] += 'a' - 'A';
+                }
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+    private static Long gram(String f, int i) {
+        return ((long) f.charAt(i) << 32) | ((long) f.charAt(i + 1) << 16) | f.charAt(i + 2);
+    }
+
+    /** A sorted, growable list of keys. */
+    private static final class Postings {
+        // the index allowed to change the list in place
+        final NgramIndex owner;
+        int[] keys = new int[4];
+        int size;
+
+        Postings(NgramIndex owner) {
+            this.owner = owner;
+        }
+
+        Postings copy(NgramIndex owner) {
+            Postings copy = new Postings(owner);
+            copy.keys = Arrays.copyOf(keys, Math.max(size + 1, 4));
+            copy.size = size;
+            return copy;
+        }
+
+        void add(int key) {
+            if (size > 0 && keys[size - 1] == key)
+                return;
+            if (size == keys.length)
+                keys = Arrays.copyOf(keys, size * 2);
+            if (size == 0 || keys[size - 1] < key) {
+                // keys are mostly handed out in increasing order
+                keys[size++] = key;
+                return;
+            }
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            if (at >= 0)
+                return;
+            at = -at - 1;
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            keys[at] = key;
+            size++;
+        }
+
+        boolean remove(int key) {
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            if (at < 0)
+                return false;
+            System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(int key) {
+            return Arrays.binarySearch(keys, 0, size, key) >= 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.google;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A class used to hold a growable block of off-heap memory addressed by long.
+ * The memory is split into direct {@link ByteBuffer} pages so a region can
+ * grow past 2 GB, only the last page is grown by copying. Fixed width values
+ * are expected at addresses aligned to their width and byte strings appended
+ * with {@link #append(byte[])} never cross a page, so every access touches a
+ * single page.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the
+ * maximum heap size.
+ *
+ * Plain accesses are for a single thread. {@link #getLongVolatile(long)} and
+ * {@link #compareAndSetLong(long, long, long)} may be used by any thread on
+ * memory that no longer grows.
+ */
+final class OffHeapRegion {
+
+    static final int DEFAULT_PAGE_BITS = 30;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static final int MIN_PAGE = 1 << 12;
+
+    private final int pageBits;
+    private final int pageSize;
+    private final long pageMask;
+    private ByteBuffer[] pages = new ByteBuffer[1];
+    private long capacity;
+    private long end;
+
+    OffHeapRegion() {
+        this(DEFAULT_PAGE_BITS);
+    }
+
+    /** Creates a region of pages of 2^pageBits bytes, small pages are for tests. */
+    OffHeapRegion(int pageBits) {
+        this.pageBits = pageBits;
+        this.pageSize = 1 << pageBits;
+        this.pageMask = pageSize - 1;
+    }
+
+    /** Makes the addresses below size usable, new memory reads as zero. */
+    void ensureCapacity(long size) {
+        if (size <= capacity)
+            return;
+        int last = (int) ((size - 1) >>> pageBits);
+        if (last >= pages.length)
+            pages = Arrays.copyOf(pages, Math.max(last + 1, pages.length * 2));
+        for (int p = 0; p <= last; p++) {
+            ByteBuffer page = pages[p];
+            int needed = p < last ? pageSize : (int) (size - ((long) p << pageBits));
+            if (page != null && page.capacity() >= needed)
+                continue;
+            long doubled = page == null ? MIN_PAGE : 2L * page.capacity();
+            int grownSize = p < last ? pageSize : (int) Math.min(pageSize, Math.max(needed, doubled));
+            ByteBuffer grown = ByteBuffer.allocateDirect(grownSize).order(ByteOrder.nativeOrder());
+            if (page != null)
+                grown.put(page.duplicate().clear()).clear();
+            pages[p] = grown;
+        }
+        capacity = ((long) last << pageBits) + pages[last].capacity();
+    }
+
+    /** Appends the bytes and returns their address. */
+    long append(byte[] bytes) {
+        if (bytes.length > pageSize)
+            throw new IllegalArgumentException("string of " + bytes.length + " bytes doesn't fit a page");
+        if ((end & pageMask) + bytes.length > pageSize)
+            end = (end | pageMask) + 1;
+        ensureCapacity(end + bytes.length);
+        long address = end;
+        page(address).duplicate().position(offset(address)).put(bytes);
+        end += bytes.length;
+        return address;
+    }
+
+    /** Number of bytes handed out by {@link #append(byte[])}. */
+    long appended() {
+        return end;
+    }
+
+    /** Bytes of direct memory currently allocated. */
+    long allocated() {
+        return capacity;
+    }
+
+    byte[] get(long address, int length) {
+        byte[] bytes = new byte[length];
+        page(address).duplicate().position(offset(address)).get(bytes);
+        return bytes;
+    }
+
+    /** Copies length bytes at address into dst, starting at offset. */
+    void get(long address, byte[] dst, int offset, int length) {
+        page(address).duplicate().position(offset(address)).get(dst, offset, length);
+    }
+
+    byte get(long address) {
+        return page(address).get(offset(address));
+    }
+
+    int getInt(long address) {
+        return page(address).getInt(offset(address));
+    }
+
+    void putInt(long address, int value) {
+        page(address).putInt(offset(address), value);
+    }
+
+    long getLong(long address) {
+        return page(address).getLong(offset(address));
+    }
+
+    void putLong(long address, long value) {
+        page(address).putLong(offset(address), value);
+    }
+
+    long getLongVolatile(long address) {
+        return (long) LONGS.getVolatile(page(address), offset(address));
+    }
+
+    /** Atomically replaces the long at address if it still holds expected. */
+    boolean compareAndSetLong(long address, long expected, long value) {
+        return LONGS.compareAndSet(page(address), offset(address), expected, value);
+    }
+
+    private ByteBuffer page(long address) {
+        return pages[(int) (address >>> pageBits)];
+    }
+
+    private int offset(long address) {
+        return (int) (address & pageMask);
+    }
+}
@@ -0,0 +1,951 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A class used to represent a video catalog that lives off the heap, for
+ * catalogs too large to keep as {@link Video} objects. Every video is a
+ * fixed size record in a struct-of-arrays layout:
+ *
+ * <pre>
+ * records  tag address, tag count, title rank, id rank
+ * tags     int tag ids of the global {@link TagDictionary}
+ * flags    one bit per video
+ * titles   front-coded titles in {@link Video#compareTo} order
+ * sorted   ordinal per title rank
+ * ids      front-coded ids in id order
+ * </pre>
+ *
+ * and the indexes over them:
+ *
+ * <pre>
+ * idIndex      open addressing, hash and ordinal per slot
+ * titleIndex   the same for titles, the ordinal loaded last wins
+ * tagPostings  title ranks per tag id, ascending
+ * gramTable    open addressing, trigram of the folded UTF-8 title, posting
+ *              count and first posting per slot
+ * gramPostings title ranks per trigram, ascending
+ * </pre>
+ *
+ * The text is streamed in line by line, nothing is kept on the heap per
+ * video. While loading, the raw UTF-8 strings are kept off-heap as well, they
+ * are dropped once the titles and ids are sorted, front coded and indexed.
+ * A lookup by id or title hashes the key and compares it with the string of
+ * the ordinal it finds, a search intersects posting lists that are already in
+ * title order. Only the tag vocabulary is indexed on the heap, one entry per
+ * distinct tag.
+ *
+ * Videos handed out are flyweights decoded from their record on every call,
+ * they compare equal by ordinal like the videos of the heap library. Only the
+ * reasons of flagged videos and cached search results stay on the heap.
+ *
+ * The catalog is read once, hot reload is not supported. Queries read the
+ * records without locks, flags are set with a compare-and-set on their word.
+ */
+final class OffHeapVideoLibrary implements VideoCatalog {
+
+    private static final int RECORD_SIZE = 24;
+    private static final int TAG_ADDRESS = 0;
+    private static final int TAG_COUNT = 8;
+    private static final int TITLE_RANK = 12;
+    private static final int ID_RANK = 16;
+    // raw strings per ordinal while loading
+    private static final int RAW_SIZE = 16;
+    private static final int STRING_ADDRESS = 0;
+    private static final int TITLE_LENGTH = 8;
+    private static final int ID_LENGTH = 12;
+    // attempts at drawing an unflagged video before counting through the flag bitmap
+    private static final int RANDOM_ATTEMPTS = 32;
+    // trigram + 1, posting count, address of the first posting
+    private static final int GRAM_ENTRY = 16;
+    private static final int GRAM_KEY = 0;
+    private static final int GRAM_COUNT = 4;
+    private static final int GRAM_START = 8;
+    private static final int N = 3;
+
+    private final OffHeapRegion records = new OffHeapRegion();
+    private final OffHeapRegion tags = new OffHeapRegion();
+    private final OffHeapRegion flags = new OffHeapRegion();
+    private final OffHeapRegion sorted = new OffHeapRegion();
+    private FrontCodedStringStore titles = new FrontCodedStringStore.Builder().build();
+    private FrontCodedStringStore ids = new FrontCodedStringStore.Builder().build();
+    private OffHeapRegion raw = new OffHeapRegion();
+    private OffHeapRegion strings = new OffHeapRegion();
+    private OffHeapRegion idIndex = new OffHeapRegion();
+    private final OffHeapRegion titleIndex = new OffHeapRegion();
+    // first posting per tag id, the postings of tag t end where those of t + 1 start
+    private long[] tagStarts = new long[1];
+    private final OffHeapRegion tagPostings = new OffHeapRegion();
+    private final NgramIndex tagVocabulary = new NgramIndex();
+    private OffHeapRegion gramTable = new OffHeapRegion();
+    private final OffHeapRegion gramPostings = new OffHeapRegion();
+    private long tagsEnd;
+    // idIndex and titleIndex have the same capacity
+    private int indexMask;
+    private int gramMask;
+    private int gramCount;
+    private int count;
+    private final AtomicInteger flaggedCount = new AtomicInteger();
+    // flag state per flagged ordinal, the bits follow it
+    private final ConcurrentHashMap<Integer, Video.FlagState> flagStates = new ConcurrentHashMap<>();
+    private volatile SplittableRandom random;
+    private final SearchCache searchCache =
+            new SearchCache(Long.getLong(VideoLibrary.SEARCH_CACHE_PROPERTY, 1 << 20));
+    private List<CatalogParser.MalformedLine> loadErrors = new ArrayList<>();
+
+    /**
+     * Loads the given catalog file into off-heap memory. With useSnapshot the
+     * records are copied from the binary snapshot next to the file when it is
+     * current, so the text is not parsed, and the snapshot is written from
+     * the loaded records when it is not. The text is parsed on the calling
+     * thread, one video at a time.
+     */
+    OffHeapVideoLibrary(Path catalog, boolean useSnapshot) {
+        try {
+            if (useSnapshot) {
+                CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.pathFor(catalog), catalog);
+                if (snapshot != null) {
+                    presize(snapshot.size());
+                    for (int record = 0; record < snapshot.size(); record++)
+                        add(snapshot.video(record));
+                    compress();
+                    return;
+                }
+            }
+            presize(0);
+            this.loadErrors = CatalogParser.stream(catalog, this::add);
+            compress();
+            if (!loadErrors.isEmpty())
+                System.err.println("Skipped " + loadErrors.size() + " malformed lines in videos.txt");
+            if (useSnapshot)
+                writeSnapshot(catalog);
+        } catch (NoSuchFileException e) {
+            System.err.println("Couldn't find videos.txt");
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.err.println("Couldn't read videos.txt");
+            e.printStackTrace();
+        } finally {
+            raw = strings = null;
+        }
+    }
+
+    private void presize(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 8) * 2 - 1) << 1;
+        indexMask = capacity - 1;
+        idIndex.ensureCapacity(8L * capacity);
+        raw.ensureCapacity((long) RAW_SIZE * size);
+        records.ensureCapacity((long) RECORD_SIZE * size);
+        flags.ensureCapacity(8L * ((size + 63) >>> 6));
+    }
+
+    /** Doubles the id table, the entries carry their hash so no id is read again. */
+    private void growIdIndex() {
+        OffHeapRegion old = idIndex;
+        int oldCapacity = indexMask + 1;
+        idIndex = new OffHeapRegion();
+        idIndex.ensureCapacity(16L * oldCapacity);
+        indexMask = 2 * oldCapacity - 1;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long entry = old.getLong(8L * slot);
+            if (entry != 0)
+                put((int) (entry >>> 32), (int) entry - 1);
+        }
+    }
+
+    private void add(Video video) {
+        byte[] title = video.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] id = video.getVideoId().getBytes(StandardCharsets.UTF_8);
+        int idHash = hash(id);
+        int ordinal = find(idHash, id);
+        boolean replaced = ordinal >= 0;
+        if (!replaced) {
+            // a later line with the same id replaces the earlier record and takes its ordinal
+            ordinal = count++;
+            // at most half full, a streamed catalog grows the table as it goes
+            if (2L * count > indexMask + 1)
+                growIdIndex();
+            flags.ensureCapacity(8L * ((count + 63) >>> 6));
+        }
+
+        byte[] both = new byte[title.length + id.length];
+        System.arraycopy(title, 0, both, 0, title.length);
+        System.arraycopy(id, 0, both, title.length, id.length);
+        int[] tagIds = video.getTagIds();
+        tags.ensureCapacity(tagsEnd + 4L * tagIds.length);
+        long rawRecord = (long) RAW_SIZE * ordinal;
+        raw.ensureCapacity(rawRecord + RAW_SIZE);
+        raw.putLong(rawRecord + STRING_ADDRESS, strings.append(both));
+        raw.putInt(rawRecord + TITLE_LENGTH, title.length);
+        raw.putInt(rawRecord + ID_LENGTH, id.length);
+        long record = (long) RECORD_SIZE * ordinal;
+        records.ensureCapacity(record + RECORD_SIZE);
+        records.putLong(record + TAG_ADDRESS, tagsEnd);
+        records.putInt(record + TAG_COUNT, tagIds.length);
+        for (int tag : tagIds) {
+            tags.putInt(tagsEnd, tag);
+            tagsEnd += 4;
+        }
+        if (!replaced)
+            put(idHash, ordinal);
+    }
+
+    /** Writes the loaded records as the snapshot of the given file. */
+    private void writeSnapshot(Path catalog) {
+        try {
+            CatalogSnapshot.write(catalog, new CatalogSnapshot.Source() {
+                @Override
+                public int size() {
+                    return count;
+                }
+
+                @Override
+                public String title(int record) {
+                    return titles.get(records.getInt((long) RECORD_SIZE * record + TITLE_RANK));
+                }
+
+                @Override
+                public String videoId(int record) {
+                    return ids.get(records.getInt((long) RECORD_SIZE * record + ID_RANK));
+                }
+
+                @Override
+                public int[] tagIds(int record) {
+                    return OffHeapVideoLibrary.this.tagIds(record);
+                }
+
+                @Override
+                public int sortedRecord(int rank) {
+                    return sortedAt(rank);
+                }
+
+                @Override
+                public boolean ownsTitle(int record) {
+                    return findTitle(titles.getBytes(records.getInt((long) RECORD_SIZE * record + TITLE_RANK)))
+                            == record;
+                }
+            }, CatalogSnapshot.pathFor(catalog));
+        } catch (IOException e) {
+            // the text catalog is loaded already, the next start simply parses again
+            System.err.println("Couldn't write catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    // --- indexes -------------------------------------------------------------
+
+    private static int hash(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b : bytes)
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the ordinal loaded with the id, or -1. */
+    private int find(int hash, byte[] id) {
+        for (int slot = hash & indexMask;; slot = (slot + 1) & indexMask) {
+            long entry = idIndex.getLong(8L * slot);
+            if (entry == 0)
+                return -1;
+            int ordinal = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash && idEquals(ordinal, id))
+                return ordinal;
+        }
+    }
+
+    private void put(int hash, int ordinal) {
+        int slot = hash & indexMask;
+        while (idIndex.getLong(8L * slot) != 0)
+            slot = (slot + 1) & indexMask;
+        idIndex.putLong(8L * slot, ((long) hash << 32) | (ordinal + 1));
+    }
+
+    private boolean idEquals(int ordinal, byte[] id) {
+        long rawRecord = (long) RAW_SIZE * ordinal;
+        if (raw.getInt(rawRecord + ID_LENGTH) != id.length)
+            return false;
+        long address = raw.getLong(rawRecord + STRING_ADDRESS) + raw.getInt(rawRecord + TITLE_LENGTH);
+        for (int i = 0; i < id.length; i++) {
+            if (strings.get(address + i) != id[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(OffHeapRegion region, long address, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; i++)
+            h = (h ^ (region.get(address + i) & 0xFF)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the ordinal holding the UTF-8 id, or -1. */
+    private int findId(byte[] id) {
+        return lookup(idIndex, id, ids, ID_RANK);
+    }
+
+    /** Returns the ordinal the UTF-8 title was last loaded with, or -1. */
+    private int findTitle(byte[] title) {
+        return lookup(titleIndex, title, titles, TITLE_RANK);
+    }
+
+    /**
+     * Probes a loaded table for the key. An entry whose hash matches is
+     * checked against the string its ordinal's rank points at in the store.
+     */
+    private int lookup(OffHeapRegion table, byte[] key, FrontCodedStringStore store, int rankField) {
+        int hash = hash(key);
+        for (int slot = hash & indexMask;; slot = (slot + 1) & indexMask) {
+            long entry = table.getLong(8L * slot);
+            if (entry == 0)
+                return -1;
+            int ordinal = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash
+                    && Arrays.equals(store.getBytes(records.getInt((long) RECORD_SIZE * ordinal + rankField)), key))
+                return ordinal;
+        }
+    }
+
+    /**
+     * Maps every title to the last ordinal loaded with it, while the raw
+     * strings are still there to compare titles.
+     */
+    private void indexTitles() {
+        titleIndex.ensureCapacity(8L * (indexMask + 1));
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            long rawRecord = (long) RAW_SIZE * ordinal;
+            long address = raw.getLong(rawRecord + STRING_ADDRESS);
+            int length = raw.getInt(rawRecord + TITLE_LENGTH);
+            int hash = hash(strings, address, length);
+            int slot = hash & indexMask;
+            while (true) {
+                long entry = titleIndex.getLong(8L * slot);
+                if (entry == 0)
+                    break;
+                long other = (long) RAW_SIZE * ((int) entry - 1);
+                if ((int) (entry >>> 32) == hash && compareUtf8(address, length,
+                        raw.getLong(other + STRING_ADDRESS), raw.getInt(other + TITLE_LENGTH)) == 0)
+                    break;
+                slot = (slot + 1) & indexMask;
+            }
+            titleIndex.putLong(8L * slot, ((long) hash << 32) | (ordinal + 1));
+        }
+    }
+
+    /**
+     * Lists the title ranks of every tag's videos. Ranks are visited in order,
+     * so each list comes out ascending and a tag's videos sorted.
+     */
+    private void indexTags() {
+        int tagCount = TagDictionary.size();
+        long[] starts = new long[tagCount + 1];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            long record = (long) RECORD_SIZE * ordinal;
+            long address = records.getLong(record + TAG_ADDRESS);
+            for (int i = 0; i < records.getInt(record + TAG_COUNT); i++)
+                starts[tags.getInt(address + 4L * i) + 1]++;
+        }
+        for (int tag = 0; tag < tagCount; tag++)
+            starts[tag + 1] += starts[tag];
+        long[] next = Arrays.copyOf(starts, tagCount);
+        tagPostings.ensureCapacity(4L * starts[tagCount]);
+        for (int rank = 0; rank < count; rank++) {
+            long record = (long) RECORD_SIZE * sortedAt(rank);
+            long address = records.getLong(record + TAG_ADDRESS);
+            for (int i = 0; i < records.getInt(record + TAG_COUNT); i++)
+                tagPostings.putInt(4L * next[tags.getInt(address + 4L * i)]++, rank);
+        }
+        for (int tag = 0; tag < tagCount; tag++) {
+            if (starts[tag + 1] > starts[tag])
+                tagVocabulary.add(tag, TagDictionary.tag(tag));
+        }
+        tagStarts = starts;
+    }
+
+    /**
+     * Builds the trigram index over the folded UTF-8 titles in three passes
+     * over the title ranks: count the titles per trigram, lay the posting
+     * lists out one after another, then fill them. Folding only US-ASCII
+     * letters keeps byte and character matches the same.
+     */
+    private void indexGrams() {
+        gramMask = 1023;
+        gramTable.ensureCapacity((long) GRAM_ENTRY * (gramMask + 1));
+        int[] grams = new int[16];
+        for (int rank = 0; rank < count; rank++) {
+            byte[] title = rawTitleAt(rank);
+            if (title.length > grams.length)
+                grams = new int[2 * title.length];
+            int distinct = distinctGrams(title, grams);
+            for (int i = 0; i < distinct; i++) {
+                long entry = addGram(grams[i]);
+                gramTable.putInt(entry + GRAM_COUNT, gramTable.getInt(entry + GRAM_COUNT) + 1);
+            }
+        }
+        long start = 0;
+        for (int slot = 0; slot <= gramMask; slot++) {
+            long entry = (long) GRAM_ENTRY * slot;
+            if (gramTable.getInt(entry + GRAM_KEY) == 0)
+                continue;
+            gramTable.putLong(entry + GRAM_START, start);
+            start += gramTable.getInt(entry + GRAM_COUNT);
+            // counted up again while filling
+            gramTable.putInt(entry + GRAM_COUNT, 0);
+        }
+        gramPostings.ensureCapacity(4L * start);
+        for (int rank = 0; rank < count; rank++) {
+            int distinct = distinctGrams(rawTitleAt(rank), grams);
+            for (int i = 0; i < distinct; i++) {
+                long entry = gramEntry(grams[i]);
+                int filled = gramTable.getInt(entry + GRAM_COUNT);
+                gramPostings.putInt(4L * (gramTable.getLong(entry + GRAM_START) + filled), rank);
+                gramTable.putInt(entry + GRAM_COUNT, filled + 1);
+            }
+        }
+    }
+
+    private byte[] rawTitleAt(int rank) {
+        long rawRecord = (long) RAW_SIZE * sortedAt(rank);
+        return strings.get(raw.getLong(rawRecord + STRING_ADDRESS), raw.getInt(rawRecord + TITLE_LENGTH));
+    }
+
+    /**
+     * Writes the distinct trigrams of the folded title into grams, sorted,
+     * and returns how many there are. grams must be as long as the title.
+     */
+    private static int distinctGrams(byte[] title, int[] grams) {
+        int total = Math.max(title.length - N + 1, 0);
+        for (int i = 0; i < total; i++)
+            grams[i] = gram(title, i);
+        Arrays.sort(grams, 0, total);
+        int distinct = 0;
+        for (int i = 0; i < total; i++) {
+            if (distinct == 0 || grams[distinct - 1] != grams[i])
+                grams[distinct++] = grams[i];
+        }
+        return distinct;
+    }
+
+    /** The folded bytes at i, i + 1 and i + 2 in one int, never negative. */
+    private static int gram(byte[] utf8, int i) {
+        return (fold(utf8[i]) & 0xFF) << 16 | (fold(utf8[i + 1]) & 0xFF) << 8 | (fold(utf8[i + 2]) & 0xFF);
+    }
+
+    private static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 'a' - 'A') : b;
+    }
+
+    private static int spreadGram(int gram) {
+        int h = gram * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the address of the trigram's entry, or -1 when no title has it. */
+    private long gramEntry(int gram) {
+        for (int slot = spreadGram(gram) & gramMask;; slot = (slot + 1) & gramMask) {
+            long entry = (long) GRAM_ENTRY * slot;
+            int key = gramTable.getInt(entry + GRAM_KEY);
+            if (key == gram + 1)
+                return entry;
+            if (key == 0)
+                return -1;
+        }
+    }
+
+    /** Returns the address of the trigram's entry, adding it if it is new. */
+    private long addGram(int gram) {
+        long entry = gramEntry(gram);
+        if (entry >= 0)
+            return entry;
+        if (2 * (gramCount + 1) > gramMask + 1)
+            growGramTable();
+        gramCount++;
+        int slot = spreadGram(gram) & gramMask;
+        while (gramTable.getInt((long) GRAM_ENTRY * slot + GRAM_KEY) != 0)
+            slot = (slot + 1) & gramMask;
+        entry = (long) GRAM_ENTRY * slot;
+        gramTable.putInt(entry + GRAM_KEY, gram + 1);
+        return entry;
+    }
+
+    /** Doubles the trigram table while counting, only keys and counts are set yet. */
+    private void growGramTable() {
+        OffHeapRegion old = gramTable;
+        int oldCapacity = gramMask + 1;
+        gramTable = new OffHeapRegion();
+        gramTable.ensureCapacity(2L * GRAM_ENTRY * oldCapacity);
+        gramMask = 2 * oldCapacity - 1;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long from = (long) GRAM_ENTRY * slot;
+            int key = old.getInt(from + GRAM_KEY);
+            if (key == 0)
+                continue;
+            int to = spreadGram(key - 1) & gramMask;
+            while (gramTable.getInt((long) GRAM_ENTRY * to + GRAM_KEY) != 0)
+                to = (to + 1) & gramMask;
+            gramTable.putInt((long) GRAM_ENTRY * to + GRAM_KEY, key);
+            gramTable.putInt((long) GRAM_ENTRY * to + GRAM_COUNT, old.getInt(from + GRAM_COUNT));
+        }
+    }
+
+    /** Binary searches the posting list of the trigram entry for the rank. */
+    private boolean gramContains(long entry, int rank) {
+        long low = gramTable.getLong(entry + GRAM_START);
+        long high = low + gramTable.getInt(entry + GRAM_COUNT) - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int found = gramPostings.getInt(4L * mid);
+            if (found < rank)
+                low = mid + 1;
+            else if (found > rank)
+                high = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    // --- compression ---------------------------------------------------------
+
+    /**
+     * Sorts the ordinals by title and by id, front codes both in that order
+     * and builds the indexes. The raw strings are not needed afterwards.
+     */
+    private void compress() {
+        sort(sorted, this::compareByTitle);
+        FrontCodedStringStore.Builder titleStore = new FrontCodedStringStore.Builder();
+        for (int rank = 0; rank < count; rank++) {
+            int ordinal = sorted.getInt(4L * rank);
+            long rawRecord = (long) RAW_SIZE * ordinal;
+            titleStore.add(strings.get(raw.getLong(rawRecord + STRING_ADDRESS), raw.getInt(rawRecord + TITLE_LENGTH)));
+            records.putInt((long) RECORD_SIZE * ordinal + TITLE_RANK, rank);
+        }
+        titles = titleStore.build();
+
+        OffHeapRegion idOrder = new OffHeapRegion();
+        sort(idOrder, this::compareById);
+        FrontCodedStringStore.Builder idStore = new FrontCodedStringStore.Builder();
+        for (int rank = 0; rank < count; rank++) {
+            int ordinal = idOrder.getInt(4L * rank);
+            long rawRecord = (long) RAW_SIZE * ordinal;
+            int titleLength = raw.getInt(rawRecord + TITLE_LENGTH);
+            idStore.add(strings.get(raw.getLong(rawRecord + STRING_ADDRESS) + titleLength,
+                    raw.getInt(rawRecord + ID_LENGTH)));
+            records.putInt((long) RECORD_SIZE * ordinal + ID_RANK, rank);
+        }
+        ids = idStore.build();
+
+        indexTitles();
+        indexTags();
+        indexGrams();
+    }
+
+    /** Heapsorts every ordinal into the column, the sort needs no memory beyond it. */
+    private void sort(OffHeapRegion column, IntBinaryOperator comparator) {
+        column.ensureCapacity(4L * count);
+        for (int i = 0; i < count; i++)
+            column.putInt(4L * i, i);
+        for (int i = count / 2 - 1; i >= 0; i--)
+            siftDown(column, comparator, i, count);
+        for (int end = count - 1; end > 0; end--) {
+            swap(column, 0, end);
+            siftDown(column, comparator, 0, end);
+        }
+    }
+
+    private static void siftDown(OffHeapRegion column, IntBinaryOperator comparator, int at, int end) {
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= end)
+                return;
+            if (child + 1 < end
+                    && comparator.applyAsInt(column.getInt(4L * (child + 1)), column.getInt(4L * child)) > 0)
+                child++;
+            if (comparator.applyAsInt(column.getInt(4L * at), column.getInt(4L * child)) >= 0)
+                return;
+            swap(column, at, child);
+            at = child;
+        }
+    }
+
+    private static void swap(OffHeapRegion column, int i, int j) {
+        int a = column.getInt(4L * i);
+        column.putInt(4L * i, column.getInt(4L * j));
+        column.putInt(4L * j, a);
+    }
+
+    private int sortedAt(int rank) {
+        return sorted.getInt(4L * rank);
+    }
+
+    /** Compares two loaded records like {@link Video#compareTo}, by title and then id. */
+    private int compareByTitle(int first, int second) {
+        long a = (long) RAW_SIZE * first;
+        long b = (long) RAW_SIZE * second;
+        int res = compareUtf8(raw.getLong(a + STRING_ADDRESS), raw.getInt(a + TITLE_LENGTH),
+                raw.getLong(b + STRING_ADDRESS), raw.getInt(b + TITLE_LENGTH));
+        return res != 0 ? res : compareById(first, second);
+    }
+
+    private int compareById(int first, int second) {
+        long a = (long) RAW_SIZE * first;
+        long b = (long) RAW_SIZE * second;
+        return compareUtf8(raw.getLong(a + STRING_ADDRESS) + raw.getInt(a + TITLE_LENGTH), raw.getInt(a + ID_LENGTH),
+                raw.getLong(b + STRING_ADDRESS) + raw.getInt(b + TITLE_LENGTH), raw.getInt(b + ID_LENGTH));
+    }
+
+    /**
+     * Compares two UTF-8 strings in place, in the order of
+     * {@link FrontCodedStringStore#compare(byte[], int, byte[], int)}.
+     */
+    private int compareUtf8(long a, int aLength, long b, int bLength) {
+        int common = Math.min(aLength, bLength);
+        int i = 0;
+        while (i < common && strings.get(a + i) == strings.get(b + i))
+            i++;
+        if (i == common)
+            return Integer.compare(aLength, bLength);
+        // both strings agree up to here, so the differing code points start at the same offset
+        while (i > 0 && (strings.get(a + i) & 0xC0) == 0x80)
+            i--;
+        return FrontCodedStringStore.compareCodePoints(codePointAt(a + i), codePointAt(b + i));
+    }
+
+    private int codePointAt(long address) {
+        int b0 = strings.get(address) & 0xFF;
+        if (b0 < 0x80)
+            return b0;
+        if (b0 < 0xE0)
+            return ((b0 & 0x1F) << 6) | (strings.get(address + 1) & 0x3F);
+        if (b0 < 0xF0)
+            return ((b0 & 0x0F) << 12) | ((strings.get(address + 1) & 0x3F) << 6) | (strings.get(address + 2) & 0x3F);
+        return ((b0 & 0x07) << 18) | ((strings.get(address + 1) & 0x3F) << 12)
+                | ((strings.get(address + 2) & 0x3F) << 6) | (strings.get(address + 3) & 0x3F);
+    }
+
+    // --- flyweights ----------------------------------------------------------
+
+    /** Decodes the record into a new video. */
+    private Video video(int ordinal) {
+        long record = (long) RECORD_SIZE * ordinal;
+        String title = titles.get(records.getInt(record + TITLE_RANK));
+        String id = ids.get(records.getInt(record + ID_RANK));
+        Video video = new Video(title, id, tagIds(ordinal));
+        video.setOrdinal(ordinal);
+        if (isFlagged(ordinal)) {
+            Video.FlagState state = flagStates.get(ordinal);
+            if (state != null)
+                video.flag(state.reason);
+        }
+        return video;
+    }
+
+    private int[] tagIds(int ordinal) {
+        long record = (long) RECORD_SIZE * ordinal;
+        int[] tagIds = new int[records.getInt(record + TAG_COUNT)];
+        long tagAddress = records.getLong(record + TAG_ADDRESS);
+        for (int i = 0; i < tagIds.length; i++)
+            tagIds[i] = tags.getInt(tagAddress + 4L * i);
+        return tagIds;
+    }
+
+    private boolean isFlagged(int ordinal) {
+        return (flags.getLongVolatile(8L * (ordinal >>> 6)) & (1L << ordinal)) != 0;
+    }
+
+    private void setFlag(int ordinal, boolean flag) {
+        long word = 8L * (ordinal >>> 6);
+        long bits;
+        long updated;
+        do {
+            bits = flags.getLongVolatile(word);
+            updated = flag ? bits | (1L << ordinal) : bits & ~(1L << ordinal);
+        } while (!flags.compareAndSetLong(word, bits, updated));
+    }
+
+    /** Bytes of direct memory held by the catalog. */
+    long offHeapBytes() {
+        return records.allocated() + tags.allocated() + flags.allocated() + sorted.allocated()
+                + titles.sizeInBytes() + ids.sizeInBytes() + idIndex.allocated() + titleIndex.allocated()
+                + tagPostings.allocated() + gramTable.allocated() + gramPostings.allocated();
+    }
+
+    // --- VideoCatalog --------------------------------------------------------
+
+    @Override
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    @Override
+    public List<CatalogParser.MalformedLine> getLoadErrors() {
+        return loadErrors;
+    }
+
+    @Override
+    public List<Video> getVideos() {
+        List<Video> videos = new ArrayList<>(count);
+        for (int ordinal = 0; ordinal < count; ordinal++)
+            videos.add(video(ordinal));
+        return videos;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /** Returns a read-only view decoding each video when it is read. */
+    @Override
+    public List<Video> getVideosSorted(int offset, int limit) {
+        int from = Math.min(Math.max(offset, 0), count);
+        int to = (int) Math.min((long) from + Math.max(limit, 0), count);
+        return new AbstractList<Video>() {
+            @Override
+            public Video get(int index) {
+                if (index < 0 || index >= to - from)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+                return video(sortedAt(from + index));
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    @Override
+    public Video getVideo(String videoId) {
+        int ordinal = findId(videoId.getBytes(StandardCharsets.UTF_8));
+        return ordinal < 0 ? null : video(ordinal);
+    }
+
+    @Override
+    public Video getVideo(int ordinal) {
+        return ordinal >= 0 && ordinal < count ? video(ordinal) : null;
+    }
+
+    /** Of several videos sharing the title, returns the one loaded last. */
+    @Override
+    public Video getVideoByTitle(String videoTitle) {
+        int ordinal = findTitle(videoTitle.getBytes(StandardCharsets.UTF_8));
+        return ordinal < 0 ? null : video(ordinal);
+    }
+
+    /**
+     * Returns the unflagged videos whose title contains the search term,
+     * ignoring case, sorted. Results are cached per case-folded term.
+     */
+    @Override
+    public List<Video> searchVideos(String searchTerm) {
+        String term = NgramIndex.fold(searchTerm);
+        List<Video> results = searchCache.get(SearchCache.Kind.TITLE, term);
+        if (results == null) {
+            long generation = searchCache.generation();
+            results = Collections.unmodifiableList(searchTitles(term.getBytes(StandardCharsets.UTF_8)));
+            searchCache.put(SearchCache.Kind.TITLE, term, results, generation);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the unflagged videos whose folded title contains the needle,
+     * in title order. The posting list of the needle's rarest trigram gives
+     * the candidates, the other trigrams are binary searched and the title is
+     * only decoded when the trigrams alone don't prove the match. A needle
+     * shorter than a trigram scans the title store.
+     */
+    private List<Video> searchTitles(byte[] needle) {
+        List<Video> matches = new ArrayList<>();
+        if (needle.length < N) {
+            titles.forEach(0, (rank, utf8, length) -> {
+                int ordinal = sortedAt(rank);
+                if (containsFolded(utf8, length, needle) && !isFlagged(ordinal))
+                    matches.add(video(ordinal));
+                return true;
+            });
+            return matches;
+        }
+        long[] entries = new long[needle.length - N + 1];
+        long rarest = -1;
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = gramEntry(gram(needle, i));
+            if (entries[i] < 0)
+                return matches;
+            if (rarest < 0 || gramTable.getInt(entries[i] + GRAM_COUNT) < gramTable.getInt(rarest + GRAM_COUNT))
+                rarest = entries[i];
+        }
+        long start = gramTable.getLong(rarest + GRAM_START);
+        int postings = gramTable.getInt(rarest + GRAM_COUNT);
+        candidates:
+        for (int i = 0; i < postings; i++) {
+            int rank = gramPostings.getInt(4L * (start + i));
+            for (long entry : entries) {
+                if (entry != rarest && !gramContains(entry, rank))
+                    continue candidates;
+            }
+            int ordinal = sortedAt(rank);
+            if (isFlagged(ordinal))
+                continue;
+            if (needle.length > N) {
+                // the trigrams may occur in a different order or overlap, check the real title
+                byte[] title = titles.getBytes(rank);
+                if (!containsFolded(title, title.length, needle))
+                    continue;
+            }
+            matches.add(video(ordinal));
+        }
+        return matches;
+    }
+
+    private static boolean containsFolded(byte[] haystack, int length, byte[] needle) {
+        outer:
+        for (int start = 0; start + needle.length <= length; start++) {
+            for (int i = 0; i < needle.length; i++) {
+                byte b = haystack[start + i];
+                if (b >= 'A' && b <= 'Z')
+                    b += 'a' - 'A';
+                if (b != needle[i])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the unflagged videos with a tag containing the search term,
+     * ignoring case, sorted. The term is matched against the tag vocabulary,
+     * the videos come from the posting lists of the matching tags, which
+     * hold title ranks, so merging them sorts the videos.
+     */
+    @Override
+    public List<Video> searchVideosWithTag(String searchTerm) {
+        String term = NgramIndex.fold(searchTerm);
+        List<Video> results = searchCache.get(SearchCache.Kind.TAG, term);
+        if (results == null) {
+            long generation = searchCache.generation();
+            int[] matching = tagVocabulary.search(term);
+            long total = 0;
+            for (int tag : matching)
+                total += tagStarts[tag + 1] - tagStarts[tag];
+            int[] ranks = new int[(int) total];
+            int at = 0;
+            for (int tag : matching) {
+                for (long i = tagStarts[tag]; i < tagStarts[tag + 1]; i++)
+                    ranks[at++] = tagPostings.getInt(4L * i);
+            }
+            Arrays.sort(ranks);
+            List<Video> matches = new ArrayList<>();
+            for (int i = 0; i < ranks.length; i++) {
+                // a video with several matching tags is in several lists
+                if (i > 0 && ranks[i] == ranks[i - 1])
+                    continue;
+                int ordinal = sortedAt(ranks[i]);
+                if (!isFlagged(ordinal))
+                    matches.add(video(ordinal));
+            }
+            results = Collections.unmodifiableList(matches);
+            searchCache.put(SearchCache.Kind.TAG, term, results, generation);
+        }
+        return results;
+    }
+
+    /**
+     * Returns a uniformly random unflagged video, or null if every video is
+     * flagged. Draws ordinals until one is unflagged, and only when most of
+     * the catalog is flagged counts through the flag bitmap instead.
+     */
+    @Override
+    public Video getRandomUnflaggedVideo() {
+        int unflagged = count - flaggedCount.get();
+        if (unflagged <= 0)
+            return null;
+        for (int attempt = 0; attempt < RANDOM_ATTEMPTS; attempt++) {
+            int ordinal = nextInt(count);
+            if (!isFlagged(ordinal))
+                return video(ordinal);
+        }
+        // the count and the bits may disagree while another thread flags, the last word wraps around
+        int remaining = nextInt(unflagged);
+        int words = (count + 63) >>> 6;
+        for (int seen = 0; seen < 2 * words; seen++) {
+            int word = seen % words;
+            long free = ~flags.getLongVolatile(8L * word);
+            if (word == words - 1 && (count & 63) != 0)
+                free &= (1L << count) - 1;
+            int bits = Long.bitCount(free);
+            if (remaining < bits) {
+                for (int i = 0; i < remaining; i++)
+                    free &= free - 1;
+                return video((word << 6) + Long.numberOfTrailingZeros(free));
+            }
+            remaining -= bits;
+        }
+        return null;
+    }
+
+    private int nextInt(int bound) {
+        SplittableRandom seeded = random;
+        return seeded == null ? ThreadLocalRandom.current().nextInt(bound) : seeded.nextInt(bound);
+    }
+
+    @Override
+    public void seedRandom(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public List<Video> getFlaggedVideos() {
+        List<Video> videos = new ArrayList<>(flaggedCount.get());
+        for (int word = 0; word < (count + 63) >>> 6; word++) {
+            long bits = flags.getLongVolatile(8L * word);
+            while (bits != 0) {
+                videos.add(video((word << 6) | Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+        }
+        return videos;
+    }
+
+    /**
+     * Flags the video and sets its bit, the flag state is the only heap state
+     * kept. Flyweights of the same video are separate objects, so the state
+     * per ordinal decides which of concurrent calls wins.
+     */
+    @Override
+    public boolean flagVideo(Video video, String reason) {
+        Video.FlagState state = Video.FlagState.flagged(reason);
+        if (flagStates.putIfAbsent(video.getOrdinal(), state) != null)
+            return false;
+        video.flag(reason);
+        setFlag(video.getOrdinal(), true);
+        flaggedCount.incrementAndGet();
+        searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        return true;
+    }
+
+    @Override
+    public boolean allowVideo(Video video) {
+        if (flagStates.remove(video.getOrdinal()) == null)
+            return false;
+        video.allow();
+        setFlag(video.getOrdinal(), false);
+        flaggedCount.decrementAndGet();
+        searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.google;
+
+/**
+ * Where a player prints. A line is built from a few print calls, each
+ * appending a piece as it is, so nothing is concatenated into a String on the
+ * way out. A sink belongs to one player and is not safe for concurrent use,
+ * the players of different sessions print to sinks of their own and never
+ * wait for each other.
+ *
+ * @see StreamSink
+ * @see ChannelSink
+ */
+interface OutputSink {
+
+    /** Drops everything, for benchmarks and players nobody listens to. */
+    OutputSink DISCARD = new OutputSink() {
+        @Override
+        public OutputSink print(CharSequence text) {
+            return this;
+        }
+
+        @Override
+        public OutputSink print(char c) {
+            return this;
+        }
+
+        @Override
+        public OutputSink print(long value) {
+            return this;
+        }
+
+        @Override
+        public OutputSink println() {
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    /** Appends the text, "null" for null. */
+    OutputSink print(CharSequence text);
+
+    OutputSink print(char c);
+
+    /** Appends the decimal digits of the value. */
+    OutputSink print(long value);
+
+    /** Ends the line. */
+    OutputSink println();
+
+    default OutputSink println(CharSequence text) {
+        return print(text).println();
+    }
+
+    /** Hands everything printed so far to wherever the sink writes. */
+    void flush();
+}
@@ -0,0 +1,348 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class used to serve the player over TCP. Every connection is a session
+ * of its own on a shared {@link SessionManager}, the protocol is the console
+ * one: the client sends commands as lines of UTF-8, the server answers with
+ * the lines the command prints followed by the prompt {@value #PROMPT}, one
+ * prompt per line received. EXIT closes the connection.
+ *
+ * Clients may pipeline: send any number of lines without waiting, the
+ * session runs them in order. The output of the lines a session runs in one
+ * go is flushed as one chunk by its {@link ChannelSink}, and the chunks queued for a connection are
+ * written with one gathering write, so a pipelined batch costs a few
+ * syscalls rather than one per line.
+ *
+ * One selector thread accepts, reads and writes for every connection, the
+ * commands run on the session threads. Their output is queued per connection
+ * and written by the selector thread, which stops reading from a client that
+ * doesn't read its output until the backlog is written.
+ */
+final class PlayerServer implements Closeable {
+
+    static final String PROMPT = "YT> ";
+    static final String GREETING = "Hello and welcome to YouTube, what would you like to do? "
+            + "Enter HELP for list of available commands or EXIT to terminate.";
+    // a longer line is no command, the connection is dropped
+    private static final int MAX_LINE = 64 * 1024;
+    // output a client may leave unread before its input is no longer read
+    private static final int MAX_UNREAD_OUTPUT = 1 << 20;
+    // chunks of output handed to one gathering write
+    private static final int MAX_GATHER = 64;
+    private static final byte[] NO_BYTES = new byte[0];
+    // how long accepting pauses after it failed, out of file descriptors most likely
+    private static final long ACCEPT_PAUSE_MILLIS = 100;
+
+    private final SessionManager sessions;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SelectionKey serverKey;
+    // System.nanoTime() at which accepting resumes after a failure, 0 while it is not paused
+    private long acceptResumesAt;
+    private final Thread loop;
+    // shared by every connection, only the start of an unfinished line is copied out of it
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    // connections with output to write or to close, handed over by the session threads
+    private final ConcurrentLinkedQueue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean closed;
+
+    /** Listens on the port of the loopback or any address, 0 picks a free port. */
+    PlayerServer(SharedState shared, InetSocketAddress address, int threads) throws IOException {
+        this.sessions = new SessionManager(shared, threads);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address, 1024);
+        server.configureBlocking(false);
+        this.serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+        this.loop = new Thread(this::run, "player-server");
+    }
+
+    /** Starts serving on a thread of its own. */
+    PlayerServer start() {
+        loop.start();
+        return this;
+    }
+
+    /** Blocks until the server is closed. */
+    void join() throws InterruptedException {
+        loop.join();
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Number of open connections. */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /** Number of lines run for all connections so far. */
+    long getLinesRun() {
+        return sessions.getLinesRun();
+    }
+
+    /** Closes every connection and stops serving. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            if (loop.isAlive() && Thread.currentThread() != loop)
+                loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.close();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                if (acceptResumesAt == 0)
+                    selector.select();
+                else
+                    selectWhileAcceptPaused();
+                wakeupPending.set(false);
+                Connection connection;
+                while ((connection = pending.poll()) != null)
+                    connection.write();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Connection c = (Connection) key.attachment();
+                        if (key.isWritable())
+                            c.write();
+                        if (key.isValid() && key.isReadable())
+                            c.read();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Player server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    ((Connection) key.attachment()).close();
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Couldn't close the player server: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts every pending connection. A failure to accept, such as running
+     * out of file descriptors, must not stop the server: it is reported and
+     * accepting pauses for a moment, the open connections are served on.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel = null;
+            Connection connection = null;
+            try {
+                channel = server.accept();
+                if (channel == null)
+                    return;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                // registered before the session opens, a failed register leaves no session behind
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                connection = new Connection(channel);
+                connection.key = key;
+                key.attach(connection);
+                connections.incrementAndGet();
+                connection.out.println(GREETING).print(PROMPT).flush();
+            } catch (IOException e) {
+                System.err.println("Couldn't accept a connection: " + e.getMessage());
+                if (connection != null)
+                    connection.close();
+                else if (channel != null)
+                    closeQuietly(channel);
+                serverKey.interestOps(0);
+                acceptResumesAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_PAUSE_MILLIS);
+                return;
+            }
+        }
+    }
+
+    /** Selects for the connections only, until accepting resumes. */
+    private void selectWhileAcceptPaused() throws IOException {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(acceptResumesAt - System.nanoTime());
+        if (waitMillis > 0) {
+            selector.select(waitMillis);
+            return;
+        }
+        acceptResumesAt = 0;
+        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        selector.selectNow();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the accept failure is reported already
+        }
+    }
+
+    /** Has the selector thread write the connection's output, or close it. */
+    private void wake(Connection connection) {
+        pending.add(connection);
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * One client. Its session prints into a sink of the connection, each flush
+     * hands the printed bytes to the selector thread.
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        final OutputSink out;
+        final SessionManager.Session session;
+        SelectionKey key;
+        // the start of a line whose end has not arrived yet, selector thread only
+        private byte[] partial = NO_BYTES;
+        private int partialLength;
+        private final ConcurrentLinkedQueue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        private final AtomicLong unread = new AtomicLong();
+        private volatile boolean closeRequested;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.out = new ChannelSink(chunk -> {
+                output.add(chunk);
+                unread.addAndGet(chunk.remaining());
+                wake(this);
+            });
+            this.session = sessions.open(out, PROMPT, () -> {
+                closeRequested = true;
+                wake(this);
+            });
+        }
+
+        /** Writes what the socket takes, then waits for it to become writable again. */
+        void write() {
+            if (!key.isValid())
+                return;
+            try {
+                while (!output.isEmpty()) {
+                    // the queue only grows behind our back, peeking in order sees the chunks to write
+                    int count = 0;
+                    for (ByteBuffer buffer : output) {
+                        gather[count++] = buffer;
+                        if (count == MAX_GATHER)
+                            break;
+                    }
+                    unread.addAndGet(-channel.write(gather, 0, count));
+                    boolean socketFull = gather[count - 1].hasRemaining();
+                    Arrays.fill(gather, 0, count, null);
+                    ByteBuffer head;
+                    while ((head = output.peek()) != null && !head.hasRemaining())
+                        output.poll();
+                    if (socketFull)
+                        break;
+                }
+                if (output.isEmpty() && closeRequested) {
+                    close();
+                    return;
+                }
+                boolean backlog = unread.get() > MAX_UNREAD_OUTPUT;
+                key.interestOps((output.isEmpty() ? 0 : SelectionKey.OP_WRITE) | (backlog ? 0 : SelectionKey.OP_READ));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /** Reads what arrived and submits every complete line to the session. */
+        void read() {
+            readBuffer.clear();
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            byte[] bytes = readBuffer.array();
+            int start = 0;
+            for (int end = 0; end < read; end++) {
+                if (bytes[end] != '\n')
+                    continue;
+                if (partialLength == 0) {
+                    submit(bytes, start, end);
+                } else {
+                    append(bytes, start, end);
+                    submit(partial, 0, partialLength);
+                    partialLength = 0;
+                }
+                start = end + 1;
+            }
+            append(bytes, start, read);
+            if (partialLength > MAX_LINE)
+                close();
+        }
+
+        private void submit(byte[] bytes, int start, int end) {
+            if (end > start && bytes[end - 1] == '\r')
+                end--;
+            session.submit(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        }
+
+        private void append(byte[] bytes, int start, int end) {
+            int length = end - start;
+            if (length == 0)
+                return;
+            if (partialLength + length > partial.length)
+                partial = Arrays.copyOf(partial, Math.max(Math.max(64, partial.length * 2), partialLength + length));
+            System.arraycopy(bytes, start, partial, partialLength, length);
+            partialLength += length;
+        }
+
+        void close() {
+            if (!channel.isOpen())
+                return;
+            // null while accept() has not registered the connection yet
+            if (key != null)
+                key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do for a client that is gone
+            }
+            connections.decrementAndGet();
+            session.close();
+        }
+    }
+}
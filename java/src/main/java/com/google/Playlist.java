@@ -1,31 +1,145 @@
 package com.google;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.IntConsumer;
 
-/** A class used to represent a Playlist */
+/**
+ * A class used to represent a Playlist. Videos are kept as their library
+ * ordinals, in the order they were added, next to a hash index from ordinal
+ * to slot so membership tests and removals don't scan the playlist. A
+ * removal only marks its slot, the slots are compacted once the marks
+ * outnumber the videos. A playlist held by a {@link PlaylistLibrary} reports
+ * every change to it, so the library's reverse index stays current.
+ *
+ * Changes are serialized on the playlist itself, so changes of different
+ * playlists never wait for each other. Readers get an immutable snapshot of
+ * the ordinals that is built once after a change and then shared, so
+ * SHOW_PLAYLIST sees the playlist as of one point in time and never waits
+ * for a change that comes after it.
+ */
 class Playlist {
+    private static final int TOMBSTONE = -1;
+    // compact no earlier than this many tombstones, so small playlists aren't rewritten on every removal
+    private static final int MIN_COMPACTION = 16;
+
     private String name;
-    private List<Video> videos;
+    private IntList slots;
+    private final IntIntMap positions;
+    private PlaylistLibrary library;
+    // the ordinals as of the last change, null until a reader asks for them
+    private volatile int[] snapshot;
 
     Playlist(String name) {
         this.name = name;
-        this.videos = new ArrayList<>();
+        this.slots = new IntList();
+        this.positions = new IntIntMap();
+    }
+
+    /** Appends the video, returns false if it is in the playlist already. */
+    public synchronized boolean addVideo(Video video) {
+        int ordinal = video.getOrdinal();
+        if (positions.containsKey(ordinal))
+            return false;
+        positions.put(ordinal, slots.size());
+        slots.add(ordinal);
+        snapshot = null;
+        if (library != null)
+            library.videoAdded(ordinal, this);
+        return true;
+    }
+
+    /** Removes the video, returns false if it was not in the playlist. */
+    public synchronized boolean removeVideo(Video video) {
+        int slot = positions.remove(video.getOrdinal());
+        if (slot < 0)
+            return false;
+        slots.set(slot, TOMBSTONE);
+        snapshot = null;
+        if (library != null)
+            library.videoRemoved(video.getOrdinal(), this);
+        int tombstones = slots.size() - positions.size();
+        if (tombstones >= MIN_COMPACTION && tombstones > positions.size())
+            compact();
+        return true;
     }
 
-    public void addVideo(Video video) {
-        videos.add(video);
+    public synchronized boolean containsVideo(Video video) {
+        return positions.containsKey(video.getOrdinal());
     }
 
-    public void removeVideo(Video video) {
-        videos.remove(video);
+    public synchronized void clear() {
+        if (library != null)
+            forEach(ordinal -> library.videoRemoved(ordinal, this));
+        slots.clear();
+        positions.clear();
+        snapshot = null;
     }
 
     public String getPlaylistName() {
         return this.name;
     }
 
-    public List<Video> getVideosInPlaylist() {
-        return this.videos;
+    /** Set by the library that holds this playlist, null once it is deleted. */
+    void setLibrary(PlaylistLibrary library) {
+        this.library = library;
+    }
+
+    /** The library holding this playlist, null once it is deleted. Read under the playlist's lock. */
+    PlaylistLibrary getLibrary() {
+        return library;
+    }
+
+    /** Number of videos in the playlist. */
+    public int size() {
+        return snapshot().length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Calls the consumer with the ordinal of every video, in playlist order. */
+    public void forEach(IntConsumer consumer) {
+        for (int ordinal : snapshot())
+            consumer.accept(ordinal);
+    }
+
+    /** Returns the ordinals of the videos in playlist order. */
+    public int[] getVideoOrdinals() {
+        return snapshot().clone();
+    }
+
+    /**
+     * Returns the ordinals in playlist order as of the last change. The array
+     * is shared with every other reader and must not be modified.
+     */
+    int[] snapshot() {
+        int[] ordinals = snapshot;
+        if (ordinals != null)
+            return ordinals;
+        synchronized (this) {
+            if (snapshot == null) {
+                ordinals = new int[positions.size()];
+                int count = 0;
+                for (int i = 0; i < slots.size(); i++) {
+                    int ordinal = slots.get(i);
+                    if (ordinal != TOMBSTONE)
+                        ordinals[count++] = ordinal;
+                }
+                snapshot = ordinals;
+            }
+            return snapshot;
+        }
+    }
+
+    private void compact() {
+        IntList live = new IntList(positions.size() * 2);
+        for (int i = 0; i < slots.size(); i++) {
+            int ordinal = slots.get(i);
+            if (ordinal != TOMBSTONE) {
+                positions.put(ordinal, live.size());
+                live.add(ordinal);
+            }
+        }
+        slots = live;
     }
 }
@@ -1,36 +1,208 @@
 package com.google;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-/** A class used to represent a Playlist Library. */
+/**
+ * A class used to represent a Playlist Library. Playlist names are unique
+ * ignoring case, playlists are found through their case-folded name and
+ * keep the name they were created with for display. A second map keeps the
+ * display names sorted for SHOW_ALL_PLAYLISTS, and a reverse index maps
+ * every video ordinal to the playlists holding it.
+ *
+ * The reverse index is an array indexed by ordinal, in chunks of 1024
+ * ordinals, holding a concurrent set of playlists per video. A change
+ * touches only the set of its video, so changes of different playlists
+ * share nothing but that set's hash table, and no key or value is boxed.
+ *
+ * All three structures are concurrent and the library takes no lock of its
+ * own but to add a chunk. Adding or removing a playlist holds that
+ * playlist's lock, the same one its changes hold, so work on different
+ * playlists never waits for each other.
+ */
 public class PlaylistLibrary {
-    // playlist name as key, Playlist as value
-    private final HashMap<String, Playlist> playlist_map;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
 
+    // case-folded playlist name as key, Playlist as value
+    private final ConcurrentHashMap<String, Playlist> playlist_map;
+    // display name as key, in the order SHOW_ALL_PLAYLISTS lists them
+    private final ConcurrentSkipListMap<String, Playlist> sorted_playlists;
+    // chunk of video ordinals -> the playlists holding each video, replaced by a longer copy to add a chunk
+    private volatile AtomicReferenceArray<Set<Playlist>>[] playlists_by_video;
+
+    @SuppressWarnings("unchecked")
     PlaylistLibrary() {
-        playlist_map = new HashMap<>();
+        playlist_map = new ConcurrentHashMap<>();
+        sorted_playlists = new ConcurrentSkipListMap<>();
+        playlists_by_video = new AtomicReferenceArray[0];
     }
 
-    public void addToLibrary(Playlist pl) {
-        playlist_map.put(pl.getPlaylistName(), pl);
+    /** Adds the playlist, returns false if one with the same name ignoring case exists. */
+    public boolean addToLibrary(Playlist pl) {
+        synchronized (pl) {
+            if (playlist_map.putIfAbsent(fold(pl.getPlaylistName()), pl) != null)
+                return false;
+            sorted_playlists.put(pl.getPlaylistName(), pl);
+            pl.setLibrary(this);
+            pl.forEach(ordinal -> videoAdded(ordinal, pl));
+            return true;
+        }
     }
 
-    public void removeFromLibrary(Playlist pl) {
-        playlist_map.remove(pl.getPlaylistName(), pl);
+    /** Removes the playlist with the given name ignoring case, returns it or null. */
+    public Playlist removeFromLibrary(String playlistName) {
+        Playlist pl;
+        // a playlist deleted and created again under the same name meanwhile is looked up again
+        while ((pl = getPlaylist(playlistName)) != null) {
+            if (removeFromLibrary(pl))
+                return pl;
+        }
+        return null;
     }
 
-    public List<Playlist> getPlaylists() {
-        return new ArrayList<>(this.playlist_map.values());
+    /** Removes this very playlist, returns false if it is not in the library any more. */
+    boolean removeFromLibrary(Playlist pl) {
+        synchronized (pl) {
+            if (!playlist_map.remove(fold(pl.getPlaylistName()), pl))
+                return false;
+            sorted_playlists.remove(pl.getPlaylistName(), pl);
+            pl.forEach(ordinal -> videoRemoved(ordinal, pl));
+            pl.setLibrary(null);
+            return true;
+        }
     }
 
+    /** Returns the playlist with the given name ignoring case, or null. */
     public Playlist getPlaylist(String playlistName) {
-        return this.playlist_map.get(playlistName);
+        return this.playlist_map.get(fold(playlistName));
+    }
+
+    public boolean containsPlaylist(String playlistName) {
+        return this.playlist_map.containsKey(fold(playlistName));
+    }
+
+    /** Returns a read-only view of the playlists, ordered by name. */
+    public Collection<Playlist> getPlaylists() {
+        return Collections.unmodifiableCollection(this.sorted_playlists.values());
+    }
+
+    /** Returns a read-only view of the display names, sorted. */
+    public Collection<String> getPlaylistNames() {
+        return Collections.unmodifiableSet(this.sorted_playlists.keySet());
+    }
+
+    /**
+     * Returns the playlists holding the video, ordered by name as
+     * SHOW_ALL_PLAYLISTS lists them. The list is a copy, sorted when asked
+     * for, so adding and removing stay O(1).
+     */
+    public Collection<Playlist> getPlaylistsContaining(Video video) {
+        Set<Playlist> playlists = playlistsHolding(video.getOrdinal());
+        if (playlists == null || playlists.isEmpty())
+            return Collections.emptyList();
+        List<Playlist> ordered = new ArrayList<>(playlists);
+        ordered.sort(Comparator.comparing(Playlist::getPlaylistName));
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /** Number of playlists holding the video. */
+    public int countPlaylistsContaining(Video video) {
+        Set<Playlist> playlists = playlistsHolding(video.getOrdinal());
+        return playlists == null ? 0 : playlists.size();
+    }
+
+    /** Removes the video from every playlist holding it, returns how many there were. */
+    public int purgeVideo(Video video) {
+        Set<Playlist> playlists = playlistsHolding(video.getOrdinal());
+        if (playlists == null)
+            return 0;
+        int removed = 0;
+        for (Playlist pl : new ArrayList<>(playlists)) {
+            if (pl.removeVideo(video))
+                removed++;
+        }
+        return removed;
+    }
+
+    /** Called by the playlist holding its own lock, so one playlist's calls never race. */
+    void videoAdded(int ordinal, Playlist pl) {
+        AtomicReferenceArray<Set<Playlist>> chunk = chunkFor(ordinal);
+        Set<Playlist> playlists = chunk.get(ordinal & CHUNK_MASK);
+        if (playlists == null) {
+            Set<Playlist> created = ConcurrentHashMap.newKeySet(4);
+            // another playlist adding the same video may have created it first, both use the winner
+            playlists = chunk.compareAndExchange(ordinal & CHUNK_MASK, null, created);
+            if (playlists == null)
+                playlists = created;
+        }
+        playlists.add(pl);
+    }
+
+    void videoRemoved(int ordinal, Playlist pl) {
+        // an emptied set stays, dropping it could lose an add racing the removal
+        Set<Playlist> playlists = playlistsHolding(ordinal);
+        if (playlists != null)
+            playlists.remove(pl);
+    }
+
+    /** Returns the playlists holding the video with the ordinal, or null if none ever did. */
+    private Set<Playlist> playlistsHolding(int ordinal) {
+        AtomicReferenceArray<Set<Playlist>>[] chunks = playlists_by_video;
+        int at = ordinal >>> CHUNK_BITS;
+        if (ordinal < 0 || at >= chunks.length || chunks[at] == null)
+            return null;
+        return chunks[at].get(ordinal & CHUNK_MASK);
+    }
+
+    /** Returns the chunk of the ordinal, adding it first if it is missing. */
+    private AtomicReferenceArray<Set<Playlist>> chunkFor(int ordinal) {
+        int at = ordinal >>> CHUNK_BITS;
+        AtomicReferenceArray<Set<Playlist>>[] chunks = playlists_by_video;
+        if (at < chunks.length && chunks[at] != null)
+            return chunks[at];
+        synchronized (this) {
+            chunks = playlists_by_video;
+            if (at >= chunks.length)
+                chunks = Arrays.copyOf(chunks, Math.max(at + 1, chunks.length * 2));
+            else if (chunks[at] != null)
+                return chunks[at];
+            else
+                chunks = chunks.clone();
+            // published as a new array, a reader never sees the slot change under it
+            chunks[at] = new AtomicReferenceArray<>(1 << CHUNK_BITS);
+            playlists_by_video = chunks;
+            return chunks[at];
+        }
     }
 
-    public List<String> getPlaylistNames() {
-        return new ArrayList<>(this.playlist_map.keySet());
+    public boolean isEmpty() {
+        return this.playlist_map.isEmpty();
     }
 
+    public int size() {
+        return this.playlist_map.size();
+    }
+
+    /** Folds the name so equal keys mean String.equalsIgnoreCase names. */
+    static String fold(String name) {
+        StringBuilder folded = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            char f = Character.toLowerCase(Character.toUpperCase(c));
+            if (f != c && folded == null)
+                folded = new StringBuilder(name.length()).append(name, 0, i);
+            if (folded != null)
+                folded.append(f);
+        }
+        return folded == null ? name : folded.toString();
+    }
 }
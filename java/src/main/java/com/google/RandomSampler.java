@@ -0,0 +1,70 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A class used to pick a uniformly random element of a changing set of slots
+ * in O(1). The members are packed densely in an array, each slot remembers its
+ * position so it can be removed by moving the last member into its place.
+ *
+ * Writers serialize on the sampler, {@link #sample(SplittableRandom)} takes
+ * no lock. A sample taken while a member moves may return a slot that was
+ * just removed, callers check what they drew and draw again.
+ */
+final class RandomSampler {
+
+    // replaced by a larger copy before size grows past it, so a reader never indexes past the end
+    private volatile int[] members = new int[16];
+    private int[] positions = new int[16];
+    private volatile int size;
+
+    /** Adds the slot, does nothing if it is already a member. */
+    synchronized void add(int slot) {
+        if (contains(slot))
+            return;
+        if (slot >= positions.length)
+            positions = Arrays.copyOf(positions, Math.max(slot + 1, positions.length * 2));
+        int[] members = this.members;
+        if (size == members.length)
+            this.members = members = Arrays.copyOf(members, size * 2);
+        members[size] = slot;
+        // positions are stored one based so the zero filled array means "absent"
+        positions[slot] = size + 1;
+        size++;
+    }
+
+    /** Removes the slot by moving the last member into its place. */
+    synchronized void remove(int slot) {
+        if (!contains(slot))
+            return;
+        int[] members = this.members;
+        int at = positions[slot] - 1;
+        int last = members[size - 1];
+        members[at] = last;
+        positions[last] = at + 1;
+        positions[slot] = 0;
+        size--;
+    }
+
+    synchronized boolean contains(int slot) {
+        return slot < positions.length && positions[slot] != 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a uniformly random member, or -1 when there is none. Draws from
+     * the given generator, or from {@link ThreadLocalRandom} when it is null.
+     */
+    int sample(SplittableRandom random) {
+        int size = this.size;
+        if (size == 0)
+            return -1;
+        int at = random == null ? ThreadLocalRandom.current().nextInt(size) : random.nextInt(size);
+        return members[at];
+    }
+}
@@ -1,19 +1,81 @@
 package com.google;
 
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.Scanner;
 
 public class Run {
+  /**
+   * Starts the interactive player. Playlists and flags are kept across runs
+   * with --journal FILE, --durability per-op|per-batch|async says when a
+   * change has to be on disk (per-batch by default). With --port PORT the
+   * player is served over TCP instead, see {@link PlayerServer}, on
+   * --threads session threads (one per core by default). With --batch FILE
+   * the commands are read from FILE, or standard input for -, and run
+   * without a prompt, see {@link BatchRun}.
+   */
   public static void main(String[] args){
+    Path journal = null;
+    var durability = Journal.Durability.PER_BATCH;
+    int port = -1;
+    String batch = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--journal"))
+        journal = Path.of(args[i + 1]);
+      else if (args[i].equals("--durability"))
+        durability = Journal.Durability.valueOf(args[i + 1].toUpperCase(Locale.ROOT).replace('-', '_'));
+      else if (args[i].equals("--port"))
+        port = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("--threads"))
+        threads = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("--batch"))
+        batch = args[i + 1];
+    }
+    if (batch != null) {
+      batch(batch, journal, durability);
+      return;
+    }
+    if (port >= 0) {
+      serve(port, threads, journal, durability);
+      return;
+    }
     System.out.println("Hello and welcome to YouTube, what would you like to do? "
         + "Enter HELP for list of available commands or EXIT to terminate.");
-    var videoPlayer = new VideoPlayer();
+    var videoPlayer = new VideoPlayer(SharedState.open(), new StreamSink(System.out), VideoPlayer.CONSOLE);
+    if (journal != null) {
+      try {
+        videoPlayer.openJournal(journal, durability);
+      } catch (IOException e) {
+        System.out.println("Couldn't open the journal " + journal + ": " + e.getMessage());
+        return;
+      }
+    }
+    try {
+      videoPlayer.watchCatalog();
+    } catch (IOException e) {
+      System.out.println("Couldn't watch videos.txt for changes: " + e.getMessage());
+    }
     var parser = new CommandParser(videoPlayer);
     var scanner = new Scanner(System.in);
     while (true) {
       System.out.print("YT> ");
       var input = scanner.nextLine();
       if (input.equalsIgnoreCase("exit")) {
+        try {
+          videoPlayer.closeJournal();
+        } catch (IOException e) {
+          System.out.println("Couldn't close the journal: " + e.getMessage());
+        }
         System.out.println("YouTube has now terminated its execution. " +
             "Thank you and goodbye!");
         return;
@@ -21,4 +83,56 @@ public class Run {
       parser.executeCommand(Arrays.asList(input.split("\\s+")));
     }
   }
+
+  /**
+   * Runs the commands of the file, or of standard input for -, printing to
+   * a large buffer over standard output. The stats of the run go to standard
+   * error so they don't mix with the output.
+   */
+  private static void batch(String file, Path journal, Journal.Durability durability) {
+    var shared = SharedState.open();
+    var out = new StreamSink(new FileOutputStream(FileDescriptor.out), 1 << 16);
+    try (var in = file.equals("-")
+        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+        : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+      if (journal != null)
+        shared.openJournal(journal, durability);
+      var stats = new BatchRun(shared, in, out).run();
+      out.flush();
+      shared.closeJournal();
+      System.err.println(stats);
+    } catch (IOException e) {
+      out.flush();
+      System.err.println("Couldn't run " + file + ": " + e.getMessage());
+    }
+  }
+
+  /** Serves the player over TCP until the process is stopped. */
+  private static void serve(int port, int threads, Path journal, Journal.Durability durability) {
+    var shared = SharedState.open();
+    try {
+      if (journal != null)
+        shared.openJournal(journal, durability);
+      try {
+        shared.watchCatalog();
+      } catch (IOException e) {
+        System.err.println("Couldn't watch videos.txt for changes: " + e.getMessage());
+      }
+      var server = new PlayerServer(shared, new InetSocketAddress(port), threads).start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          server.close();
+          shared.closeJournal();
+        } catch (IOException e) {
+          System.err.println("Couldn't shut down cleanly: " + e.getMessage());
+        }
+      }));
+      System.out.println("Serving on port " + server.getPort() + " with " + threads + " session threads");
+      server.join();
+    } catch (IOException e) {
+      System.err.println("Couldn't start serving: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 }
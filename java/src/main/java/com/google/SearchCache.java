@@ -0,0 +1,218 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A class used to cache sorted search results by case-folded search term. The
+ * cache is an LRU bounded by the total number of cached result entries rather
+ * than the number of terms, so a handful of huge result lists can't pin the
+ * memory of thousands of small ones. Every method is synchronized, searches
+ * of concurrent sessions share the cache. A search computed while a flag or
+ * reload invalidated the cache is not cached, see {@link #generation()}.
+ *
+ * Entries are also filed under the first three characters of their term, so
+ * an invalidation looks up the few terms that could occur in the changed
+ * title or tags instead of testing every cached term.
+ */
+final class SearchCache {
+
+    /** The two search commands share one cache but never each other's entries. */
+    enum Kind {
+        TITLE, TAG
+    }
+
+    private static final class Key {
+        final Kind kind;
+        final String term;
+
+        Key(Kind kind, String term) {
+            this.kind = kind;
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (!(that instanceof Key))
+                return false;
+            Key other = (Key) that;
+            return kind == other.kind && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + term.hashCode();
+        }
+    }
+
+    // the length of the term prefix entries are filed under
+    private static final int PREFIX = 3;
+
+    private final LinkedHashMap<Key, List<Video>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // (kind, first PREFIX characters of the term, or all of a shorter one) -> keys of the cached terms
+    private final HashMap<Key, Set<Key>> byPrefix = new HashMap<>();
+    private final long maxWeight;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private volatile long generation;
+
+    /** Creates a cache holding at most maxWeight result entries in total. */
+    SearchCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /** Returns the cached results for the already folded term, or null. */
+    synchronized List<Video> get(Kind kind, String foldedTerm) {
+        List<Video> results = entries.get(new Key(kind, foldedTerm));
+        if (results == null)
+            misses++;
+        else
+            hits++;
+        return results;
+    }
+
+    /**
+     * Returns a counter bumped by every invalidation. A search reads it before
+     * it computes its results and passes it to {@link #put(Kind, String, List, long)}.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /** Caches the results unless the cache was invalidated since seenGeneration. */
+    synchronized void put(Kind kind, String foldedTerm, List<Video> results, long seenGeneration) {
+        if (seenGeneration == generation)
+            put(kind, foldedTerm, results);
+    }
+
+    synchronized void put(Kind kind, String foldedTerm, List<Video> results) {
+        long entryWeight = weight(results);
+        if (entryWeight > maxWeight)
+            return;
+        Key key = new Key(kind, foldedTerm);
+        List<Video> previous = entries.put(key, results);
+        if (previous != null)
+            weight -= weight(previous);
+        else
+            byPrefix.computeIfAbsent(prefixOf(key), prefix -> new HashSet<>(4)).add(key);
+        weight += entryWeight;
+        Iterator<Map.Entry<Key, List<Video>>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            Map.Entry<Key, List<Video>> entry = eldest.next();
+            weight -= weight(entry.getValue());
+            eldest.remove();
+            unfile(entry.getKey());
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the cached searches that contain, or could now contain, a video
+     * with the given title and tag ids. The tags come folded from the
+     * dictionary, no tag list is built.
+     */
+    void invalidateVideo(String title, int[] tagIds) {
+        invalidate(Kind.TITLE, List.of(NgramIndex.fold(title)));
+        if (tagIds.length == 0)
+            return;
+        String[] foldedTags = new String[tagIds.length];
+        for (int i = 0; i < tagIds.length; i++)
+            foldedTags[i] = TagDictionary.folded(tagIds[i]);
+        invalidate(Kind.TAG, Arrays.asList(foldedTags));
+    }
+
+    /**
+     * Drops every entry of the given kind whose folded term occurs in one of
+     * the folded texts, the title or the tags of a video that just changed.
+     * Only the terms filed under a substring of a text are tested.
+     */
+    synchronized void invalidate(Kind kind, List<String> foldedTexts) {
+        generation++;
+        for (String text : foldedTexts) {
+            for (int start = 0; start <= text.length(); start++) {
+                for (int end = start; end <= Math.min(start + PREFIX, text.length()); end++) {
+                    // the empty term is only filed once, at the first position
+                    if (end == start && start > 0)
+                        continue;
+                    Set<Key> keys = byPrefix.get(new Key(kind, text.substring(start, end)));
+                    if (keys == null)
+                        continue;
+                    Iterator<Key> it = keys.iterator();
+                    while (it.hasNext()) {
+                        Key key = it.next();
+                        if (text.startsWith(key.term, start)) {
+                            weight -= weight(entries.remove(key));
+                            it.remove();
+                            invalidations++;
+                        }
+                    }
+                    if (keys.isEmpty())
+                        byPrefix.remove(new Key(kind, text.substring(start, end)));
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+        byPrefix.clear();
+        weight = 0;
+    }
+
+    private static Key prefixOf(Key key) {
+        return new Key(key.kind, key.term.substring(0, Math.min(PREFIX, key.term.length())));
+    }
+
+    private void unfile(Key key) {
+        Key prefix = prefixOf(key);
+        Set<Key> keys = byPrefix.get(prefix);
+        if (keys != null && keys.remove(key) && keys.isEmpty())
+            byPrefix.remove(prefix);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SearchCache[entries=" + entries.size() + ", weight=" + weight + "/" + maxWeight + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+
+    private static long weight(List<Video> results) {
+        // the key and list wrapper cost about as much as one result entry
+        return results.size() + 1L;
+    }
+}
@@ -0,0 +1,183 @@
+package com.google;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class used to host many concurrent player sessions on a few threads. A
+ * session owns a {@link VideoPlayer} over the shared state and a mailbox of
+ * input lines. Submitting a line schedules the session on the pool unless it
+ * is already scheduled, so each session runs its lines one at a time and in
+ * order while different sessions run in parallel. An idle session holds no
+ * thread, only its player and an empty queue.
+ */
+final class SessionManager implements Closeable {
+
+    /** Lines a session runs before it yields its thread to other sessions. */
+    private static final int DRAIN_BUDGET = 64;
+
+    private final SharedState shared;
+    private final ExecutorService executor;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final LongAdder linesRun = new LongAdder();
+    private volatile boolean closed;
+
+    /** Creates a manager running sessions on one thread per core. */
+    SessionManager(SharedState shared) {
+        this(shared, Runtime.getRuntime().availableProcessors());
+    }
+
+    SessionManager(SharedState shared, int threads) {
+        this.shared = shared;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "session-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Opens a session printing to out. */
+    Session open(OutputSink out) {
+        return open(out, null, null);
+    }
+
+    /**
+     * Opens a session printing to out. With a prompt, the prompt is printed
+     * after every line, so a client knows where the output of a line ends,
+     * and out is flushed once the session ran the lines it had queued. Lines
+     * sent without waiting for their answers get their answers in a few
+     * large writes. onClose, if any, runs once when the session closes.
+     */
+    Session open(OutputSink out, String prompt, Runnable onClose) {
+        if (closed)
+            throw new IllegalStateException("session manager is closed");
+        Session session = new Session(out, prompt, onClose);
+        sessions.add(session);
+        return session;
+    }
+
+    /** Number of open sessions. */
+    int size() {
+        return sessions.size();
+    }
+
+    /** Number of input lines run by all sessions so far. */
+    long getLinesRun() {
+        return linesRun.sum();
+    }
+
+    /** Closes every session and stops the threads once they ran what was submitted. */
+    @Override
+    public void close() {
+        closed = true;
+        for (Session session : sessions)
+            session.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** One viewer, driven by the lines submitted to it. */
+    final class Session {
+        private final VideoPlayer player;
+        private final CommandParser parser;
+        private final ConcurrentLinkedQueue<String> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closing = new AtomicBoolean();
+        private final String prompt;
+        private final Runnable onClose;
+        private volatile boolean closed;
+
+        private Session(OutputSink out, String prompt, Runnable onClose) {
+            // answers to a search arrive as the next line, not from a blocking read
+            this.player = new VideoPlayer(shared, out, () -> null);
+            this.parser = new CommandParser(player);
+            this.prompt = prompt;
+            this.onClose = onClose;
+        }
+
+        VideoPlayer getPlayer() {
+            return player;
+        }
+
+        /**
+         * Queues a line of input, a command or the answer to the last search,
+         * and returns right away. Lines of a closed session are dropped.
+         */
+        void submit(String line) {
+            if (closed)
+                return;
+            mailbox.add(line);
+            schedule();
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        /** Drops the lines still queued and removes the session from its manager. */
+        void close() {
+            closed = true;
+            mailbox.clear();
+            sessions.remove(this);
+            if (onClose != null && closing.compareAndSet(false, true))
+                onClose.run();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                executor.execute(this::drain);
+        }
+
+        private void drain() {
+            try {
+                String line;
+                for (int i = 0; i < DRAIN_BUDGET && (line = mailbox.poll()) != null; i++)
+                    run(line);
+                if (prompt != null && !closed)
+                    player.out().flush();
+            } finally {
+                scheduled.set(false);
+                // a line queued after the last poll but before the flag was cleared
+                if (!mailbox.isEmpty() && !closed)
+                    schedule();
+            }
+        }
+
+        private void run(String line) {
+            if (closed)
+                return;
+            try {
+                if (player.isAwaitingAnswer()) {
+                    player.answer(line);
+                } else if (line.equalsIgnoreCase("exit")) {
+                    player.out().println("YouTube has now terminated its execution. Thank you and goodbye!");
+                    player.out().flush();
+                    close();
+                } else {
+                    parser.executeCommand(Arrays.asList(line.split("\\s+")));
+                }
+            } catch (RuntimeException e) {
+                // one bad line must not take the session, or the pool thread, down
+                player.out().print("Error: ").println(e.toString());
+            } finally {
+                linesRun.increment();
+            }
+            if (prompt != null && !closed)
+                player.out().print(prompt);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A class used to hold the state every session of the player shares: the
+ * video catalog with its flags, the playlists, the journal and the catalog
+ * watcher. Each {@link VideoPlayer} only keeps its own playback state on top.
+ *
+ * Flags and catalog reloads run alone through a {@link ChangeGate}, which
+ * also keeps the journal in the order the changes were made. A playlist
+ * change only counts itself on its thread's stripe of the gate and takes
+ * the playlist's own lock, so changes of different playlists share no lock
+ * word and those of one playlist reach the journal in order. Queries take
+ * no lock at all, the libraries are safe to read while they change. Only a
+ * {@link VideoLibrary} catalog can be reloaded, the off-heap one is read
+ * once.
+ */
+final class SharedState {
+
+    private final VideoCatalog videoLibrary;
+    // the same catalog when it can be reloaded, null otherwise
+    private final VideoLibrary reloadable;
+    private final PlaylistLibrary playlistLibrary = new PlaylistLibrary();
+    private final ChangeGate gate = new ChangeGate();
+    private volatile CatalogWatcher catalogWatcher;
+    private volatile Journal journal;
+    // set when a playlist change filled the journal, it is compacted once a change runs alone
+    private volatile boolean compactionDue;
+    // bumped by every applied catalog delta, sessions recheck their playing video when it moves
+    private volatile long catalogVersion;
+
+    SharedState(VideoLibrary videoLibrary) {
+        this.videoLibrary = videoLibrary;
+        this.reloadable = videoLibrary;
+        videoLibrary.addListener(new CatalogListener() {
+            @Override
+            public void videoRemoved(Video video) {
+                playlistLibrary.purgeVideo(video);
+            }
+        });
+    }
+
+    /** Shares a catalog that is never reloaded, {@link #watchCatalog()} refuses to watch it. */
+    SharedState(VideoCatalog videoLibrary) {
+        this.videoLibrary = videoLibrary;
+        this.reloadable = null;
+    }
+
+    /**
+     * Loads the bundled videos.txt through its binary snapshot, off the heap
+     * when {@link VideoLibrary#OFF_HEAP_PROPERTY} is set.
+     */
+    static SharedState open() {
+        if (Boolean.getBoolean(VideoLibrary.OFF_HEAP_PROPERTY))
+            return new SharedState(new OffHeapVideoLibrary(VideoLibrary.defaultCatalog(), true));
+        return new SharedState(VideoLibrary.withSnapshot());
+    }
+
+    VideoCatalog getVideoLibrary() {
+        return videoLibrary;
+    }
+
+    PlaylistLibrary getPlaylistLibrary() {
+        return playlistLibrary;
+    }
+
+    long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    /** Runs the action on the shared side of the gate, as a playlist change does. */
+    void read(Runnable action) {
+        gate.enter();
+        try {
+            action.run();
+        } finally {
+            gate.exit();
+        }
+    }
+
+    /**
+     * Runs the action alone, once every playlist change in progress is done,
+     * then compacts the journal if a change filled it.
+     */
+    void write(Runnable action) {
+        gate.lockExclusive();
+        try {
+            action.run();
+            Journal journal = this.journal;
+            if (compactionDue && journal != null)
+                compact(journal);
+        } finally {
+            gate.unlockExclusive();
+        }
+    }
+
+    /**
+     * Runs a change of the playlist, or its creation or deletion, on the
+     * shared side of the gate holding the playlist's lock, and returns its
+     * outcome. Changes record to the journal inside the action, the outcome
+     * is printed after. A journal the change filled is compacted once the
+     * change has left the gate.
+     */
+    <T> T change(Playlist pl, Supplier<T> action) {
+        gate.enter();
+        try {
+            synchronized (pl) {
+                return action.get();
+            }
+        } finally {
+            gate.exit();
+            compactIfDue();
+        }
+    }
+
+    private void compactIfDue() {
+        if (compactionDue)
+            write(() -> {
+            });
+    }
+
+    /**
+     * Starts watching videos.txt. Changes are picked up between commands by
+     * {@link #applyCatalogUpdates()}.
+     */
+    synchronized CatalogWatcher watchCatalog() throws IOException {
+        if (reloadable == null)
+            throw new IOException("the off-heap catalog doesn't support hot reload");
+        if (catalogWatcher == null)
+            catalogWatcher = reloadable.watch();
+        return catalogWatcher;
+    }
+
+    /**
+     * Applies every catalog reload that finished since the last command, alone
+     * so each command sees either the old or the new catalog.
+     */
+    void applyCatalogUpdates() {
+        CatalogWatcher watcher = catalogWatcher;
+        if (watcher == null || !watcher.hasPending())
+            return;
+        write(() -> {
+            CatalogDelta delta;
+            while ((delta = watcher.poll()) != null) {
+                reloadable.apply(delta);
+                catalogVersion++;
+            }
+        });
+    }
+
+    /**
+     * Restores playlists and flags from the journal at path and records every
+     * later change to it. Replayed changes refer to videos by id, the ones no
+     * longer in the catalog are skipped.
+     */
+    void openJournal(Path path, Journal.Durability durability) throws IOException {
+        gate.lockExclusive();
+        try {
+            if (journal != null)
+                throw new IllegalStateException("a journal is already open");
+            journal = Journal.open(path, durability, new Replayer());
+        } finally {
+            gate.unlockExclusive();
+        }
+    }
+
+    /** Forces the journal to disk and stops recording changes. */
+    void closeJournal() throws IOException {
+        gate.lockExclusive();
+        try {
+            if (journal != null)
+                journal.close();
+        } finally {
+            journal = null;
+            gate.unlockExclusive();
+        }
+    }
+
+    /**
+     * Records a change before it is applied, called inside
+     * {@link #write(Runnable)} or {@link #change(Playlist, Supplier)} once the
+     * change is known to succeed. Returns false if the journal could not write it, the change
+     * must then not be made: it would be lost on restart. A journal fails for
+     * good, every later change is refused the same way.
+     */
+    boolean record(Consumer<Journal> change) {
+        Journal journal = this.journal;
+        if (journal == null)
+            return true;
+        try {
+            change.accept(journal);
+        } catch (UncheckedIOException e) {
+            System.err.println("Couldn't write the journal: " + e.getMessage());
+            return false;
+        }
+        // compacted after the change is applied, the snapshot must contain it
+        if (journal.needsCompaction())
+            compactionDue = true;
+        return true;
+    }
+
+    private void compact(Journal journal) {
+        compactionDue = false;
+        try {
+            journal.compact(this::writeState);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Couldn't write the journal: " + e.getMessage());
+        }
+    }
+
+    /** Describes the current playlists and flags, for the journal snapshot. */
+    private void writeState(Journal.Mutations state) {
+        for (Playlist pl : playlistLibrary.getPlaylists()) {
+            state.createPlaylist(pl.getPlaylistName());
+            pl.forEach(ordinal -> state.addToPlaylist(pl.getPlaylistName(),
+                    videoLibrary.getVideo(ordinal).getVideoId()));
+        }
+        for (Video video : videoLibrary.getFlaggedVideos())
+            state.flagVideo(video.getVideoId(), video.getFlagReason());
+    }
+
+    /** Applies journaled changes without printing anything. */
+    private final class Replayer implements Journal.Mutations {
+        @Override
+        public void createPlaylist(String playlistName) {
+            playlistLibrary.addToLibrary(new Playlist(playlistName));
+        }
+
+        @Override
+        public void addToPlaylist(String playlistName, String videoId) {
+            Playlist pl = playlistLibrary.getPlaylist(playlistName);
+            Video video = videoLibrary.getVideo(videoId);
+            if (pl != null && video != null)
+                pl.addVideo(video);
+        }
+
+        @Override
+        public void removeFromPlaylist(String playlistName, String videoId) {
+            Playlist pl = playlistLibrary.getPlaylist(playlistName);
+            Video video = videoLibrary.getVideo(videoId);
+            if (pl != null && video != null)
+                pl.removeVideo(video);
+        }
+
+        @Override
+        public void clearPlaylist(String playlistName) {
+            Playlist pl = playlistLibrary.getPlaylist(playlistName);
+            if (pl != null)
+                pl.clear();
+        }
+
+        @Override
+        public void deletePlaylist(String playlistName) {
+            playlistLibrary.removeFromLibrary(playlistName);
+        }
+
+        @Override
+        public void flagVideo(String videoId, String reason) {
+            Video video = videoLibrary.getVideo(videoId);
+            if (video != null)
+                videoLibrary.flagVideo(video, reason);
+        }
+
+        @Override
+        public void allowVideo(String videoId) {
+            Video video = videoLibrary.getVideo(videoId);
+            if (video != null)
+                videoLibrary.allowVideo(video);
+        }
+    }
+}
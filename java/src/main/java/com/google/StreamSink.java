@@ -0,0 +1,60 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A class used to print to an output stream through a buffer of its own. A
+ * console sink flushes after every line so the user sees each line as it is
+ * printed, a batch sink only writes when its buffer is full or it is flushed.
+ */
+final class StreamSink extends ByteSink {
+
+    private final OutputStream out;
+    private final boolean flushEachLine;
+
+    /** Prints to out, flushing after every line. */
+    StreamSink(OutputStream out) {
+        this(out, 8192, true);
+    }
+
+    /** Prints to out in writes of up to bufferSize bytes. */
+    StreamSink(OutputStream out, int bufferSize) {
+        this(out, bufferSize, false);
+    }
+
+    private StreamSink(OutputStream out, int bufferSize, boolean flushEachLine) {
+        super(bufferSize);
+        this.out = out;
+        this.flushEachLine = flushEachLine;
+    }
+
+    @Override
+    byte[] emit(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes;
+    }
+
+    @Override
+    public OutputSink println() {
+        super.println();
+        if (flushEachLine)
+            flush();
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
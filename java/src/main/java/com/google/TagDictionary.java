@@ -0,0 +1,100 @@
+package com.google;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class used to intern tags. Every distinct tag string is stored once and
+ * identified by a small int id, so a video only needs an int[] for its tags
+ * and comparing two tags is comparing two ints. Ids are never reused, the
+ * dictionary only grows.
+ */
+final class TagDictionary {
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] tags = new String[64];
+    // the tags case-folded like search terms, for invalidating cached searches
+    private static volatile String[] folded = new String[64];
+    private static int count;
+
+    private TagDictionary() {
+    }
+
+    /** Returns the id of the tag, adding it to the dictionary if it is new. */
+    static int intern(String tag) {
+        Integer id = ids.get(tag);
+        return id != null ? id : add(tag);
+    }
+
+    private static synchronized int add(String tag) {
+        Integer id = ids.get(tag);
+        if (id != null)
+            return id;
+        String[] current = tags;
+        String[] currentFolded = folded;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+            currentFolded = Arrays.copyOf(currentFolded, count * 2);
+        }
+        current[count] = tag;
+        currentFolded[count] = NgramIndex.fold(tag);
+        // publish the arrays before the id, a reader holding the id must find the tag
+        folded = currentFolded;
+        tags = current;
+        ids.put(tag, count);
+        return count++;
+    }
+
+    /** Returns the id of the tag, or -1 if no video ever had it. */
+    static int lookup(String tag) {
+        Integer id = ids.get(tag);
+        return id == null ? -1 : id;
+    }
+
+    /** Number of tags, ids run from 0 to size() - 1. */
+    static int size() {
+        return ids.size();
+    }
+
+    static String tag(int id) {
+        return tags[id];
+    }
+
+    /** Returns the tag as {@link NgramIndex#fold(String)} folds it. */
+    static String folded(int id) {
+        return folded[id];
+    }
+
+    static int[] intern(List<String> tagList) {
+        int[] tagIds = new int[tagList.size()];
+        for (int i = 0; i < tagIds.length; i++)
+            tagIds[i] = intern(tagList.get(i));
+        return tagIds;
+    }
+
+    /** Returns a read-only list view resolving the ids on access. */
+    static List<String> view(int[] tagIds) {
+        return new TagList(tagIds);
+    }
+
+    private static final class TagList extends AbstractList<String> implements RandomAccess {
+        private final int[] tagIds;
+
+        TagList(int[] tagIds) {
+            this.tagIds = tagIds;
+        }
+
+        @Override
+        public String get(int index) {
+            return tag(tagIds[index]);
+        }
+
+        @Override
+        public int size() {
+            return tagIds.length;
+        }
+    }
+}
@@ -1,28 +1,56 @@
 package com.google;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A class used to represent a video. Added and overrode some functions for
  * sorting and comparing purpose. Modified toString() for the flagging
- * functionality.
+ * functionality. A video's identity is the dense ordinal the library hands
+ * out when it is loaded.
+ *
+ * The flag and its reason are one immutable {@link FlagState}, replaced with a
+ * compare-and-set, so a reader on any thread sees both from the same flagging
+ * without taking a lock.
  */
 
 class Video implements Comparable<Video> {
 
+    private static final AtomicReferenceFieldUpdater<Video, FlagState> FLAG_STATE = AtomicReferenceFieldUpdater
+            .newUpdater(Video.class, FlagState.class, "flagState");
+
+    /** Whether a video is flagged and why, never changed once published. */
+    static final class FlagState {
+        static final FlagState ALLOWED = new FlagState(false, null);
+
+        final boolean flagged;
+        final String reason;
+
+        private FlagState(boolean flagged, String reason) {
+            this.flagged = flagged;
+            this.reason = reason;
+        }
+
+        static FlagState flagged(String reason) {
+            return new FlagState(true, reason);
+        }
+    }
+
     private final String title;
     private final String videoId;
-    private final List<String> tags;
-    private boolean flagged;
-    private String reason;
+    // ids in the global TagDictionary
+    private final int[] tags;
+    private volatile FlagState flagState = FlagState.ALLOWED;
+    private int ordinal = -1;
 
     Video(String title, String videoId, List<String> tags) {
+        this(title, videoId, TagDictionary.intern(tags));
+    }
+
+    Video(String title, String videoId, int[] tagIds) {
         this.title = title;
         this.videoId = videoId;
-        this.tags = Collections.unmodifiableList(tags);
-        this.flagged = false;
-        this.reason = null;
+        this.tags = tagIds;
     }
 
     /** Returns the title of the video. */
@@ -37,51 +65,126 @@ class Video implements Comparable<Video> {
 
     /** Returns a readonly collection of the tags of the video. */
     List<String> getTags() {
+        return TagDictionary.view(getTagIds());
+    }
+
+    /** Returns the tag ids of the video, the array must not be modified. */
+    int[] getTagIds() {
         return tags;
     }
 
+    /**
+     * Returns the dense ordinal the library assigned to this video, or -1 if
+     * it has not been added to a library.
+     */
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    /** Assigned once by the library, before the video is used as a hash key. */
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Carries the flag of the video this one replaces on a catalog reload,
+     * called before the video is published.
+     */
+    void takeFlagFrom(Video previous) {
+        this.flagState = previous.flagState;
+    }
+
+    /** Returns the flag and its reason as read together. */
+    FlagState getFlagState() {
+        return flagState;
+    }
+
     boolean getFlagInfo() {
-        return flagged;
+        return flagState.flagged;
     }
 
     String getFlagReason() {
-        return reason;
+        return flagState.reason;
     }
 
-    void updateFlagInfo(boolean bool) {
-        flagged = bool;
+    /**
+     * Flags the video unless it is flagged already. Returns whether this call
+     * flagged it, of concurrent calls exactly one wins.
+     */
+    boolean flag(String reason) {
+        FlagState current;
+        do {
+            current = flagState;
+            if (current.flagged)
+                return false;
+        } while (!FLAG_STATE.compareAndSet(this, current, FlagState.flagged(reason)));
+        return true;
     }
 
-    void updateFlagReason(String new_reason) {
-        reason = new_reason;
+    /** Removes the flag, returns whether this call removed it. */
+    boolean allow() {
+        FlagState current;
+        do {
+            current = flagState;
+            if (!current.flagged)
+                return false;
+        } while (!FLAG_STATE.compareAndSet(this, current, FlagState.ALLOWED));
+        return true;
     }
 
+    /**
+     * Two videos are equal when they hold the same ordinal. A video without an
+     * ordinal is only equal to itself.
+     */
     @Override
     public boolean equals(Object that) {
-        if (that == null || !(that instanceof Video))
+        if (this == that)
+            return true;
+        if (!(that instanceof Video))
             return false;
-        Video temp = (Video) that;
-        return (this.getTitle().equals(temp.getTitle()) && this.getVideoId().equals(temp.getVideoId())
-                && this.getTags().equals(temp.getTags()));
+        return this.ordinal >= 0 && this.ordinal == ((Video) that).ordinal;
     }
 
+    @Override
+    public int hashCode() {
+        return ordinal >= 0 ? ordinal : System.identityHashCode(this);
+    }
+
+    /**
+     * Orders videos by title, videos sharing a title by id, so every video of
+     * the library has a distinct position.
+     */
     @Override
     public int compareTo(Video that) {
-        int res;
-        if ((res = this.getTitle().compareTo(that.getTitle())) < 0) {
-            return -1;
-        } else if (res > 0)
-            return 0;
-        else
+        int res = this.getTitle().compareTo(that.getTitle());
+        if (res != 0)
             return res;
+        return this.getVideoId().compareTo(that.getVideoId());
     }
 
     @Override
     public String toString() {
         String res = this.getTitle() + " (" + this.getVideoId() + ") ";
         String tags_no_comma = this.getTags().toString().replaceAll(", ", " ");
-        if (this.getFlagInfo())
-            return res + tags_no_comma + " - FLAGGED (reason: " + this.getFlagReason() + ")";
+        FlagState flag = this.getFlagState();
+        if (flag.flagged)
+            return res + tags_no_comma + " - FLAGGED (reason: " + flag.reason + ")";
         return res + tags_no_comma;
     }
+
+    /** Prints what {@link #toString()} returns, piece by piece. */
+    OutputSink describeTo(OutputSink out) {
+        out.print(getTitle()).print(" (").print(getVideoId()).print(") [");
+        int[] tagIds = getTagIds();
+        for (int i = 0; i < tagIds.length; i++) {
+            if (i > 0)
+                out.print(' ');
+            out.print(TagDictionary.tag(tagIds[i]));
+        }
+        out.print(']');
+        FlagState flag = getFlagState();
+        if (flag.flagged)
+            out.print(" - FLAGGED (reason: ").print(flag.reason).print(')');
+        return out;
+    }
 }
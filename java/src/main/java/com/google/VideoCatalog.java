@@ -0,0 +1,65 @@
+package com.google;
+
+import java.util.List;
+
+/**
+ * An interface used to query and flag the videos of a catalog. The player
+ * only talks to this interface, so a catalog can live on the heap as a
+ * {@link VideoLibrary}, which can also be reloaded, or off the heap as an
+ * {@link OffHeapVideoLibrary}, which is read once.
+ *
+ * Every method may be called by any thread without a lock.
+ */
+interface VideoCatalog {
+
+    /** Number of videos in the catalog. */
+    int size();
+
+    List<Video> getVideos();
+
+    /**
+     * Returns a read-only view of up to limit videos in title order, starting
+     * at offset.
+     */
+    List<Video> getVideosSorted(int offset, int limit);
+
+    /** Get a video by id. Returns null if the video is not found. */
+    Video getVideo(String videoId);
+
+    /** Get a video by ordinal. Returns null if the ordinal is not in use. */
+    Video getVideo(int ordinal);
+
+    Video getVideoByTitle(String videoTitle);
+
+    /**
+     * Returns the unflagged videos whose title contains the search term,
+     * ignoring case, sorted.
+     */
+    List<Video> searchVideos(String searchTerm);
+
+    /**
+     * Returns the unflagged videos with a tag containing the search term,
+     * ignoring case, sorted.
+     */
+    List<Video> searchVideosWithTag(String searchTerm);
+
+    SearchCache getSearchCache();
+
+    /** Returns a uniformly random unflagged video, or null if every video is flagged. */
+    Video getRandomUnflaggedVideo();
+
+    /** Makes PLAY_RANDOM reproducible, for single-threaded runs and tests. */
+    void seedRandom(long seed);
+
+    /** Returns the flagged videos in ordinal order. */
+    List<Video> getFlaggedVideos();
+
+    /** Flags the video unless it is flagged already, returns whether this call flagged it. */
+    boolean flagVideo(Video video, String reason);
+
+    /** Removes the flag of the video, returns whether this call removed it. */
+    boolean allowVideo(Video video);
+
+    /** Returns the lines of videos.txt that could not be parsed, in file order. */
+    List<CatalogParser.MalformedLine> getLoadErrors();
+}
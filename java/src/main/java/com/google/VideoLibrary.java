@@ -1,63 +1,837 @@
 package com.google;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A class used to represent a Video Library. Added a HashMap for using video
- * title as key to video as value for better access.
+ * title as key to video as value for better access. The catalog is parsed from
+ * a memory-mapped videos.txt by {@link CatalogParser}, or read from its binary
+ * {@link CatalogSnapshot}.
+ *
+ * Queries never lock. Flags are per-video atomic state, mirrored in a bitmap
+ * of flagged ordinals that is replaced with a compare-and-set on every flag
+ * change, so a tag search masks them out in one pass. The id and title
+ * maps and every index are published together as one {@link Indexes}
+ * instance: a reload builds a copy, with new Video objects for the changed
+ * videos, and swaps it in, so a query sees either the old or the new catalog
+ * and never a video halfway through a change. Writers, a reload and the
+ * lazy tag index, serialize on the library.
+ *
+ * A library loaded from a current snapshot builds none of this at startup.
+ * Lookups by id, ordinal and title and the title order are answered from the
+ * snapshot's mapped indexes, each video is decoded once when first asked
+ * for. The heap indexes are built from the snapshot by the first query that
+ * needs them, a search, PLAY_RANDOM or a reload.
  */
-class VideoLibrary {
+class VideoLibrary implements VideoCatalog {
 
-    private final HashMap<String, Video> videos;
-    private final HashMap<String, Video> title_video_map;
+    /** System property holding the number of threads used to parse the catalog. */
+    static final String LOAD_THREADS_PROPERTY = "catalog.loadThreads";
+    /** System property holding the search cache budget, in cached result entries. */
+    static final String SEARCH_CACHE_PROPERTY = "search.cacheSize";
+    /** System property selecting the {@link OffHeapVideoLibrary} backend. */
+    static final String OFF_HEAP_PROPERTY = "catalog.offHeap";
+    /** System property keeping tags in the mapped snapshot until they are used. */
+    static final String LAZY_TAGS_PROPERTY = "catalog.lazyTags";
+    /** System property holding the number of records whose decoded tags are cached in lazy mode. */
+    static final String TAG_CACHE_PROPERTY = "catalog.tagCacheSize";
+
+    private final Path catalog;
+    private final int loadThreads;
+    // attempts at drawing a playable video before looking at every video
+    private static final int RANDOM_ATTEMPTS = 32;
+
+    private volatile Indexes indexes = new Indexes(0, true);
+    // the snapshot queries are answered from until the indexes are built, null after that
+    private volatile Mapped mapped;
+    // only set by tests, ThreadLocalRandom otherwise
+    private volatile SplittableRandom random;
+    // ordinals of the flagged videos, in both modes, a published bitmap is never changed
+    private final AtomicReference<CompressedBitmap> flagged = new AtomicReference<>(new CompressedBitmap());
+    private final SearchCache searchCache = new SearchCache(Long.getLong(SEARCH_CACHE_PROPERTY, 1 << 20));
+    private List<CatalogParser.MalformedLine> loadErrors = new ArrayList<>();
+    private final List<CatalogListener> listeners = new ArrayList<>();
+
+    /**
+     * The structures a reload patches. An instance is never changed once
+     * published. {@link #copy()} copies the references of the id and title
+     * maps, the ordinal list and the trigram tables. It shares the posting
+     * lists and tag bitmaps, and copies one only when it is first patched.
+     */
+    private static final class Indexes {
+        final HashMap<String, Video> videos;
+        final HashMap<String, Video> title_video_map;
+        // video per ordinal, null once a video is removed by a reload
+        final ArrayList<Video> videos_by_ordinal;
+        // every video of the id map ordered by Video.compareTo, merged with a reload's changes instead of re-sorted
+        ArrayList<Video> sorted_videos;
+        final NgramIndex titleIndex;
+        // tag id -> bitmap of ordinals, plus a trigram index over the tag vocabulary for partial matches
+        final ArrayList<CompressedBitmap> tag_postings;
+        final NgramIndex tagVocabulary;
+        // false while lazy tags have not been needed by a tag search yet
+        final boolean tagsIndexed;
+        // tags whose bitmap is still shared with the published indexes, null when none is
+        private final BitSet sharedTags;
+        // ordinals of the unflagged videos for PLAY_RANDOM, changed in place and shared by every copy
+        final RandomSampler playable;
+
+        /** Creates empty indexes with room for size videos. */
+        Indexes(int size, boolean tagsIndexed) {
+            this(new HashMap<>((int) (size / 0.75f) + 1), new HashMap<>((int) (size / 0.75f) + 1),
+                    new ArrayList<>(size), new ArrayList<>(), new NgramIndex(), new ArrayList<>(), new NgramIndex(),
+                    tagsIndexed, null, new RandomSampler());
+        }
+
+        private Indexes(HashMap<String, Video> videos, HashMap<String, Video> title_video_map,
+                ArrayList<Video> videos_by_ordinal, ArrayList<Video> sorted_videos, NgramIndex titleIndex,
+                ArrayList<CompressedBitmap> tag_postings, NgramIndex tagVocabulary, boolean tagsIndexed,
+                BitSet sharedTags, RandomSampler playable) {
+            this.videos = videos;
+            this.title_video_map = title_video_map;
+            this.videos_by_ordinal = videos_by_ordinal;
+            this.sorted_videos = sorted_videos;
+            this.titleIndex = titleIndex;
+            this.tag_postings = tag_postings;
+            this.tagVocabulary = tagVocabulary;
+            this.tagsIndexed = tagsIndexed;
+            this.sharedTags = sharedTags;
+            this.playable = playable;
+        }
+
+        /** Returns a copy to patch, sharing what has not been patched yet. */
+        Indexes copy() {
+            BitSet shared = new BitSet(tag_postings.size());
+            shared.set(0, tag_postings.size());
+            return new Indexes(new HashMap<>(videos), new HashMap<>(title_video_map),
+                    new ArrayList<>(videos_by_ordinal), sorted_videos, titleIndex.copy(),
+                    new ArrayList<>(tag_postings), tagVocabulary.copy(), tagsIndexed, shared, playable);
+        }
+
+        /** Returns a copy with empty tag indexes, to build them for lazy tags. */
+        Indexes withoutTags(boolean tagsIndexed) {
+            return new Indexes(videos, title_video_map, videos_by_ordinal, sorted_videos, titleIndex,
+                    new ArrayList<>(), new NgramIndex(), tagsIndexed, null, playable);
+        }
+
+        /** Returns the bitmap of the tag to patch, copying it first if it is shared. */
+        CompressedBitmap postingsToPatch(int tag) {
+            CompressedBitmap postings = tag_postings.get(tag);
+            if (sharedTags != null && sharedTags.get(tag)) {
+                sharedTags.clear(tag);
+                postings = postings.copy();
+                tag_postings.set(tag, postings);
+            }
+            return postings;
+        }
+    }
+
+    /**
+     * The videos of a mapped snapshot. Records are ordinals, a record becomes a
+     * Video on first use and every later lookup returns that same object, so
+     * its flag sticks.
+     */
+    private static final class Mapped {
+        final CatalogSnapshot snapshot;
+        // decodes the tags of lazy videos, null when a video's tags are decoded with it
+        final LazyVideo.Source source;
+        final AtomicReferenceArray<Video> videos;
+
+        Mapped(CatalogSnapshot snapshot, LazyVideo.Source source) {
+            this.snapshot = snapshot;
+            this.source = source;
+            this.videos = new AtomicReferenceArray<>(snapshot.size());
+        }
+
+        Video video(int ordinal) {
+            Video video = videos.get(ordinal);
+            if (video != null)
+                return video;
+            video = source != null ? snapshot.lazyVideo(ordinal, source) : snapshot.video(ordinal);
+            video.setOrdinal(ordinal);
+            // a racing lookup may have decoded it first, everyone keeps the winner
+            Video winner = videos.compareAndExchange(ordinal, null, video);
+            return winner != null ? winner : video;
+        }
+    }
 
     VideoLibrary() {
-        this.videos = new HashMap<>();
-        this.title_video_map = new HashMap<>();
+        this(Integer.getInteger(LOAD_THREADS_PROPERTY, 1));
+    }
+
+    /**
+     * Loads the catalog with the given number of parser threads. A value of 1
+     * parses on the calling thread.
+     */
+    VideoLibrary(int loadThreads) {
+        this(defaultCatalog(), loadThreads, false);
+    }
+
+    /**
+     * Loads the given catalog file. With useSnapshot the binary snapshot next
+     * to the file is mapped instead of parsing the text, and written from the
+     * text when it is missing or no longer matches the file.
+     */
+    VideoLibrary(Path catalog, int loadThreads, boolean useSnapshot) {
+        this(catalog, loadThreads, useSnapshot, false);
+    }
+
+    /**
+     * Loads the given catalog file. With lazyTags a video read from the
+     * snapshot keeps its tags in the mapped file, they are decoded when the
+     * video's tags are first used. Without a current snapshot the text is
+     * parsed as usual and the snapshot written for the next start.
+     */
+    VideoLibrary(Path catalog, int loadThreads, boolean useSnapshot, boolean lazyTags) {
+        this.catalog = catalog;
+        this.loadThreads = loadThreads;
         try {
-            File file = new File(this.getClass().getResource("/videos.txt").getFile());
-
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] split = line.split("\\|");
-                String title = split[0].strip();
-                String id = split[1].strip();
-                List<String> tags;
-                if (split.length > 2) {
-                    tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(Collectors.toList());
-                } else {
-                    tags = new ArrayList<>();
+            if (useSnapshot) {
+                CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.pathFor(catalog), catalog);
+                if (snapshot != null) {
+                    mapped = new Mapped(snapshot, lazyTags
+                            ? new LazyVideo.Source(snapshot, Integer.getInteger(TAG_CACHE_PROPERTY, 4096))
+                            : null);
+                    return;
                 }
-                Video video = new Video(title, id, tags);
-                this.videos.put(id, video);
-                this.title_video_map.put(title, video);
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Couldn't find videos.txt");
+            CatalogParser.Result result = CatalogParser.parse(catalog, loadThreads);
+            presize(result.size());
+            result.forEach(this::add);
+            sortVideos();
+            this.loadErrors = result.errors();
+            if (!loadErrors.isEmpty())
+                System.err.println("Skipped " + loadErrors.size() + " malformed lines in videos.txt");
+            if (useSnapshot)
+                writeSnapshot(catalog);
+        } catch (NoSuchFileException e) {
+            System.err.println("Couldn't find videos.txt");
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.err.println("Couldn't read videos.txt");
             e.printStackTrace();
         }
     }
 
-    List<Video> getVideos() {
-        return new ArrayList<>(this.videos.values());
+    /** Loads the bundled videos.txt through its binary snapshot. */
+    static VideoLibrary withSnapshot() {
+        return new VideoLibrary(defaultCatalog(), Integer.getInteger(LOAD_THREADS_PROPERTY, 1), true,
+                Boolean.getBoolean(LAZY_TAGS_PROPERTY));
+    }
+
+    static Path defaultCatalog() {
+        return new File(VideoLibrary.class.getResource("/videos.txt").getFile()).toPath();
+    }
+
+    private void presize(int size) {
+        indexes = new Indexes(size, indexes.tagsIndexed);
+    }
+
+    /**
+     * Adds the video to indexes that are not published yet. A video whose id
+     * is in the indexes already replaces the previous one, see
+     * {@link #replace(Indexes, Video, Video)}.
+     */
+    private void add(Indexes ix, Video video) {
+        Video previous = ix.videos.get(video.getVideoId());
+        if (previous != null) {
+            replace(ix, previous, video);
+            return;
+        }
+        int ordinal = ix.videos_by_ordinal.size();
+        video.setOrdinal(ordinal);
+        ix.title_video_map.put(video.getTitle(), video);
+        insert(ix, ordinal, video);
+    }
+
+    /** Puts the video at its ordinal in every structure but the title map. */
+    private static void insert(Indexes ix, int ordinal, Video video) {
+        ix.videos_by_ordinal.add(video);
+        // a video flagged before the indexes were built stays out
+        if (!video.getFlagInfo())
+            ix.playable.add(ordinal);
+        ix.videos.put(video.getVideoId(), video);
+        index(ix, ordinal, video);
+    }
+
+    /**
+     * Puts the video in place of the previous one with its id, in indexes
+     * that are not published yet. The video takes over the ordinal and the
+     * flag, so playlists and flags carry over, the previous video is left as
+     * it was for the queries still holding it. The previous title is no
+     * longer found, unless another video holds it. Flags and reloads must not
+     * run concurrently, {@link SharedState} runs each of them alone.
+     */
+    private static void replace(Indexes ix, Video previous, Video video) {
+        int ordinal = previous.getOrdinal();
+        video.setOrdinal(ordinal);
+        video.takeFlagFrom(previous);
+        ix.videos.put(video.getVideoId(), video);
+        ix.title_video_map.remove(previous.getTitle(), previous);
+        ix.title_video_map.put(video.getTitle(), video);
+        ix.videos_by_ordinal.set(ordinal, video);
+        unindex(ix, ordinal, previous.getTagIds());
+        index(ix, ordinal, video);
+    }
+
+    private void add(Video video) {
+        add(indexes, video);
+    }
+
+    private void sortVideos() {
+        ArrayList<Video> sorted = new ArrayList<>(indexes.videos.values());
+        Collections.sort(sorted);
+        indexes.sorted_videos = sorted;
+    }
+
+    private static void index(Indexes ix, int ordinal, Video video) {
+        ix.titleIndex.add(ordinal, video.getTitle());
+        if (ix.tagsIndexed)
+            indexTags(ix, ordinal, video);
+    }
+
+    private static void indexTags(Indexes ix, int ordinal, Video video) {
+        for (int tag : video.getTagIds()) {
+            while (ix.tag_postings.size() <= tag)
+                ix.tag_postings.add(null);
+            if (ix.tag_postings.get(tag) == null) {
+                ix.tag_postings.set(tag, new CompressedBitmap());
+                ix.tagVocabulary.add(tag, TagDictionary.tag(tag));
+            }
+            ix.postingsToPatch(tag).add(ordinal);
+        }
+    }
+
+    private static void unindex(Indexes ix, int ordinal, int[] tags) {
+        ix.titleIndex.remove(ordinal);
+        if (!ix.tagsIndexed)
+            return;
+        // tags stay in the vocabulary with an empty bitmap, they cost nothing in a query
+        for (int tag : tags)
+            ix.postingsToPatch(tag).remove(ordinal);
+    }
+
+    /** Writes the freshly loaded catalog as the snapshot of the given file. */
+    private void writeSnapshot(Path catalog) {
+        Indexes ix = indexes;
+        try {
+            CatalogSnapshot.write(catalog, new CatalogSnapshot.Source() {
+                @Override
+                public int size() {
+                    return ix.videos_by_ordinal.size();
+                }
+
+                @Override
+                public String title(int record) {
+                    return ix.videos_by_ordinal.get(record).getTitle();
+                }
+
+                @Override
+                public String videoId(int record) {
+                    return ix.videos_by_ordinal.get(record).getVideoId();
+                }
+
+                @Override
+                public int[] tagIds(int record) {
+                    return ix.videos_by_ordinal.get(record).getTagIds();
+                }
+
+                @Override
+                public int sortedRecord(int rank) {
+                    return ix.sorted_videos.get(rank).getOrdinal();
+                }
+
+                @Override
+                public boolean ownsTitle(int record) {
+                    Video video = ix.videos_by_ordinal.get(record);
+                    return ix.title_video_map.get(video.getTitle()) == video;
+                }
+            }, CatalogSnapshot.pathFor(catalog));
+        } catch (IOException e) {
+            // the text catalog is loaded already, the next start simply parses again
+            System.err.println("Couldn't write catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the heap indexes, building them from the mapped snapshot first
+     * if they have not been built yet. The canonical video objects go into
+     * the indexes, so flags set before carry over.
+     */
+    private Indexes materialized() {
+        if (mapped == null)
+            return indexes;
+        synchronized (this) {
+            Mapped m = mapped;
+            if (m == null)
+                return indexes;
+            CatalogSnapshot snapshot = m.snapshot;
+            int size = snapshot.size();
+            Indexes ix = new Indexes(size, m.source == null);
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                Video video = m.video(ordinal);
+                insert(ix, ordinal, video);
+                if (snapshot.findByTitle(video.getTitle()) == ordinal)
+                    ix.title_video_map.put(video.getTitle(), video);
+            }
+            for (int rank = 0; rank < size; rank++)
+                ix.sorted_videos.add(m.video(snapshot.sortedRecord(rank)));
+            indexes = ix;
+            mapped = null;
+            return ix;
+        }
+    }
+
+    /**
+     * Starts watching the catalog file for changes. Deltas are only queued by
+     * the watcher, they take effect once passed to {@link #apply(CatalogDelta)}.
+     * The fingerprints of the loaded catalog are taken on the first reload.
+     */
+    CatalogWatcher watch() throws IOException {
+        return new CatalogWatcher(catalog, loadThreads, this::fingerprints);
+    }
+
+    /** Fingerprints the videos of the catalog as loaded, reloads only happen after this. */
+    private Map<String, Long> fingerprints() {
+        Mapped m = mapped;
+        if (m != null) {
+            // decoded aside, a fingerprint is no reason to keep a video
+            CatalogSnapshot snapshot = m.snapshot;
+            HashMap<String, Long> fingerprints = new HashMap<>((int) (snapshot.size() / 0.75f) + 1);
+            for (int record = 0; record < snapshot.size(); record++) {
+                Video video = snapshot.video(record);
+                fingerprints.put(video.getVideoId(), CatalogDelta.fingerprint(video));
+            }
+            return fingerprints;
+        }
+        Collection<Video> videos = indexes.videos.values();
+        HashMap<String, Long> fingerprints = new HashMap<>((int) (videos.size() / 0.75f) + 1);
+        for (Video video : videos)
+            fingerprints.put(video.getVideoId(), CatalogDelta.fingerprint(video));
+        return fingerprints;
+    }
+
+    void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Applies the removes, title/tag changes and adds of a reload. The maps
+     * and indexes are patched in a copy, a changed video is replaced by the
+     * delta's new Video object, and the title order is merged once for the
+     * whole delta. The copy is published at once, only then are the affected
+     * searches invalidated and the listeners told.
+     *
+     * The indexes are patched per changed video, not rebuilt: nothing is
+     * parsed, re-sorted or re-tokenized for a video the delta leaves alone.
+     * The copy itself is still O(catalog): the entries of the id and title
+     * maps and the slots of the ordinal list and the trigram tables are
+     * copied, only the posting lists and tag bitmaps are shared. This is
+     * kept over persistent maps, which would cost every lookup extra
+     * indirections for a reload that comes once per edit of videos.txt and
+     * runs alone, off the query path.
+     */
+    synchronized void apply(CatalogDelta delta) {
+        Indexes ix = materialized().copy();
+        // the videos leaving and entering the catalog, for the title order and the search cache
+        List<Video> dropped = new ArrayList<>();
+        List<Video> inserted = new ArrayList<>();
+        List<Runnable> events = new ArrayList<>();
+        for (String id : delta.removed) {
+            Video video = ix.videos.remove(id);
+            if (video == null)
+                continue;
+            dropped.add(video);
+            ix.title_video_map.remove(video.getTitle(), video);
+            int ordinal = video.getOrdinal();
+            ix.videos_by_ordinal.set(ordinal, null);
+            unindex(ix, ordinal, video.getTagIds());
+            ix.playable.remove(ordinal);
+            events.add(() -> listeners.forEach(listener -> listener.videoRemoved(video)));
+        }
+        for (Video video : delta.changed) {
+            Video previous = ix.videos.get(video.getVideoId());
+            if (previous == null) {
+                add(ix, video, dropped, inserted, events);
+                continue;
+            }
+            dropped.add(previous);
+            inserted.add(video);
+            replace(ix, previous, video);
+            events.add(() -> listeners.forEach(listener -> listener.videoChanged(previous, video)));
+        }
+        for (Video video : delta.added)
+            add(ix, video, dropped, inserted, events);
+        if (!dropped.isEmpty() || !inserted.isEmpty())
+            ix.sorted_videos = merge(ix.sorted_videos, dropped, inserted);
+        indexes = ix;
+        // a removed video leaves the flagged bitmap, a replaced one kept its flag
+        for (Video video : dropped)
+            updateFlagged(video.getOrdinal());
+        // a search that saw the old indexes is dropped here, or not cached at all
+        for (Video video : dropped)
+            searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        for (Video video : inserted)
+            searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        events.forEach(Runnable::run);
+    }
+
+    private void add(Indexes ix, Video video, List<Video> dropped, List<Video> inserted, List<Runnable> events) {
+        Video previous = ix.videos.get(video.getVideoId());
+        if (previous != null)
+            dropped.add(previous);
+        add(ix, video);
+        inserted.add(video);
+        events.add(() -> listeners.forEach(listener -> listener.videoAdded(video)));
+    }
+
+    /**
+     * Returns the title order without the dropped video objects and with the
+     * inserted ones, in one pass over the old order after sorting the
+     * inserted videos, instead of a shift of the list per change.
+     */
+    private static ArrayList<Video> merge(List<Video> sorted, List<Video> dropped, List<Video> inserted) {
+        // by identity, a replaced video equals its replacement
+        Set<Video> gone = Collections.newSetFromMap(new IdentityHashMap<>(dropped.size() * 2));
+        gone.addAll(dropped);
+        List<Video> added = new ArrayList<>(inserted.size());
+        for (Video video : inserted) {
+            if (!gone.contains(video))
+                added.add(video);
+        }
+        Collections.sort(added);
+        ArrayList<Video> merged = new ArrayList<>(sorted.size() + added.size());
+        int next = 0;
+        for (Video video : sorted) {
+            if (gone.contains(video))
+                continue;
+            while (next < added.size() && added.get(next).compareTo(video) < 0)
+                merged.add(added.get(next++));
+            merged.add(video);
+        }
+        merged.addAll(added.subList(next, added.size()));
+        return merged;
+    }
+
+    /** Returns the lines of videos.txt that could not be parsed, in file order. */
+    @Override
+    public List<CatalogParser.MalformedLine> getLoadErrors() {
+        return loadErrors;
+    }
+
+    @Override
+    public List<Video> getVideos() {
+        Mapped m = mapped;
+        if (m == null)
+            return new ArrayList<>(indexes.videos.values());
+        List<Video> videos = new ArrayList<>(m.snapshot.size());
+        for (int ordinal = 0; ordinal < m.snapshot.size(); ordinal++)
+            videos.add(m.video(ordinal));
+        return videos;
+    }
+
+    /** Number of videos in the library. */
+    @Override
+    public int size() {
+        Mapped m = mapped;
+        return m != null ? m.snapshot.size() : indexes.videos.size();
+    }
+
+    /**
+     * Returns a read-only view of up to limit videos in title order, starting
+     * at offset. The view is backed by the sorted index, nothing is copied.
+     */
+    @Override
+    public List<Video> getVideosSorted(int offset, int limit) {
+        Mapped m = mapped;
+        List<Video> sorted_videos = m != null ? new AbstractList<Video>() {
+            @Override
+            public Video get(int rank) {
+                return m.video(m.snapshot.sortedRecord(rank));
+            }
+
+            @Override
+            public int size() {
+                return m.snapshot.size();
+            }
+        } : indexes.sorted_videos;
+        int from = Math.min(Math.max(offset, 0), sorted_videos.size());
+        int to = (int) Math.min((long) from + Math.max(limit, 0), sorted_videos.size());
+        return Collections.unmodifiableList(sorted_videos.subList(from, to));
     }
 
     /**
      * Get a video by id. Returns null if the video is not found.
      */
-    Video getVideo(String videoId) {
-        return this.videos.get(videoId);
+    @Override
+    public Video getVideo(String videoId) {
+        Mapped m = mapped;
+        if (m == null)
+            return indexes.videos.get(videoId);
+        int ordinal = m.snapshot.findById(videoId);
+        return ordinal >= 0 ? m.video(ordinal) : null;
     }
 
-    Video getVideoByTitle(String videoTitle) {
-        return this.title_video_map.get(videoTitle);
+    /** Get a video by ordinal. Returns null if the ordinal is not in use. */
+    @Override
+    public Video getVideo(int ordinal) {
+        Mapped m = mapped;
+        if (m != null)
+            return ordinal >= 0 && ordinal < m.snapshot.size() ? m.video(ordinal) : null;
+        List<Video> videos_by_ordinal = indexes.videos_by_ordinal;
+        return ordinal < videos_by_ordinal.size() ? videos_by_ordinal.get(ordinal) : null;
+    }
+
+    @Override
+    public Video getVideoByTitle(String videoTitle) {
+        Mapped m = mapped;
+        if (m == null)
+            return indexes.title_video_map.get(videoTitle);
+        int ordinal = m.snapshot.findByTitle(videoTitle);
+        return ordinal >= 0 ? m.video(ordinal) : null;
+    }
+
+    /**
+     * Returns the unflagged videos whose title contains the search term,
+     * ignoring case, sorted. Results are cached per case-folded term.
+     */
+    @Override
+    public List<Video> searchVideos(String searchTerm) {
+        String term = NgramIndex.fold(searchTerm);
+        List<Video> results = searchCache.get(SearchCache.Kind.TITLE, term);
+        if (results == null) {
+            long generation = searchCache.generation();
+            results = new ArrayList<>();
+            for (Video video : searchTitles(term)) {
+                if (!video.getFlagInfo())
+                    results.add(video);
+            }
+            Collections.sort(results);
+            results = Collections.unmodifiableList(results);
+            searchCache.put(SearchCache.Kind.TITLE, term, results, generation);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the unflagged videos with a tag containing the search term,
+     * ignoring case, sorted. Results are cached per case-folded term.
+     */
+    @Override
+    public List<Video> searchVideosWithTag(String searchTerm) {
+        String term = NgramIndex.fold(searchTerm);
+        List<Video> results = searchCache.get(SearchCache.Kind.TAG, term);
+        if (results == null) {
+            long generation = searchCache.generation();
+            results = searchTags(term);
+            Collections.sort(results);
+            results = Collections.unmodifiableList(results);
+            searchCache.put(SearchCache.Kind.TAG, term, results, generation);
+        }
+        return results;
+    }
+
+    @Override
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * Returns the videos whose title contains the search term, ignoring case,
+     * through the trigram index over all titles.
+     */
+    private List<Video> searchTitles(String searchTerm) {
+        Indexes ix = materialized();
+        List<Video> videos_by_ordinal = ix.videos_by_ordinal;
+        int[] ordinals = ix.titleIndex.search(searchTerm);
+        List<Video> result = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals)
+            result.add(videos_by_ordinal.get(ordinal));
+        return result;
+    }
+
+    /**
+     * Returns the unflagged videos with a tag containing the search term,
+     * ignoring case. The term is matched against the tag vocabulary only, the
+     * videos come from the union of the matching tag bitmaps minus the flagged
+     * bitmap.
+     */
+    private List<Video> searchTags(String searchTerm) {
+        Indexes ix = ensureTagsIndexed();
+        CompressedBitmap matches = new CompressedBitmap();
+        for (int tag : ix.tagVocabulary.search(searchTerm))
+            matches.or(ix.tag_postings.get(tag));
+        matches.andNot(flagged.get());
+        List<Video> result = new ArrayList<>(matches.cardinality());
+        matches.forEach(ordinal -> result.add(ix.videos_by_ordinal.get(ordinal)));
+        return result;
+    }
+
+    /**
+     * Builds the tag bitmaps on the first tag search of a library with lazy
+     * tags, which decodes every tag once. Returns indexes with the tags.
+     */
+    private Indexes ensureTagsIndexed() {
+        Indexes ix = materialized();
+        if (ix.tagsIndexed)
+            return ix;
+        synchronized (this) {
+            ix = indexes;
+            if (ix.tagsIndexed)
+                return ix;
+            Indexes tagged = ix.withoutTags(true);
+            for (int ordinal = 0; ordinal < tagged.videos_by_ordinal.size(); ordinal++) {
+                Video video = tagged.videos_by_ordinal.get(ordinal);
+                if (video != null)
+                    indexTags(tagged, ordinal, video);
+            }
+            indexes = tagged;
+            return tagged;
+        }
+    }
+
+    /**
+     * Returns a uniformly random unflagged video, or null if every video is
+     * flagged. Draws from the dense array of playable ordinals, which flags
+     * and reloads keep current, so one draw is enough unless it raced with one
+     * of them.
+     */
+    @Override
+    public Video getRandomUnflaggedVideo() {
+        Indexes ix = materialized();
+        List<Video> videos_by_ordinal = ix.videos_by_ordinal;
+        int size = videos_by_ordinal.size();
+        for (int attempt = 0; attempt < RANDOM_ATTEMPTS; attempt++) {
+            int ordinal = ix.playable.sample(random);
+            if (ordinal < 0)
+                return null;
+            // a reload may have added the ordinal after we read the indexes
+            Video video = ordinal < size ? videos_by_ordinal.get(ordinal) : null;
+            if (video != null && !video.getFlagInfo())
+                return video;
+        }
+        // only a catalog flagged while we were drawing gets here, look at every video once
+        int start = nextInt(Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            Video video = videos_by_ordinal.get((start + i) % size);
+            if (video != null && !video.getFlagInfo())
+                return video;
+        }
+        return null;
+    }
+
+    private int nextInt(int bound) {
+        SplittableRandom seeded = random;
+        return seeded != null ? seeded.nextInt(bound) : ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    /**
+     * Makes PLAY_RANDOM reproducible by drawing from a seeded generator
+     * instead of ThreadLocalRandom. The generator is not thread-safe, this is
+     * for single-threaded runs and tests.
+     */
+    @Override
+    public void seedRandom(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /** Returns the flagged videos in ordinal order, from the flagged bitmap. */
+    @Override
+    public List<Video> getFlaggedVideos() {
+        CompressedBitmap ordinals = flagged.get();
+        List<Video> videos = new ArrayList<>(ordinals.cardinality());
+        ordinals.forEach(ordinal -> {
+            Video video = getVideo(ordinal);
+            // the bitmap follows a flag change a moment later
+            if (video != null && video.getFlagInfo())
+                videos.add(video);
+        });
+        return videos;
+    }
+
+    /**
+     * Flags the video unless it is flagged already, returns whether this call
+     * flagged it. The video's own state is the truth, the flagged bitmap, the
+     * playable ordinals and the search cache follow it.
+     */
+    @Override
+    public boolean flagVideo(Video video, String reason) {
+        if (!video.flag(reason))
+            return false;
+        updateFlagged(video.getOrdinal());
+        Indexes ix = builtIndexes();
+        if (ix != null)
+            ix.playable.remove(video.getOrdinal());
+        searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        return true;
+    }
+
+    /** Removes the flag of the video, returns whether this call removed it. */
+    @Override
+    public boolean allowVideo(Video video) {
+        if (!video.allow())
+            return false;
+        updateFlagged(video.getOrdinal());
+        Indexes ix = builtIndexes();
+        // the slot of a video a reload removed stays out
+        if (ix != null && getVideo(video.getOrdinal()) == video)
+            ix.playable.add(video.getOrdinal());
+        searchCache.invalidateVideo(video.getTitle(), video.getTagIds());
+        return true;
+    }
+
+    /**
+     * Makes the flagged bitmap agree with the flag of the video now holding
+     * the ordinal. The bitmap is copied and swapped in with a compare-and-set,
+     * the flag is read after the bitmap, so of racing changes the last swap
+     * always saw the last flag.
+     */
+    private void updateFlagged(int ordinal) {
+        CompressedBitmap current;
+        CompressedBitmap next;
+        do {
+            current = flagged.get();
+            Video video = getVideo(ordinal);
+            boolean isFlagged = video != null && video.getFlagInfo();
+            if (current.contains(ordinal) == isFlagged)
+                return;
+            next = current.copy();
+            if (isFlagged)
+                next.add(ordinal);
+            else
+                next.remove(ordinal);
+        } while (!flagged.compareAndSet(current, next));
+    }
+
+    /**
+     * Returns the heap indexes for a flag change to patch, or null while they
+     * are not built. Building them reads every flag, a flag changed before
+     * that is built in, one changed during it waits for it here.
+     */
+    private Indexes builtIndexes() {
+        if (mapped != null) {
+            synchronized (this) {
+                if (mapped != null)
+                    return null;
+            }
+        }
+        return indexes;
     }
 }
@@ -1,55 +1,152 @@
 package com.google;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import org.codehaus.plexus.util.StringUtils;
 
+/**
+ * A class used to run the commands of one viewer. The catalog, flags and
+ * playlists live in a {@link SharedState} that any number of players can
+ * share, a player only owns its playback state, its output and where the
+ * answers to its questions come from.
+ */
 public class VideoPlayer {
 
-    private final VideoLibrary videoLibrary;
-    private List<String> videoIds = new ArrayList<>();
+    /** Reads the answer from standard input, blocking until it is typed. */
+    static final Supplier<String> CONSOLE = () -> new Scanner(System.in).nextLine();
+
+    /** How a playlist change ended, with what is printed after the playlist name when it failed. */
+    private enum Outcome {
+        DONE(null),
+        NAME_TAKEN(": A playlist with the same name already exists"),
+        PLAYLIST_MISSING(": Playlist does not exist"),
+        VIDEO_MISSING(": Video does not exist"),
+        // followed by the flag reason and a closing parenthesis
+        VIDEO_FLAGGED(": Video is currently flagged (reason: "),
+        ALREADY_ADDED(": Video already added"),
+        NOT_IN_PLAYLIST(": Video is not in playlist"),
+        JOURNAL_FAILED(": Couldn't write the journal");
+
+        final String message;
+
+        Outcome(String message) {
+            this.message = message;
+        }
+    }
+
+    private final SharedState shared;
+    private final VideoCatalog videoLibrary;
+    private final PlaylistLibrary playlistLibrary;
+    private final OutputSink out;
+    private final Supplier<String> input;
 
     private Video currentlyPlayingVideo = null;
     private boolean pause_flag = false;
+    private long catalogVersion;
+    // the results of a search whose play question has not been answered yet
+    private List<Video> pendingChoices;
 
-    private PlaylistLibrary playlistLibrary = new PlaylistLibrary();
-    private List<Playlist> playlists = playlistLibrary.getPlaylists();
-    private List<String> playlistNames = playlistLibrary.getPlaylistNames();
-
-    private List<String> videoTitles = new ArrayList<>();
-
-    List<Video> videosFlagged = new ArrayList<>();
     String default_reason = "Not supplied";
 
     public VideoPlayer() {
-        this.videoLibrary = new VideoLibrary();
-        for (Video video : this.videoLibrary.getVideos()) {
-            this.videoIds.add(video.getVideoId());
-            this.videoTitles.add(video.getTitle());
+        this(new VideoLibrary());
+    }
+
+    VideoPlayer(VideoLibrary videoLibrary) {
+        this(new SharedState(videoLibrary), new StreamSink(System.out), CONSOLE);
+    }
+
+    /**
+     * Creates a player on the shared state, printing to out. The input
+     * returns the answer to a question, or null when the answer is the next
+     * line passed to {@link #answer(String)}.
+     */
+    VideoPlayer(SharedState shared, OutputSink out, Supplier<String> input) {
+        this.shared = shared;
+        this.videoLibrary = shared.getVideoLibrary();
+        this.playlistLibrary = shared.getPlaylistLibrary();
+        this.out = out;
+        this.input = input;
+        this.catalogVersion = shared.getCatalogVersion();
+    }
+
+    SharedState getSharedState() {
+        return shared;
+    }
+
+    OutputSink out() {
+        return out;
+    }
+
+    /**
+     * Starts watching videos.txt. Changes are picked up between commands by
+     * {@link #applyCatalogUpdates()}, playlists, flags and the playing video
+     * are kept for every video that is still in the catalog.
+     */
+    CatalogWatcher watchCatalog() throws IOException {
+        return shared.watchCatalog();
+    }
+
+    /**
+     * Applies every catalog reload that finished since the last command, and
+     * stops the playing video if a reload, by this or any other session,
+     * removed it. A playing video the reload changed is swapped for the new
+     * one, so its new title and tags show.
+     */
+    void applyCatalogUpdates() {
+        shared.applyCatalogUpdates();
+        long version = shared.getCatalogVersion();
+        if (version == catalogVersion)
+            return;
+        catalogVersion = version;
+        if (currentlyPlayingVideo != null) {
+            Video current = videoLibrary.getVideo(currentlyPlayingVideo.getVideoId());
+            if (!currentlyPlayingVideo.equals(current))
+                stopVideo();
+            else
+                currentlyPlayingVideo = current;
         }
     }
 
+    /** See {@link SharedState#openJournal(Path, Journal.Durability)}. */
+    void openJournal(Path path, Journal.Durability durability) throws IOException {
+        shared.openJournal(path, durability);
+    }
+
+    void closeJournal() throws IOException {
+        shared.closeJournal();
+    }
+
     public void numberOfVideos() {
-        System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+        out.print(videoLibrary.size()).println(" videos in the library");
     }
 
     public void showAllVideos() {
-        System.out.println("Here's a list of all available videos:");
-        List<Video> sortedList = videoLibrary.getVideos().stream().sorted().collect(Collectors.toList());
-        for (Video video : sortedList) {
-            System.out.println(video.toString());
+        showAllVideos(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lists one page of the title ordered library. The offset of the next page
+     * is offset + limit, pages come straight from the sorted index.
+     */
+    public void showAllVideos(int offset, int limit) {
+        out.println("Here's a list of all available videos:");
+        for (Video video : videoLibrary.getVideosSorted(offset, limit)) {
+            video.describeTo(out).println();
         }
+        long next = (long) offset + limit;
+        if (offset >= 0 && limit > 0 && next < videoLibrary.size())
+            out.print("More videos available: SHOW_ALL_VIDEOS ").print(next).print(' ').print(limit).println();
     }
 
     /**
      * Use a class attribute currentlyPlayingVideo to manage the currently playing
      * video.
-     * 
+     *
      * @param videoId
      */
     public void playVideo(String videoId) {
@@ -57,25 +154,28 @@ public class VideoPlayer {
             return;
         Video video = videoLibrary.getVideo(videoId);
         if (video == null) {
-            System.out.println("Cannot play video: Video does not exist");
+            out.println("Cannot play video: Video does not exist");
             return;
-        } else if (video.getFlagInfo()) {
-            System.out.println("Cannot play video: Video is currently flagged (reason: " + video.getFlagReason() + ")");
+        }
+        // the flag and its reason from the same flagging, another session may flag it meanwhile
+        Video.FlagState flag = video.getFlagState();
+        if (flag.flagged) {
+            out.print("Cannot play video: Video is currently flagged (reason: ").print(flag.reason).println(")");
             return;
         }
         if (currentlyPlayingVideo != null)
-            System.out.println("Stopping video: " + currentlyPlayingVideo.getTitle());
+            out.print("Stopping video: ").println(currentlyPlayingVideo.getTitle());
 
-        currentlyPlayingVideo = videoLibrary.getVideo(videoId);
-        System.out.println("Playing video: " + currentlyPlayingVideo.getTitle());
+        currentlyPlayingVideo = video;
+        out.print("Playing video: ").println(currentlyPlayingVideo.getTitle());
         pause_flag = false;
     }
 
     public void stopVideo() {
         if (currentlyPlayingVideo == null)
-            System.out.println("Cannot stop video: No video is currently playing");
+            out.println("Cannot stop video: No video is currently playing");
         else {
-            System.out.println("Stopping video: " + currentlyPlayingVideo.getTitle());
+            out.print("Stopping video: ").println(currentlyPlayingVideo.getTitle());
             currentlyPlayingVideo = null;
         }
     }
@@ -84,19 +184,16 @@ public class VideoPlayer {
      * Flagged videos will not be played here by excluding them out of the scope.
      */
     public void playRandomVideo() {
-        List<Video> videosUnflagged = new ArrayList<>(videoLibrary.getVideos());
-        videosUnflagged.removeAll(videosFlagged);
-        int videosNumber;
-        if ((videosNumber = videosUnflagged.size()) == 0) {
-            System.out.println("No videos available");
+        Video randomVideo = videoLibrary.getRandomUnflaggedVideo();
+        if (randomVideo == null) {
+            out.println("No videos available");
             return;
         }
-        int randomVideoNum = (int) (Math.random() * videosNumber);
         if (currentlyPlayingVideo != null)
-            System.out.println("Stopping video: " + currentlyPlayingVideo.getTitle());
-        currentlyPlayingVideo = videosUnflagged.get(randomVideoNum);
+            out.print("Stopping video: ").println(currentlyPlayingVideo.getTitle());
+        currentlyPlayingVideo = randomVideo;
         pause_flag = false;
-        System.out.println("Playing video: " + currentlyPlayingVideo.getTitle());
+        out.print("Playing video: ").println(currentlyPlayingVideo.getTitle());
     }
 
     /**
@@ -104,14 +201,14 @@ public class VideoPlayer {
      */
     public void pauseVideo() {
         if (currentlyPlayingVideo == null) {
-            System.out.println("Cannot pause video: No video is currently playing");
+            out.println("Cannot pause video: No video is currently playing");
             return;
         }
         if (!pause_flag) {
             pause_flag = true;
-            System.out.println("Pausing video: " + currentlyPlayingVideo.getTitle());
+            out.print("Pausing video: ").println(currentlyPlayingVideo.getTitle());
         } else
-            System.out.println("Video already paused: " + currentlyPlayingVideo.getTitle());
+            out.print("Video already paused: ").println(currentlyPlayingVideo.getTitle());
     }
 
     /**
@@ -119,80 +216,109 @@ public class VideoPlayer {
      */
     public void continueVideo() {
         if (currentlyPlayingVideo == null) {
-            System.out.println("Cannot continue video: No video is currently playing");
+            out.println("Cannot continue video: No video is currently playing");
             return;
         }
         if (pause_flag) {
-            System.out.println("Continuing video: " + currentlyPlayingVideo.getTitle());
+            out.print("Continuing video: ").println(currentlyPlayingVideo.getTitle());
             pause_flag = false;
         } else
-            System.out.println("Cannot continue video: Video is not paused");
+            out.println("Cannot continue video: Video is not paused");
     }
 
     public void showPlaying() {
         if (currentlyPlayingVideo == null) {
-            System.out.println("No video is currently playing");
+            out.println("No video is currently playing");
             return;
         }
         if (!pause_flag)
-            System.out.println("Currently playing: " + currentlyPlayingVideo.toString());
+            currentlyPlayingVideo.describeTo(out.print("Currently playing: ")).println();
         else
-            System.out.println("Currently playing: " + currentlyPlayingVideo.toString() + " - PAUSED");
+            currentlyPlayingVideo.describeTo(out.print("Currently playing: ")).println(" - PAUSED");
     }
 
     public void createPlaylist(String playlistName) {
         if (playlistName == null)
             return;
 
-        if (playlistNames.stream().anyMatch(playlistName::equalsIgnoreCase)) {
-            System.out.println("Cannot create playlist: A playlist with the same name already exists");
-        } else {
-            Playlist pl = new Playlist(playlistName);
-            playlistLibrary.addToLibrary(pl);
-            playlists.add(pl);
-            playlistNames.add(pl.getPlaylistName());
-            System.out.println("Successfully created new playlist: " + playlistName);
-        }
+        Playlist pl = new Playlist(playlistName);
+        Outcome outcome = shared.change(pl, () -> {
+            if (!playlistLibrary.addToLibrary(pl))
+                return Outcome.NAME_TAKEN;
+            // the name is only taken for sure once added, a change nobody can see yet is rolled back
+            if (!shared.record(journal -> journal.createPlaylist(playlistName))) {
+                playlistLibrary.removeFromLibrary(pl);
+                return Outcome.JOURNAL_FAILED;
+            }
+            return Outcome.DONE;
+        });
+        if (outcome == Outcome.DONE)
+            out.print("Successfully created new playlist: ").println(playlistName);
+        else
+            out.print("Cannot create playlist").println(outcome.message);
+    }
+
+    /** Whether the playlist, found before its lock was taken, has been deleted since. */
+    private boolean isDeleted(Playlist pl) {
+        return pl.getLibrary() != playlistLibrary;
+    }
+
+    /** Prints why a command failed for the playlist, the reason follows its name. */
+    private void printFailure(String command, String playlistName, Outcome outcome) {
+        out.print(command).print(playlistName).println(outcome.message);
     }
 
     public void addVideoToPlaylist(String playlistName, String videoId) {
         if (playlistName == null || videoId == null)
             return;
-        boolean pl_match = playlistNames.stream().anyMatch(playlistName::equalsIgnoreCase);
-        if (!pl_match) {
-            System.out.println("Cannot add video to " + playlistName + ": Playlist does not exist");
-            return;
-        }
-        if (!videoIds.contains(videoId)) {
-            System.out.println("Cannot add video to " + playlistName + ": Video does not exist");
+        Playlist pl = playlistLibrary.getPlaylist(playlistName);
+        if (pl == null) {
+            printFailure("Cannot add video to ", playlistName, Outcome.PLAYLIST_MISSING);
             return;
         }
         Video video = videoLibrary.getVideo(videoId);
-        if (video.getFlagInfo()) {
-            System.out.println("Cannot add video to " + playlistName + ": Video is currently flagged (reason: "
-                    + video.getFlagReason() + ")");
+        if (video == null) {
+            printFailure("Cannot add video to ", playlistName, Outcome.VIDEO_MISSING);
             return;
         }
-        for (String plName : playlistNames) {
-            if (plName.equalsIgnoreCase(playlistName)) {
-                Playlist pl = playlistLibrary.getPlaylist(plName);
-                if (!pl.getVideosInPlaylist().contains(video)) {
-                    pl.addVideo(video);
-                    System.out.println("Added video to " + playlistName + ": " + video.getTitle());
-                } else
-                    System.out.println("Cannot add video to " + playlistName + ": Video already added");
+        // the flag that refused the video, read inside the change
+        Video.FlagState[] refusedBy = new Video.FlagState[1];
+        Outcome outcome = shared.change(pl, () -> {
+            // flags and reloads wait for the change, so what is checked here holds until it is done
+            if (isDeleted(pl))
+                return Outcome.PLAYLIST_MISSING;
+            // the video as of now, a reload since the lookup may have replaced or removed it
+            Video current = videoLibrary.getVideo(video.getOrdinal());
+            if (current == null)
+                return Outcome.VIDEO_MISSING;
+            Video.FlagState flag = current.getFlagState();
+            if (flag.flagged) {
+                refusedBy[0] = flag;
+                return Outcome.VIDEO_FLAGGED;
             }
-        }
+            if (pl.containsVideo(video))
+                return Outcome.ALREADY_ADDED;
+            if (!shared.record(journal -> journal.addToPlaylist(playlistName, video.getVideoId())))
+                return Outcome.JOURNAL_FAILED;
+            pl.addVideo(video);
+            return Outcome.DONE;
+        });
+        if (outcome == Outcome.DONE)
+            out.print("Added video to ").print(playlistName).print(": ").println(video.getTitle());
+        else if (outcome == Outcome.VIDEO_FLAGGED)
+            out.print("Cannot add video to ").print(playlistName).print(outcome.message).print(refusedBy[0].reason)
+                    .println(")");
+        else
+            printFailure("Cannot add video to ", playlistName, outcome);
     }
 
     public void showAllPlaylists() {
-        if (playlists.isEmpty())
-            System.out.println("No playlists exist yet");
+        if (playlistLibrary.isEmpty())
+            out.println("No playlists exist yet");
         else {
-            List<String> sortedPlaylistNames = playlistNames.stream().sorted().collect(Collectors.toList());
-            System.out.println("Showing all playlists:");
-            for (String plName : sortedPlaylistNames) {
-                System.out.println(plName);
+            out.println("Showing all playlists:");
+            for (String plName : playlistLibrary.getPlaylistNames()) {
+                out.println(plName);
             }
         }
     }
@@ -200,198 +326,217 @@ public class VideoPlayer {
     public void showPlaylist(String playlistName) {
         if (playlistName == null)
             return;
-        boolean match_flag = false;
-        for (Playlist playlist : playlists) {
-            if (playlist.getPlaylistName().equalsIgnoreCase(playlistName)) {
-                match_flag = true;
-                List<Video> videos = playlist.getVideosInPlaylist();
-                System.out.println("Showing playlist: " + playlistName);
-                if (videos.size() > 0) {
-                    for (Video video : videos)
-                        System.out.println(video.toString());
-                } else {
-                    System.out.println("No videos here yet");
-                }
-            }
+        Playlist playlist = playlistLibrary.getPlaylist(playlistName);
+        if (playlist == null) {
+            printFailure("Cannot show playlist ", playlistName, Outcome.PLAYLIST_MISSING);
+            return;
+        }
+        // the playlist as of its last change, later changes don't wait for the output
+        int[] ordinals = playlist.snapshot();
+        out.print("Showing playlist: ").println(playlistName);
+        if (ordinals.length == 0) {
+            out.println("No videos here yet");
+            return;
+        }
+        for (int ordinal : ordinals) {
+            Video video = videoLibrary.getVideo(ordinal);
+            // a reload may remove the video before the playlist is purged
+            if (video != null)
+                video.describeTo(out).println();
         }
-        if (!match_flag)
-            System.out.println("Cannot show playlist " + playlistName + ": Playlist does not exist");
     }
 
     public void removeFromPlaylist(String playlistName, String videoId) {
         if (playlistName == null || videoId == null)
             return;
-        boolean pl_match = playlistNames.stream().anyMatch(playlistName::equalsIgnoreCase);
-        if (!pl_match) {
-            System.out.println("Cannot remove video from " + playlistName + ": Playlist does not exist");
+        Playlist pl = playlistLibrary.getPlaylist(playlistName);
+        if (pl == null) {
+            printFailure("Cannot remove video from ", playlistName, Outcome.PLAYLIST_MISSING);
             return;
         }
-        if (!videoIds.contains(videoId)) {
-            System.out.println("Cannot remove video from " + playlistName + ": Video does not exist");
+        Video video = videoLibrary.getVideo(videoId);
+        if (video == null) {
+            printFailure("Cannot remove video from ", playlistName, Outcome.VIDEO_MISSING);
             return;
         }
-        for (String plName : playlistNames) {
-            if (plName.equalsIgnoreCase(playlistName)) {
-                Playlist pl = playlistLibrary.getPlaylist(plName);
-                Video video = videoLibrary.getVideo(videoId);
-                if (pl.getVideosInPlaylist().contains(video)) {
-                    pl.removeVideo(video);
-                    System.out.println("Removed video from " + playlistName + ": " + video.getTitle());
-                } else
-                    System.out.println("Cannot remove video from " + playlistName + ": Video is not in playlist");
-            }
-        }
+        Outcome outcome = shared.change(pl, () -> {
+            if (isDeleted(pl))
+                return Outcome.PLAYLIST_MISSING;
+            if (!pl.containsVideo(video))
+                return Outcome.NOT_IN_PLAYLIST;
+            if (!shared.record(journal -> journal.removeFromPlaylist(playlistName, video.getVideoId())))
+                return Outcome.JOURNAL_FAILED;
+            pl.removeVideo(video);
+            return Outcome.DONE;
+        });
+        if (outcome == Outcome.DONE)
+            out.print("Removed video from ").print(playlistName).print(": ").println(video.getTitle());
+        else
+            printFailure("Cannot remove video from ", playlistName, outcome);
     }
 
     public void clearPlaylist(String playlistName) {
         if (playlistName == null)
             return;
-        boolean match_flag = false;
-        for (Playlist pl : playlists) {
-            if (pl.getPlaylistName().equalsIgnoreCase(playlistName)) {
-                match_flag = true;
-                pl.getVideosInPlaylist().clear();
-                System.out.println("Successfully removed all videos from " + playlistName);
-            }
+        Playlist pl = playlistLibrary.getPlaylist(playlistName);
+        if (pl == null) {
+            printFailure("Cannot clear playlist ", playlistName, Outcome.PLAYLIST_MISSING);
+            return;
         }
-        if (!match_flag)
-            System.out.println("Cannot clear playlist " + playlistName + ": Playlist does not exist");
+        Outcome outcome = shared.change(pl, () -> {
+            if (isDeleted(pl))
+                return Outcome.PLAYLIST_MISSING;
+            if (!shared.record(journal -> journal.clearPlaylist(playlistName)))
+                return Outcome.JOURNAL_FAILED;
+            pl.clear();
+            return Outcome.DONE;
+        });
+        if (outcome == Outcome.DONE)
+            out.print("Successfully removed all videos from ").println(playlistName);
+        else
+            printFailure("Cannot clear playlist ", playlistName, outcome);
     }
 
     public void deletePlaylist(String playlistName) {
         if (playlistName == null)
             return;
-        boolean match_flag = false;
-        for (Playlist pl : playlists) {
-            if (pl.getPlaylistName().equalsIgnoreCase(playlistName)) {
-                match_flag = true;
-                playlistLibrary.removeFromLibrary(pl);
-                playlists.remove(pl);
-                playlistNames.remove(pl.getPlaylistName());
-                System.out.println("Deleted playlist: " + playlistName);
-                break;
+        Playlist pl;
+        // deleted and created again by another session meanwhile, delete the new one
+        while ((pl = playlistLibrary.getPlaylist(playlistName)) != null) {
+            Playlist found = pl;
+            Outcome outcome = shared.change(found, () -> {
+                if (isDeleted(found))
+                    return Outcome.PLAYLIST_MISSING;
+                if (!shared.record(journal -> journal.deletePlaylist(playlistName)))
+                    return Outcome.JOURNAL_FAILED;
+                playlistLibrary.removeFromLibrary(found);
+                return Outcome.DONE;
+            });
+            if (outcome == Outcome.DONE) {
+                out.print("Deleted playlist: ").println(playlistName);
+                return;
+            }
+            if (outcome == Outcome.JOURNAL_FAILED) {
+                printFailure("Cannot delete playlist ", playlistName, outcome);
+                return;
             }
         }
-        if (!match_flag)
-            System.out.println("Cannot delete playlist " + playlistName + ": Playlist does not exist");
+        printFailure("Cannot delete playlist ", playlistName, Outcome.PLAYLIST_MISSING);
     }
 
     public void searchVideos(String searchTerm) {
         if (searchTerm == null)
             return;
-        List<Video> videosFromSearch = new ArrayList<>();
-        for (String videoTitle : videoTitles) {
-            if (Pattern.compile(Pattern.quote(searchTerm), Pattern.CASE_INSENSITIVE).matcher(videoTitle).find()) {
-                Video video = videoLibrary.getVideoByTitle(videoTitle);
-                if (!video.getFlagInfo())
-                    videosFromSearch.add(video);
-            }
-        }
-        if (videosFromSearch.isEmpty()) {
-            System.out.println("No search results for " + searchTerm);
-        } else {
-            Collections.sort(videosFromSearch);
-            System.out.println("Here are the results for " + searchTerm + ":");
-            int count = 0;
-            for (Video video : videosFromSearch)
-                System.out.println(++count + ") " + video.toString());
-
-            var scanner = new Scanner(System.in);
-            System.out.println("Would you like to play any of the above? If yes, specify the number of the video.\n"
-                    + "If your answer is not a valid number, we will assume it's a no.");
-            var input = scanner.nextLine();
-            int num;
-            if (StringUtils.isNumeric(input) && (num = Integer.parseInt(input)) <= count && num > 0)
-                this.playVideo(videosFromSearch.get(num - 1).getVideoId());
-        }
+        offerChoice(searchTerm, videoLibrary.searchVideos(searchTerm));
     }
 
     public void searchVideosWithTag(String videoTag) {
         if (videoTag == null)
             return;
-        List<Video> videosFromSearch = new ArrayList<>();
-        for (Video video : videoLibrary.getVideos()) {
-            for (String tag : video.getTags()) {
-                if (Pattern.compile(Pattern.quote(videoTag), Pattern.CASE_INSENSITIVE).matcher(tag).find()) {
-                    if (!video.getFlagInfo()) {
-                        videosFromSearch.add(video);
-                        break;
-                    }
-                }
-            }
-        }
+        offerChoice(videoTag, videoLibrary.searchVideosWithTag(videoTag));
+    }
+
+    /**
+     * Lists the search results and asks which one to play. The question is
+     * asked outside the shared lock, when the input has no answer yet it stays
+     * open until the next line arrives through {@link #answer(String)}.
+     */
+    private void offerChoice(String searchTerm, List<Video> videosFromSearch) {
         if (videosFromSearch.isEmpty()) {
-            System.out.println("No search results for " + videoTag);
-        } else {
-            Collections.sort(videosFromSearch);
-            System.out.println("Here are the results for " + videoTag + ":");
-            int count = 0;
-            for (Video video : videosFromSearch)
-                System.out.println(++count + ") " + video.toString());
-
-            var scanner = new Scanner(System.in);
-            System.out.println("Would you like to play any of the above? If yes, specify the number of the video.\n"
-                    + "If your answer is not a valid number, we will assume it's a no.");
-            var input = scanner.nextLine();
-            int num;
-            if (StringUtils.isNumeric(input) && (num = Integer.parseInt(input)) <= count && num > 0)
-                this.playVideo(videosFromSearch.get(num - 1).getVideoId());
+            out.print("No search results for ").println(searchTerm);
+            return;
         }
+        out.print("Here are the results for ").print(searchTerm).println(":");
+        int count = 0;
+        for (Video video : videosFromSearch)
+            video.describeTo(out.print(++count).print(") ")).println();
+
+        out.println("Would you like to play any of the above? If yes, specify the number of the video.\n"
+                + "If your answer is not a valid number, we will assume it's a no.");
+        String answer = input.get();
+        if (answer == null)
+            pendingChoices = videosFromSearch;
+        else
+            choose(videosFromSearch, answer);
+    }
+
+    /** Whether the next line of input answers the question of a search. */
+    boolean isAwaitingAnswer() {
+        return pendingChoices != null;
+    }
+
+    /** Answers the open question of the last search. */
+    void answer(String line) {
+        List<Video> choices = pendingChoices;
+        pendingChoices = null;
+        if (choices != null)
+            choose(choices, line);
+    }
 
+    private void choose(List<Video> choices, String answer) {
+        int num;
+        if (StringUtils.isNumeric(answer) && (num = Integer.parseInt(answer)) <= choices.size() && num > 0)
+            this.playVideo(choices.get(num - 1).getVideoId());
     }
 
     public void flagVideo(String videoId) {
         if (videoId == null)
             return;
 
-        Video target = videoLibrary.getVideo(videoId);
-        if (target == null)
-            System.out.println("Cannot flag video: Video does not exist");
-        else if (target.getFlagInfo())
-            System.out.println("Video is already flagged");
-        else {
-            target.updateFlagInfo(true);
-            target.updateFlagReason(default_reason);
-            videosFlagged.add(target);
-            if (currentlyPlayingVideo != null && currentlyPlayingVideo.equals(target))
-                this.stopVideo();
-            System.out
-                    .println("Successfully flagged video: " + target.getTitle() + " (reason: " + default_reason + ")");
-        }
+        shared.write(() -> {
+            Video target = videoLibrary.getVideo(videoId);
+            if (target == null)
+                out.println("Cannot flag video: Video does not exist");
+            else if (target.getFlagInfo())
+                out.println("Video is already flagged");
+            else if (!shared.record(journal -> journal.flagVideo(target.getVideoId(), default_reason)))
+                out.print("Cannot flag video").println(Outcome.JOURNAL_FAILED.message);
+            else {
+                videoLibrary.flagVideo(target, default_reason);
+                if (currentlyPlayingVideo != null && currentlyPlayingVideo.equals(target))
+                    this.stopVideo();
+                out.print("Successfully flagged video: ").print(target.getTitle()).print(" (reason: ")
+                        .print(default_reason).println(")");
+            }
+        });
     }
 
     public void flagVideo(String videoId, String reason) {
         if (videoId == null)
             return;
 
-        Video target = videoLibrary.getVideo(videoId);
-        if (target == null)
-            System.out.println("Cannot flag video: Video does not exist");
-        else if (target.getFlagInfo())
-            System.out.println("Cannot flag video: Video is already flagged");
-        else {
-            target.updateFlagInfo(true);
-            target.updateFlagReason(reason);
-            videosFlagged.add(target);
-            if (currentlyPlayingVideo != null && currentlyPlayingVideo.equals(target))
-                this.stopVideo();
-            System.out.println("Successfully flagged video: " + target.getTitle() + " (reason: " + reason + ")");
-        }
+        shared.write(() -> {
+            Video target = videoLibrary.getVideo(videoId);
+            if (target == null)
+                out.println("Cannot flag video: Video does not exist");
+            else if (target.getFlagInfo())
+                out.println("Cannot flag video: Video is already flagged");
+            else if (!shared.record(journal -> journal.flagVideo(target.getVideoId(), reason)))
+                out.print("Cannot flag video").println(Outcome.JOURNAL_FAILED.message);
+            else {
+                videoLibrary.flagVideo(target, reason);
+                if (currentlyPlayingVideo != null && currentlyPlayingVideo.equals(target))
+                    this.stopVideo();
+                out.print("Successfully flagged video: ").print(target.getTitle()).print(" (reason: ").print(reason).println(")");
+            }
+        });
     }
 
     public void allowVideo(String videoId) {
         if (videoId == null)
             return;
-        Video video = videoLibrary.getVideo(videoId);
-        if (video == null)
-            System.out.println("Cannot remove flag from video: Video does not exist");
-        else if (!video.getFlagInfo())
-            System.out.println("Cannot remove flag from video: Video is not flagged");
-        else {
-            video.updateFlagInfo(false);
-            video.updateFlagReason(null);
-            videosFlagged.remove(video);
-            System.out.println("Successfully removed flag from video: " + video.getTitle());
-        }
+        shared.write(() -> {
+            Video video = videoLibrary.getVideo(videoId);
+            if (video == null)
+                out.println("Cannot remove flag from video: Video does not exist");
+            else if (!video.getFlagInfo())
+                out.println("Cannot remove flag from video: Video is not flagged");
+            else if (!shared.record(journal -> journal.allowVideo(video.getVideoId())))
+                out.print("Cannot remove flag from video").println(Outcome.JOURNAL_FAILED.message);
+            else {
+                videoLibrary.allowVideo(video);
+                out.print("Successfully removed flag from video: ").println(video.getTitle());
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+public class BatchRunTest {
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  private BatchRun.Stats run(String script) throws IOException {
+    OutputSink out = new StreamSink(output, 1 << 16);
+    BatchRun.Stats stats = new BatchRun(new SharedState(new VideoLibrary()),
+        new BufferedReader(new StringReader(script)), out).run();
+    out.flush();
+    return stats;
+  }
+
+  @Test
+  public void testRunsCommandsWithoutPrompt() throws IOException {
+    BatchRun.Stats stats = run("CREATE_PLAYLIST nightly\n"
+        + "ADD_TO_PLAYLIST nightly amazing_cats_video_id\n"
+        + "SEARCH_VIDEOS dog\n"
+        + "1\n"
+        + "FLAG_VIDEO nothing_video_id\n");
+
+    String[] lines = output.toString().split("\\r?\\n");
+    assertEquals(4, stats.getCommands());
+    assertEquals(8, lines.length, output.toString());
+    assertEquals("Successfully created new playlist: nightly", lines[0]);
+    assertEquals("Added video to nightly: Amazing Cats", lines[1]);
+    assertEquals("Playing video: Funny Dogs", lines[6]);
+    assertEquals("Successfully flagged video: Video about nothing (reason: Not supplied)", lines[7]);
+  }
+
+  @Test
+  public void testExitEndsTheRun() throws IOException {
+    BatchRun.Stats stats = run("NUMBER_OF_VIDEOS\nexit\nNUMBER_OF_VIDEOS\n");
+
+    assertEquals(1, stats.getCommands());
+    assertEquals("5 videos in the library\n", output.toString());
+  }
+
+  @Test
+  public void testPercentilesComeFromTheHistogram() {
+    BatchRun.Stats stats = new BatchRun.Stats();
+    for (int i = 1; i <= 1000; i++)
+      stats.record(i * 1000L);
+
+    assertEquals(1000, stats.getCommands());
+    long median = stats.percentile(0.5);
+    assertTrue(median <= 500_000 && median > 500_000 * 7 / 8, String.valueOf(median));
+    long p99 = stats.percentile(0.99);
+    assertTrue(p99 <= 990_000 && p99 > 990_000 * 7 / 8, String.valueOf(p99));
+    long max = stats.percentile(1.0);
+    assertTrue(max <= 1_000_000 && max > 1_000_000 * 7 / 8, String.valueOf(max));
+  }
+}
@@ -0,0 +1,106 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogParserTest {
+
+  /** The original Scanner/split based parsing of a single line. */
+  private static Video splitParse(String line) {
+    String[] split = line.split("\\|");
+    String title = split[0].strip();
+    String id = split[1].strip();
+    List<String> tags;
+    if (split.length > 2) {
+      tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(Collectors.toList());
+    } else {
+      tags = new ArrayList<>();
+    }
+    return new Video(title, id, tags);
+  }
+
+  private static List<Video> parse(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    CatalogParser.Chunk chunk = new CatalogParser.Chunk();
+    CatalogParser.parse(ByteBuffer.wrap(bytes), 0, bytes.length, chunk);
+    return chunk.videos;
+  }
+
+  @Test
+  public void testMatchesSplitParsing() {
+    String[] lines = {
+        "Funny Dogs | funny_dogs_video_id |  #dog , #animal",
+        "Video about nothing | nothing_video_id |",
+        "No bar after id | no_tags_id",
+        "Blank tags | blank_id | ",
+        "Empty middle | empty_id || trailing",
+        "Trailing comma | comma_id | #a, #b,",
+        "Commas only | commas_id | ,,",
+        "Extra field | extra_id | #x | ignored",
+        "Unicode t\u00eftle | unicode_id | #\u00fcn\u00ef , #\u00e7ode",
+    };
+    List<Video> parsed = parse(String.join("\n", lines));
+    assertEquals(lines.length, parsed.size());
+    for (int i = 0; i < lines.length; i++) {
+      Video expected = splitParse(lines[i]);
+      assertEquals(expected.getTitle(), parsed.get(i).getTitle(), lines[i]);
+      assertEquals(expected.getVideoId(), parsed.get(i).getVideoId(), lines[i]);
+      assertEquals(expected.getTags(), parsed.get(i).getTags(), lines[i]);
+    }
+  }
+
+  @Test
+  public void testHandlesCrLfAndBlankLines() {
+    List<Video> parsed = parse("A | a_id | #x\r\n\r\nB | b_id\r\n");
+    assertEquals(2, parsed.size());
+    assertEquals("a_id", parsed.get(0).getVideoId());
+    assertEquals(List.of("#x"), parsed.get(0).getTags());
+    assertEquals("b_id", parsed.get(1).getVideoId());
+  }
+
+  @Test
+  public void testLineWithoutIdIsSkipped() {
+    byte[] bytes = "only a title |".getBytes(StandardCharsets.UTF_8);
+    assertNull(CatalogParser.parseLine(ByteBuffer.wrap(bytes), 0, bytes.length));
+  }
+
+  @Test
+  public void testParallelParseMatchesSequential(@TempDir Path dir) throws IOException {
+    StringBuilder catalog = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      if (i % 997 == 0)
+        catalog.append("malformed line ").append(i).append('\n');
+      catalog.append("Video ").append(i).append(" | video_").append(i).append("_id | #tag")
+          .append(i % 7).append(", #other\n");
+    }
+    Path file = dir.resolve("videos.txt");
+    Files.write(file, catalog.toString().getBytes(StandardCharsets.UTF_8));
+
+    CatalogParser.Result sequential = CatalogParser.parse(file, 1);
+    CatalogParser.Result parallel = CatalogParser.parse(file, 4);
+    List<String> expected = new ArrayList<>();
+    sequential.forEach(video -> expected.add(video.toString()));
+    List<String> actual = new ArrayList<>();
+    parallel.forEach(video -> actual.add(video.toString()));
+
+    assertEquals(20000, actual.size());
+    assertEquals(expected, actual);
+    assertEquals(sequential.errors().toString(), parallel.errors().toString());
+    assertEquals(21, parallel.errors().size());
+    assertEquals(1, parallel.errors().get(0).lineNumber);
+    assertEquals("malformed line 997", parallel.errors().get(1).text);
+    assertEquals(999, parallel.errors().get(1).lineNumber);
+  }
+}
@@ -0,0 +1,151 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogSnapshotTest {
+
+  private static final String CATALOG =
+      "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+          + "Amazing Cats | amazing_cats_video_id |  #cat , #animal\n"
+          + "Video about nothing | nothing_video_id |\n"
+          + "Amazing Cats | duplicate_title_id | #cat\n"
+          + "Renamed Dogs | funny_dogs_video_id | #dog\n";
+
+  @TempDir
+  Path dir;
+
+  private Path catalog;
+  private Path snapshot;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    catalog = dir.resolve("videos.txt");
+    Files.write(catalog, CATALOG.getBytes(StandardCharsets.UTF_8));
+    snapshot = CatalogSnapshot.pathFor(catalog);
+  }
+
+  private static Set<String> describe(VideoLibrary library) {
+    Set<String> videos = new HashSet<>();
+    for (Video video : library.getVideos())
+      videos.add(video.toString());
+    return videos;
+  }
+
+  @Test
+  public void testSnapshotIsWrittenAndMatchesTextLoad() throws IOException {
+    VideoLibrary text = new VideoLibrary(catalog, 1, false);
+    VideoLibrary first = new VideoLibrary(catalog, 1, true);
+    assertTrue(Files.exists(snapshot));
+    assertNotNull(CatalogSnapshot.open(snapshot, catalog));
+    VideoLibrary mapped = new VideoLibrary(catalog, 1, true);
+
+    for (VideoLibrary library : List.of(first, mapped)) {
+      assertEquals(describe(text), describe(library));
+      assertEquals(text.getVideoByTitle("Amazing Cats").toString(),
+          library.getVideoByTitle("Amazing Cats").toString());
+      // the line with the same id later in the file replaced it
+      assertNull(library.getVideoByTitle("Funny Dogs"));
+      assertEquals(List.of("#dog"), library.getVideoByTitle("Renamed Dogs").getTags());
+      assertEquals(text.getVideosSorted(0, 10).toString(), library.getVideosSorted(0, 10).toString());
+    }
+    assertNull(text.getVideoByTitle("Funny Dogs"));
+  }
+
+  @Test
+  public void testRecordsAreTheLibraryOrdinals() throws IOException {
+    VideoLibrary text = new VideoLibrary(catalog, 1, true);
+    CatalogSnapshot mapped = CatalogSnapshot.open(snapshot, catalog);
+
+    assertEquals(4, mapped.size());
+    assertEquals(0, mapped.findById("funny_dogs_video_id"));
+    assertEquals("Renamed Dogs", mapped.title(0));
+    assertEquals(text.getVideoByTitle("Amazing Cats").getOrdinal(), mapped.findByTitle("Amazing Cats"));
+    assertEquals(-1, mapped.findByTitle("Funny Dogs"));
+    assertEquals(2, mapped.findById("nothing_video_id"));
+    assertEquals(-1, mapped.findById("missing_id"));
+    assertTrue(mapped.video(2).getTags().isEmpty());
+    for (int rank = 0; rank < mapped.size(); rank++)
+      assertEquals(text.getVideosSorted(rank, 1).get(0).getOrdinal(), mapped.sortedRecord(rank));
+  }
+
+  @Test
+  public void testFlagsCarryOverWhenTheIndexesAreBuilt() throws IOException {
+    new VideoLibrary(catalog, 1, true);
+    VideoLibrary mapped = new VideoLibrary(catalog, 1, true);
+    Video cats = mapped.getVideo("amazing_cats_video_id");
+    assertSame(cats, mapped.getVideo(cats.getOrdinal()));
+    mapped.flagVideo(cats, "no cats");
+    mapped.flagVideo(mapped.getVideo("nothing_video_id"), "nothing");
+    mapped.flagVideo(mapped.getVideo("funny_dogs_video_id"), "no dogs");
+
+    assertEquals(3, mapped.getFlaggedVideos().size());
+    // the first search builds the heap indexes from the snapshot
+    assertEquals(List.of("duplicate_title_id"), ids(mapped.searchVideos("amazing")));
+    assertEquals(List.of("duplicate_title_id"), ids(mapped.searchVideosWithTag("#cat")));
+    for (int i = 0; i < 20; i++)
+      assertEquals("duplicate_title_id", mapped.getRandomUnflaggedVideo().getVideoId());
+    assertTrue(mapped.getVideo("amazing_cats_video_id").getFlagInfo());
+    assertEquals(3, mapped.getFlaggedVideos().size());
+  }
+
+  private static List<String> ids(List<Video> videos) {
+    List<String> ids = new ArrayList<>();
+    for (Video video : videos)
+      ids.add(video.getVideoId());
+    return ids;
+  }
+
+  @Test
+  public void testStaleSnapshotIsIgnored() throws IOException {
+    new VideoLibrary(catalog, 1, true);
+    Files.write(catalog, (CATALOG + "New Video | new_video_id | #new\n").getBytes(StandardCharsets.UTF_8));
+    assertNull(CatalogSnapshot.open(snapshot, catalog));
+
+    VideoLibrary reloaded = new VideoLibrary(catalog, 1, true);
+    assertNotNull(reloaded.getVideo("new_video_id"));
+    assertNotNull(CatalogSnapshot.open(snapshot, catalog));
+  }
+
+  @Test
+  public void testCorruptSnapshotIsIgnored() throws IOException {
+    new VideoLibrary(catalog, 1, true);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length - 1] ^= 1;
+    FileTime modified = Files.getLastModifiedTime(catalog);
+    Files.write(snapshot, bytes);
+    Files.setLastModifiedTime(catalog, modified);
+
+    assertNull(CatalogSnapshot.open(snapshot, catalog));
+    assertEquals(4, new VideoLibrary(catalog, 1, true).getVideos().size());
+  }
+
+  @Test
+  public void testCorruptHeaderCountIsIgnored() throws IOException {
+    new VideoLibrary(catalog, 1, true);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    // the low byte of the tag reference count
+    bytes[43] ^= 1;
+    FileTime modified = Files.getLastModifiedTime(catalog);
+    Files.write(snapshot, bytes);
+    Files.setLastModifiedTime(catalog, modified);
+
+    assertNull(CatalogSnapshot.open(snapshot, catalog));
+  }
+}
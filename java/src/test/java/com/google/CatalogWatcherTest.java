@@ -0,0 +1,138 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogWatcherTest extends TestBase {
+
+  @TempDir
+  Path dir;
+
+  private Path catalog;
+  private VideoLibrary library;
+  private CatalogWatcher watcher;
+
+  private void writeCatalog(String... lines) throws IOException {
+    Files.write(catalog, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @BeforeEach
+  public void setUpCatalog() throws IOException {
+    catalog = dir.resolve("videos.txt");
+    writeCatalog(
+        "Funny Dogs | funny_dogs_video_id |  #dog , #animal",
+        "Amazing Cats | amazing_cats_video_id |  #cat , #animal",
+        "Life at Google | life_at_google_video_id |  #google , #career");
+    library = new VideoLibrary(catalog, 1, false);
+    videoPlayer = new VideoPlayer(new SharedState(library), new StreamSink(outputStream), VideoPlayer.CONSOLE);
+    watcher = videoPlayer.watchCatalog();
+  }
+
+  @AfterEach
+  public void closeWatcher() throws IOException {
+    watcher.close();
+  }
+
+  @Test
+  public void testDeltaIsAppliedBetweenCommands() throws IOException {
+    Video cats = library.getVideo("amazing_cats_video_id");
+    writeCatalog(
+        "Amazing Cats II | amazing_cats_video_id | #cat",
+        "Life at Google | life_at_google_video_id |  #google , #career",
+        "New Video | new_video_id | #new");
+    watcher.reload();
+
+    assertEquals(3, library.getVideos().size());
+    assertNull(library.getVideo("new_video_id"));
+
+    videoPlayer.applyCatalogUpdates();
+    assertNull(library.getVideo("funny_dogs_video_id"));
+    assertNull(library.getVideoByTitle("Funny Dogs"));
+    assertEquals("New Video", library.getVideo("new_video_id").getTitle());
+    Video newCats = library.getVideo("amazing_cats_video_id");
+    assertEquals(cats, newCats);
+    assertSame(newCats, library.getVideoByTitle("Amazing Cats II"));
+    assertNull(library.getVideoByTitle("Amazing Cats"));
+    assertEquals(List.of("#cat"), newCats.getTags());
+    assertEquals(List.of(newCats, library.getVideo("life_at_google_video_id"), library.getVideo("new_video_id")),
+        library.getVideosSorted(0, 10));
+  }
+
+  @Test
+  public void testChangedVideoIsReplacedNotMutated() throws IOException {
+    videoPlayer.flagVideo("amazing_cats_video_id", "dont_like_cats");
+    Video cats = library.getVideo("amazing_cats_video_id");
+    assertEquals(List.of(), library.searchVideos("II"));
+    writeCatalog(
+        "Amazing Cats II | amazing_cats_video_id | #cat",
+        "Life at Google | life_at_google_video_id |  #google , #career");
+    watcher.reload();
+    videoPlayer.applyCatalogUpdates();
+
+    Video newCats = library.getVideo("amazing_cats_video_id");
+    assertEquals("Amazing Cats", cats.getTitle());
+    assertEquals(List.of("#cat", "#animal"), cats.getTags());
+    assertEquals("Amazing Cats II", newCats.getTitle());
+    assertEquals("dont_like_cats", newCats.getFlagReason());
+    videoPlayer.allowVideo("amazing_cats_video_id");
+    assertEquals(List.of(newCats), library.searchVideos("II"));
+  }
+
+  @Test
+  public void testPlayerStateSurvivesReload() throws IOException {
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.flagVideo("life_at_google_video_id", "dont_like_work");
+    videoPlayer.playVideo("amazing_cats_video_id");
+
+    writeCatalog(
+        "Amazing Cats | amazing_cats_video_id | #cat",
+        "Life at Google | life_at_google_video_id |  #google , #career");
+    watcher.reload();
+    videoPlayer.applyCatalogUpdates();
+    outputStream.reset();
+
+    videoPlayer.showPlaying();
+    videoPlayer.showPlaylist("my_playlist");
+    videoPlayer.playVideo("life_at_google_video_id");
+    String[] lines = getOutputLines();
+    assertEquals(4, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Currently playing: Amazing Cats (amazing_cats_video_id) [#cat]"));
+    assertThat(lines[2], containsString("Amazing Cats (amazing_cats_video_id) [#cat]"));
+    assertThat(lines[3], containsString("Video is currently flagged (reason: dont_like_work)"));
+  }
+
+  @Test
+  public void testRemovedPlayingVideoIsStopped() throws IOException {
+    videoPlayer.playVideo("funny_dogs_video_id");
+    writeCatalog("Amazing Cats | amazing_cats_video_id | #cat");
+    watcher.reload();
+    videoPlayer.applyCatalogUpdates();
+
+    assertThat(outputStream.toString(), containsString("Stopping video: Funny Dogs"));
+    outputStream.reset();
+    videoPlayer.showPlaying();
+    assertThat(outputStream.toString(), containsString("No video is currently playing"));
+  }
+
+  @Test
+  public void testUnchangedCatalogYieldsNoDelta() throws IOException {
+    watcher.reload();
+    assertNull(watcher.poll());
+    assertEquals(3, library.getVideos().size());
+  }
+}
@@ -0,0 +1,67 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class ChangeGateTest {
+
+  @Test
+  public void testExclusiveSideRunsAlone() throws InterruptedException {
+    ChangeGate gate = new ChangeGate();
+    AtomicInteger inside = new AtomicInteger();
+    AtomicBoolean alone = new AtomicBoolean();
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread(() -> {
+        while (!done.get()) {
+          gate.enter();
+          inside.incrementAndGet();
+          if (alone.get())
+            failure.set("entered while the exclusive side was held");
+          inside.decrementAndGet();
+          gate.exit();
+        }
+      }));
+    }
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 2_000; i++) {
+        gate.lockExclusive();
+        alone.set(true);
+        if (inside.get() != 0)
+          failure.set("exclusive side taken with " + inside.get() + " inside");
+        alone.set(false);
+        gate.unlockExclusive();
+      }
+      done.set(true);
+    });
+    for (Thread thread : threads)
+      thread.start();
+    writer.start();
+    writer.join();
+    for (Thread thread : threads)
+      thread.join();
+
+    assertNull(failure.get());
+  }
+
+  @Test
+  public void testExclusiveHolderMayEnterAgain() {
+    ChangeGate gate = new ChangeGate();
+    gate.lockExclusive();
+    gate.enter();
+    gate.exit();
+    gate.lockExclusive();
+    gate.unlockExclusive();
+    gate.unlockExclusive();
+    gate.enter();
+    gate.exit();
+  }
+}
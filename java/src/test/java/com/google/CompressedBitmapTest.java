@@ -0,0 +1,64 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+public class CompressedBitmapTest {
+
+  private static int[] toArray(TreeSet<Integer> set) {
+    return set.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  @Test
+  public void testMatchesTreeSetAcrossContainerKinds() {
+    Random random = new Random(7);
+    CompressedBitmap bitmap = new CompressedBitmap();
+    TreeSet<Integer> expected = new TreeSet<>();
+    for (int i = 0; i < 200000; i++) {
+      // dense values in the first container, sparse ones further out
+      int value = random.nextBoolean() ? random.nextInt(10000) : random.nextInt(1 << 24);
+      if (random.nextInt(4) == 0)
+        assertEquals(expected.remove(value), bitmap.remove(value));
+      else
+        assertEquals(expected.add(value), bitmap.add(value));
+    }
+    assertEquals(expected.size(), bitmap.cardinality());
+    assertArrayEquals(toArray(expected), bitmap.toArray());
+  }
+
+  @Test
+  public void testOrAndNot() {
+    Random random = new Random(11);
+    CompressedBitmap a = new CompressedBitmap();
+    CompressedBitmap b = new CompressedBitmap();
+    CompressedBitmap c = new CompressedBitmap();
+    TreeSet<Integer> expected = new TreeSet<>();
+    TreeSet<Integer> removed = new TreeSet<>();
+    for (int i = 0; i < 20000; i++) {
+      int value = random.nextInt(200000);
+      if (i % 2 == 0) {
+        a.add(value);
+      } else {
+        b.add(value);
+      }
+      expected.add(value);
+      if (i % 5 == 0) {
+        int gone = random.nextInt(200000);
+        c.add(gone);
+        removed.add(gone);
+      }
+    }
+    CompressedBitmap union = new CompressedBitmap();
+    union.or(a);
+    union.or(b);
+    assertArrayEquals(toArray(expected), union.toArray());
+
+    union.andNot(c);
+    expected.removeAll(removed);
+    assertArrayEquals(toArray(expected), union.toArray());
+  }
+}
@@ -0,0 +1,90 @@
+package com.google;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints what it takes a {@link PlayerServer} to hold many idle connections
+ * and answer one command on every one of them. The clients run in the same
+ * JVM on one selector, so the process needs two file descriptors per
+ * connection. Run with the number of connections, 9000 by default:
+ *
+ * <pre>
+ * java -Xmx2g -cp target/classes:target/test-classes com.google.ConnectionScaleReport 9000
+ * </pre>
+ */
+public class ConnectionScaleReport {
+
+  public static void main(String[] args) throws IOException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    try (PlayerServer server = new PlayerServer(new SharedState(new VideoLibrary()),
+        new InetSocketAddress(loopback, 0), Runtime.getRuntime().availableProcessors()).start();
+        Selector selector = Selector.open()) {
+      System.gc();
+      long heapBefore = usedHeap();
+      long start = System.nanoTime();
+      List<SocketChannel> clients = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        SocketChannel client = SocketChannel.open(new InetSocketAddress(loopback, server.getPort()));
+        client.configureBlocking(false);
+        client.register(selector, SelectionKey.OP_READ, new int[1]);
+        clients.add(client);
+      }
+      // every client waits for its greeting prompt, then for the answer's
+      awaitPrompts(selector, count, 1);
+      long connected = System.nanoTime() - start;
+      System.gc();
+      long perConnection = (usedHeap() - heapBefore) / count;
+
+      start = System.nanoTime();
+      ByteBuffer command = ByteBuffer.wrap("NUMBER_OF_VIDEOS\n".getBytes(StandardCharsets.UTF_8));
+      for (SocketChannel client : clients)
+        client.write(command.duplicate());
+      awaitPrompts(selector, count, 2);
+      long answered = System.nanoTime() - start;
+
+      System.out.printf(Locale.ROOT, "%d connections open on the server%n", server.getConnections());
+      System.out.printf(Locale.ROOT, "connect and greet: %d ms, %d heap bytes per connection%n",
+          connected / 1_000_000, perConnection);
+      System.out.printf(Locale.ROOT, "one command on each: %d ms, %.0f commands/s%n", answered / 1_000_000,
+          count * 1e9 / answered);
+      for (SocketChannel client : clients)
+        client.close();
+    }
+  }
+
+  /** Reads until every client has seen the given number of prompts. */
+  private static void awaitPrompts(Selector selector, int clients, int prompts) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    int done = 0;
+    while (done < clients) {
+      selector.select();
+      for (SelectionKey key : selector.selectedKeys()) {
+        int[] seen = (int[]) key.attachment();
+        buffer.clear();
+        int read = ((SocketChannel) key.channel()).read(buffer);
+        for (int i = 0; i < read; i++) {
+          // the prompt is the only '>' the server prints here
+          if (buffer.get(i) == '>' && ++seen[0] == prompts)
+            done++;
+        }
+      }
+      selector.selectedKeys().clear();
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
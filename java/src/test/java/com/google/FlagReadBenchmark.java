@@ -0,0 +1,91 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prints how many flag lookups per second reader threads get while 0, 1, 2
+ * and 4 writer threads flag and allow videos, once with the readers on the
+ * shared side of SharedState's gate, where every query used to take the
+ * read lock, and once reading the library without a lock. Run with the
+ * number of reader threads and the seconds per measurement, the number of
+ * cores and 1 by default:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.google.FlagReadBenchmark 4 1
+ * </pre>
+ *
+ * A lookup is what PLAY does before it plays: find the video by id and read
+ * its flag and reason, plus a PLAY_RANDOM draw.
+ */
+public class FlagReadBenchmark {
+
+  private static final String[] IDS = {"amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+      "life_at_google_video_id", "nothing_video_id"};
+
+  public static void main(String[] args) throws InterruptedException {
+    int readers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+    System.out.printf(Locale.ROOT, "%d readers, %d cores%n", readers, Runtime.getRuntime().availableProcessors());
+    System.out.println("writers   read lock/s    lock-free/s");
+    run(readers, 1, true, seconds);
+    run(readers, 1, false, seconds);
+    for (int writers : new int[] {0, 1, 2, 4}) {
+      long locked = run(readers, writers, true, seconds);
+      long lockFree = run(readers, writers, false, seconds);
+      System.out.printf(Locale.ROOT, "%7d %13d %14d%n", writers, locked, lockFree);
+    }
+  }
+
+  /** Returns the lookups per second of all readers together. */
+  private static long run(int readers, int writers, boolean locked, double seconds) throws InterruptedException {
+    SharedState shared = new SharedState(new VideoLibrary());
+    VideoCatalog library = shared.getVideoLibrary();
+    AtomicBoolean done = new AtomicBoolean();
+    LongAdder lookups = new LongAdder();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int w = 0; w < writers; w++) {
+      Video video = library.getVideo(IDS[w % IDS.length]);
+      String reason = "writer " + w;
+      threads.add(new Thread(() -> {
+        while (!done.get()) {
+          shared.write(() -> library.flagVideo(video, reason));
+          shared.write(() -> library.allowVideo(video));
+        }
+      }));
+    }
+    for (int r = 0; r < readers; r++) {
+      int first = r;
+      threads.add(new Thread(() -> {
+        long count = 0;
+        int[] sink = new int[1];
+        for (int i = first; !done.get(); i++) {
+          String id = IDS[i % IDS.length];
+          Runnable lookup = () -> {
+            Video.FlagState flag = library.getVideo(id).getFlagState();
+            Video random = library.getRandomUnflaggedVideo();
+            sink[0] += (flag.flagged ? 1 : 0) + (random == null ? 0 : random.getOrdinal());
+          };
+          if (locked)
+            shared.read(lookup);
+          else
+            lookup.run();
+          count++;
+        }
+        lookups.add(count);
+      }));
+    }
+    for (Thread thread : threads)
+      thread.start();
+    Thread.sleep((long) (seconds * 1000));
+    done.set(true);
+    for (Thread thread : threads)
+      thread.join();
+    return (long) (lookups.sum() / seconds);
+  }
+}
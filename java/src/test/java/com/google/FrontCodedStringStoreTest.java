@@ -0,0 +1,94 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class FrontCodedStringStoreTest {
+
+  private static FrontCodedStringStore build(List<String> sorted) {
+    FrontCodedStringStore.Builder builder = new FrontCodedStringStore.Builder(new OffHeapRegion(8));
+    for (String s : sorted)
+      builder.add(s);
+    return builder.build();
+  }
+
+  @Test
+  public void testGetAndFindEveryString() {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 1000; i++)
+      strings.add(String.format("video_%04d_id", i * 7 % 1000));
+    strings.add("amazing_cats_video_id");
+    strings.add("amazing_cats_video_id");
+    strings.add("");
+    Collections.sort(strings);
+    FrontCodedStringStore store = build(strings);
+
+    assertEquals(strings.size(), store.size());
+    for (int i = 0; i < strings.size(); i++) {
+      assertEquals(strings.get(i), store.get(i));
+      assertEquals(strings.indexOf(strings.get(i)), store.find(strings.get(i)));
+    }
+    assertArrayEquals("video_0001_id".getBytes(StandardCharsets.UTF_8),
+        store.getBytes(store.find("video_0001_id")));
+  }
+
+  @Test
+  public void testFindReturnsInsertionPoint() {
+    FrontCodedStringStore store = build(List.of("b", "d", "f"));
+
+    assertEquals(-1, store.find("a"));
+    assertEquals(-2, store.find("c"));
+    assertEquals(-4, store.find("g"));
+    assertEquals(-1, build(List.of()).find("a"));
+  }
+
+  @Test
+  public void testOrderMatchesStringCompareTo() {
+    // a supplementary character sorts before U+FF21 in UTF-16 but after it in UTF-8
+    List<String> strings = new ArrayList<>(List.of("x\uff21", "x\ud83c\udf70", "x\u00e9", "xa", "x"));
+    Collections.sort(strings);
+    FrontCodedStringStore store = build(strings);
+
+    for (int i = 0; i < strings.size(); i++)
+      assertEquals(i, store.find(strings.get(i)));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FrontCodedStringStore.Builder().add("b").add("a"));
+  }
+
+  @Test
+  public void testForEachVisitsInOrderFromIndex() {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 50; i++)
+      strings.add(String.format("title %02d", i));
+    FrontCodedStringStore store = build(strings);
+
+    List<String> visited = new ArrayList<>();
+    store.forEach(15, (index, utf8, length) -> {
+      assertEquals(strings.get(index), new String(utf8, 0, length, StandardCharsets.UTF_8));
+      visited.add(strings.get(index));
+      return index < 40;
+    });
+    assertEquals(strings.subList(15, 41), visited);
+  }
+
+  @Test
+  public void testSharedPrefixesAreStoredOnce() {
+    FrontCodedStringStore.Builder builder = new FrontCodedStringStore.Builder();
+    long raw = 0;
+    for (int i = 0; i < 10000; i++) {
+      String id = String.format("amazing_cats_video_%05d_id", i);
+      raw += id.length();
+      builder.add(id);
+    }
+    FrontCodedStringStore store = builder.build();
+    assertTrue(store.sizeInBytes() < raw / 2, store.sizeInBytes() + " bytes for " + raw);
+  }
+}
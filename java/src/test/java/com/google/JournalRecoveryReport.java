@@ -0,0 +1,103 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Prints how long writing and replaying a journal of synthetic playlist and
+ * flag changes takes. Run with the number of changes as argument, 10M by
+ * default:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.google.JournalRecoveryReport 10000000
+ * </pre>
+ *
+ * The journal is written asynchronously and compaction is switched off, so
+ * the replay reads every change.
+ */
+public class JournalRecoveryReport {
+
+  /** Counts replayed changes without applying them. */
+  private static final class Counter implements Journal.Mutations {
+    long changes;
+
+    @Override
+    public void createPlaylist(String playlistName) {
+      changes++;
+    }
+
+    @Override
+    public void addToPlaylist(String playlistName, String videoId) {
+      changes++;
+    }
+
+    @Override
+    public void removeFromPlaylist(String playlistName, String videoId) {
+      changes++;
+    }
+
+    @Override
+    public void clearPlaylist(String playlistName) {
+      changes++;
+    }
+
+    @Override
+    public void deletePlaylist(String playlistName) {
+      changes++;
+    }
+
+    @Override
+    public void flagVideo(String videoId, String reason) {
+      changes++;
+    }
+
+    @Override
+    public void allowVideo(String videoId) {
+      changes++;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    Path dir = Files.createTempDirectory("journal");
+    Path path = dir.resolve("videos.journal");
+    try {
+      long start = System.nanoTime();
+      try (Journal journal = Journal.open(path, Journal.Durability.ASYNC, Long.MAX_VALUE, new Counter())) {
+        for (int i = 0; i < n; i++) {
+          String playlist = "playlist_" + (i & 1023);
+          String video = "video_" + (i * 7919 % 1_000_000) + "_id";
+          switch (i & 7) {
+          case 0:
+            journal.flagVideo(video, "Not supplied");
+            break;
+          case 1:
+            journal.allowVideo(video);
+            break;
+          case 2:
+            journal.removeFromPlaylist(playlist, video);
+            break;
+          default:
+            journal.addToPlaylist(playlist, video);
+          }
+        }
+      }
+      long written = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Counter counter = new Counter();
+      Journal.open(path, Journal.Durability.PER_OP, Long.MAX_VALUE, counter).close();
+      long replayed = System.nanoTime() - start;
+
+      System.out.printf("changes            %,15d%n", counter.changes);
+      System.out.printf("journal bytes      %,15d%n", Files.size(path));
+      System.out.printf("write (async) ms   %,15d%n", written / 1_000_000);
+      System.out.printf("replay ms          %,15d%n", replayed / 1_000_000);
+    } finally {
+      Files.deleteIfExists(Journal.snapshotFor(path));
+      Files.deleteIfExists(path);
+      Files.deleteIfExists(dir);
+    }
+  }
+}
@@ -0,0 +1,388 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JournalTest {
+
+  @TempDir
+  Path dir;
+
+  /** Remembers every replayed change as a line of text. */
+  private static final class Recorder implements Journal.Mutations {
+    final List<String> changes = new ArrayList<>();
+
+    @Override
+    public void createPlaylist(String playlistName) {
+      changes.add("create " + playlistName);
+    }
+
+    @Override
+    public void addToPlaylist(String playlistName, String videoId) {
+      changes.add("add " + playlistName + " " + videoId);
+    }
+
+    @Override
+    public void removeFromPlaylist(String playlistName, String videoId) {
+      changes.add("remove " + playlistName + " " + videoId);
+    }
+
+    @Override
+    public void clearPlaylist(String playlistName) {
+      changes.add("clear " + playlistName);
+    }
+
+    @Override
+    public void deletePlaylist(String playlistName) {
+      changes.add("delete " + playlistName);
+    }
+
+    @Override
+    public void flagVideo(String videoId, String reason) {
+      changes.add("flag " + videoId + " " + reason);
+    }
+
+    @Override
+    public void allowVideo(String videoId) {
+      changes.add("allow " + videoId);
+    }
+  }
+
+  private static List<String> replay(Path path) throws IOException {
+    Recorder recorder = new Recorder();
+    Journal.open(path, Journal.Durability.PER_OP, recorder).close();
+    return recorder.changes;
+  }
+
+  @Test
+  public void testReplaysEveryChangeInEveryMode() throws IOException {
+    List<String> expected = List.of("create my_playlist", "add my_playlist amazing_cats_video_id",
+        "remove my_playlist amazing_cats_video_id", "clear my_playlist", "delete my_playlist",
+        "flag funny_dogs_video_id dont_like_dogs", "allow funny_dogs_video_id",
+        "flag \u00e9t\u00e9_id \ud83d\ude00");
+    for (Journal.Durability durability : Journal.Durability.values()) {
+      Path path = dir.resolve(durability + ".journal");
+      try (Journal journal = Journal.open(path, durability, new Recorder())) {
+        journal.createPlaylist("my_playlist");
+        journal.addToPlaylist("my_playlist", "amazing_cats_video_id");
+        journal.removeFromPlaylist("my_playlist", "amazing_cats_video_id");
+        journal.clearPlaylist("my_playlist");
+        journal.deletePlaylist("my_playlist");
+        journal.flagVideo("funny_dogs_video_id", "dont_like_dogs");
+        journal.allowVideo("funny_dogs_video_id");
+        journal.flagVideo("\u00e9t\u00e9_id", "\ud83d\ude00");
+      }
+      assertEquals(expected, replay(path), durability.name());
+    }
+  }
+
+  @Test
+  public void testTornTailIsCutOff() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.createPlaylist("first");
+      journal.createPlaylist("second");
+    }
+    long size = Files.size(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 3);
+    }
+
+    assertEquals(List.of("create first"), replay(path));
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.createPlaylist("third");
+    }
+    assertEquals(List.of("create first", "create third"), replay(path));
+  }
+
+  @Test
+  public void testCorruptRecordEndsTheReplay() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.createPlaylist("first");
+      journal.createPlaylist("second");
+      journal.createPlaylist("third");
+    }
+    byte[] bytes = Files.readAllBytes(path);
+    // the last byte of the second record's name
+    int second = 16 + 8 + 1 + 1 + "first".length() + 8 + 1 + 1 + "second".length() - 1;
+    bytes[second] ^= 1;
+    Files.write(path, bytes);
+
+    assertEquals(List.of("create first"), replay(path));
+  }
+
+  @Test
+  public void testCompactionReplacesTheJournalWithASnapshot() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_BATCH, 3, new Recorder())) {
+      journal.createPlaylist("old");
+      journal.deletePlaylist("old");
+      assertFalse(journal.needsCompaction());
+      journal.createPlaylist("kept");
+      assertTrue(journal.needsCompaction());
+      journal.compact(state -> state.createPlaylist("kept"));
+      assertFalse(journal.needsCompaction());
+      journal.flagVideo("amazing_cats_video_id", "Not supplied");
+    }
+
+    assertTrue(Files.exists(Journal.snapshotFor(path)));
+    assertEquals(List.of("create kept", "flag amazing_cats_video_id Not supplied"), replay(path));
+  }
+
+  @Test
+  public void testCorruptSnapshotFailsTheOpen() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.compact(state -> {
+        state.createPlaylist("first");
+        state.createPlaylist("second");
+      });
+      journal.createPlaylist("third");
+    }
+    Path snapshot = Journal.snapshotFor(path);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(snapshot, bytes);
+
+    IOException corrupt = assertThrows(IOException.class, () -> replay(path));
+    assertThat(corrupt.getMessage(), containsString("is corrupt after record 1"));
+
+    // a torn snapshot was never moved into place by a compaction either
+    Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 3));
+    assertThrows(IOException.class, () -> replay(path));
+  }
+
+  @Test
+  public void testJournalOlderThanTheSnapshotIsDiscarded() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.createPlaylist("compacted");
+    }
+    Path before = dir.resolve("before.journal");
+    Files.copy(path, before);
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_OP, new Recorder())) {
+      journal.compact(state -> state.createPlaylist("compacted"));
+    }
+    // a crash between moving the snapshot and resetting the journal
+    Files.copy(before, path, StandardCopyOption.REPLACE_EXISTING);
+
+    assertEquals(List.of("create compacted"), replay(path));
+    assertEquals(List.of("create compacted"), replay(path));
+  }
+
+  @Test
+  public void testConcurrentAppendsShareForces() throws Exception {
+    Path path = dir.resolve("videos.journal");
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try (Journal journal = Journal.open(path, Journal.Durability.PER_BATCH, new Recorder())) {
+      List<Future<?>> writers = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        int writer = t;
+        writers.add(pool.submit(() -> {
+          for (int i = 0; i < 250; i++)
+            journal.addToPlaylist("playlist_" + writer, "video_" + i);
+        }));
+      }
+      for (Future<?> future : writers)
+        future.get();
+    } finally {
+      pool.shutdown();
+    }
+
+    List<String> changes = replay(path);
+    assertEquals(1000, changes.size());
+    for (int t = 0; t < 4; t++) {
+      String prefix = "add playlist_" + t + " ";
+      List<String> own = new ArrayList<>();
+      for (String change : changes) {
+        if (change.startsWith(prefix))
+          own.add(change.substring(prefix.length()));
+      }
+      assertEquals(250, own.size());
+      for (int i = 0; i < 250; i++)
+        assertEquals("video_" + i, own.get(i));
+    }
+  }
+
+  @Test
+  public void testCloseReleasesWaitingAppenders() throws Exception {
+    Path path = dir.resolve("videos.journal");
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    Journal journal = Journal.open(path, Journal.Durability.PER_BATCH, new Recorder());
+    List<Future<Integer>> writers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int writer = t;
+      writers.add(pool.submit(() -> {
+        int appended = 0;
+        try {
+          for (int i = 0; i < 100_000; i++) {
+            journal.addToPlaylist("playlist_" + writer, "video_" + i);
+            appended++;
+          }
+        } catch (IllegalStateException e) {
+          // closed before this append started, nothing was written for it
+        }
+        return appended;
+      }));
+    }
+    Thread.sleep(50);
+    journal.close();
+    int acknowledged = 0;
+    try {
+      // an append the close forced must not be reported as failed
+      for (Future<Integer> future : writers)
+        acknowledged += future.get();
+    } finally {
+      pool.shutdown();
+    }
+
+    assertTrue(replay(path).size() >= acknowledged);
+  }
+
+  @Test
+  public void testVideoPlayerRestoresPlaylistsAndFlags() throws IOException {
+    Path path = dir.resolve("videos.journal");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputSink out = new StreamSink(output);
+    VideoPlayer player = new VideoPlayer(new SharedState(new VideoLibrary()), out, VideoPlayer.CONSOLE);
+    player.openJournal(path, Journal.Durability.PER_OP);
+    player.createPlaylist("my_PLAYlist");
+    player.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    player.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    player.removeFromPlaylist("MY_playlist", "life_at_google_video_id");
+    player.createPlaylist("deleted");
+    player.deletePlaylist("deleted");
+    player.flagVideo("funny_dogs_video_id", "dont_like_dogs");
+    player.flagVideo("another_cat_video_id");
+    player.allowVideo("another_cat_video_id");
+    player.closeJournal();
+
+    VideoPlayer restored = new VideoPlayer(new SharedState(new VideoLibrary()), out, VideoPlayer.CONSOLE);
+    restored.openJournal(path, Journal.Durability.PER_OP);
+    output.reset();
+    restored.showAllPlaylists();
+    restored.showPlaylist("my_playlist");
+    restored.playVideo("funny_dogs_video_id");
+    restored.playVideo("another_cat_video_id");
+    restored.closeJournal();
+
+    String[] lines = output.toString().split("\\r?\\n");
+    assertEquals(6, lines.length, output.toString());
+    assertEquals("Showing all playlists:", lines[0]);
+    assertEquals("my_PLAYlist", lines[1]);
+    assertEquals("Showing playlist: my_playlist", lines[2]);
+    assertThat(lines[3], containsString("Amazing Cats (amazing_cats_video_id)"));
+    assertThat(lines[4], containsString("Cannot play video: Video is currently flagged (reason: dont_like_dogs)"));
+    assertThat(lines[5], containsString("Playing video: Another Cat Video"));
+  }
+
+  @Test
+  public void testFailedJournalRefusesChanges() throws Exception {
+    Path path = dir.resolve("videos.journal");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SharedState shared = new SharedState(new VideoLibrary());
+    VideoPlayer player = new VideoPlayer(shared, new StreamSink(output), VideoPlayer.CONSOLE);
+    player.openJournal(path, Journal.Durability.PER_OP);
+    player.createPlaylist("my_playlist");
+    // the journal's file goes away under it, every write from now on fails
+    Field journalField = SharedState.class.getDeclaredField("journal");
+    journalField.setAccessible(true);
+    Field channelField = Journal.class.getDeclaredField("channel");
+    channelField.setAccessible(true);
+    ((FileChannel) channelField.get(journalField.get(shared))).close();
+    output.reset();
+
+    player.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    player.flagVideo("funny_dogs_video_id", "dont_like_dogs");
+    player.createPlaylist("another");
+    player.deletePlaylist("my_playlist");
+    player.showAllPlaylists();
+    player.showPlaylist("my_playlist");
+    player.playVideo("funny_dogs_video_id");
+
+    String[] lines = output.toString().split("\\r?\\n");
+    assertEquals(9, lines.length, output.toString());
+    assertEquals("Cannot add video to my_playlist: Couldn't write the journal", lines[0]);
+    assertEquals("Cannot flag video: Couldn't write the journal", lines[1]);
+    assertEquals("Cannot create playlist: Couldn't write the journal", lines[2]);
+    assertEquals("Cannot delete playlist my_playlist: Couldn't write the journal", lines[3]);
+    assertEquals("Showing all playlists:", lines[4]);
+    assertEquals("my_playlist", lines[5]);
+    assertEquals("No videos here yet", lines[7]);
+    assertEquals("Playing video: Funny Dogs", lines[8]);
+  }
+
+  @Test
+  public void testConcurrentPlaylistChangesReplayToTheSameState() throws Exception {
+    Path path = dir.resolve("videos.journal");
+    String[] ids = {"amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+        "life_at_google_video_id", "nothing_video_id"};
+    SharedState shared = new SharedState(new VideoLibrary());
+    // small enough that playlist changes leave the compaction to a later change that runs alone
+    System.setProperty(Journal.COMPACT_EVERY_PROPERTY, "100");
+    try {
+      shared.openJournal(path, Journal.Durability.ASYNC);
+    } finally {
+      System.clearProperty(Journal.COMPACT_EVERY_PROPERTY);
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<?>> sessions = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int session = t;
+      sessions.add(pool.submit(() -> {
+        VideoPlayer player = new VideoPlayer(shared, OutputSink.DISCARD, () -> null);
+        for (int i = 0; i < 500; i++) {
+          String own = "own_" + session;
+          player.createPlaylist(own);
+          player.createPlaylist("shared");
+          player.addVideoToPlaylist(own, ids[i % ids.length]);
+          player.addVideoToPlaylist("shared", ids[(i + session) % ids.length]);
+          player.removeFromPlaylist("shared", ids[(i + 2) % ids.length]);
+          if (i % 7 == session)
+            player.deletePlaylist("shared");
+          if (i % 11 == session)
+            player.clearPlaylist(own);
+        }
+      }));
+    }
+    for (Future<?> future : sessions)
+      future.get();
+    pool.shutdown();
+    shared.closeJournal();
+    assertTrue(Files.exists(Journal.snapshotFor(path)));
+
+    SharedState restored = new SharedState(new VideoLibrary());
+    restored.openJournal(path, Journal.Durability.PER_OP);
+    restored.closeJournal();
+    assertEquals(describe(shared.getPlaylistLibrary()), describe(restored.getPlaylistLibrary()));
+  }
+
+  private static List<String> describe(PlaylistLibrary library) {
+    List<String> playlists = new ArrayList<>();
+    for (Playlist pl : library.getPlaylists())
+      playlists.add(pl.getPlaylistName() + " " + Arrays.toString(pl.getVideoOrdinals()));
+    return playlists;
+  }
+}
@@ -0,0 +1,99 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LazyVideoTest {
+
+  @TempDir
+  Path dir;
+
+  private Path catalogWithSnapshot() throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.write(catalog, List.of(
+        "Amazing Cats | amazing_cats_video_id | #cat , #animal",
+        "Funny Dogs | funny_dogs_video_id | #dog , #animal",
+        "Video about nothing | nothing_video_id |"), StandardCharsets.UTF_8);
+    new VideoLibrary(catalog, 1, true);
+    return catalog;
+  }
+
+  @Test
+  public void testTagsAreDecodedOnFirstUse() throws IOException {
+    VideoLibrary library = new VideoLibrary(catalogWithSnapshot(), 1, true, true);
+    Video cats = library.getVideo("amazing_cats_video_id");
+
+    assertTrue(cats instanceof LazyVideo);
+    assertEquals(List.of("#cat", "#animal"), cats.getTags());
+    assertEquals("Amazing Cats (amazing_cats_video_id) [#cat #animal]", cats.toString());
+    assertEquals(List.of(), library.getVideo("nothing_video_id").getTags());
+    assertEquals(2, library.searchVideosWithTag("#ANIMAL").size());
+    assertEquals("Funny Dogs", library.searchVideosWithTag("dog").get(0).getTitle());
+  }
+
+  @Test
+  public void testCacheBoundsDecodes() throws IOException {
+    Path catalog = catalogWithSnapshot();
+    CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.pathFor(catalog), catalog);
+    LazyVideo.Source cached = new LazyVideo.Source(snapshot, 1);
+    LazyVideo.Source uncached = new LazyVideo.Source(snapshot, 0);
+    Video first = snapshot.lazyVideo(0, cached);
+    Video second = snapshot.lazyVideo(1, cached);
+    Video third = snapshot.lazyVideo(0, uncached);
+
+    for (int i = 0; i < 3; i++) {
+      first.getTags();
+      third.getTags();
+    }
+    assertEquals(1, cached.getDecoded());
+    assertEquals(3, uncached.getDecoded());
+    second.getTags();
+    first.getTags();
+    assertEquals(3, cached.getDecoded());
+  }
+
+  @Test
+  public void testConcurrentReadersSeeTheirOwnRecord() throws Exception {
+    Path catalog = catalogWithSnapshot();
+    CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.pathFor(catalog), catalog);
+    // one slot shared by all three records, every read evicts another record's tags
+    LazyVideo.Source source = new LazyVideo.Source(snapshot, 1);
+    List<List<String>> expected = List.of(List.of("#cat", "#animal"), List.of("#dog", "#animal"), List.of());
+    Thread[] readers = new Thread[3];
+    AtomicInteger mismatches = new AtomicInteger();
+    for (int t = 0; t < readers.length; t++) {
+      int record = t;
+      Video video = snapshot.lazyVideo(record, source);
+      readers[t] = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          if (!expected.get(record).equals(video.getTags()))
+            mismatches.incrementAndGet();
+        }
+      });
+      readers[t].start();
+    }
+    for (Thread reader : readers)
+      reader.join();
+    assertEquals(0, mismatches.get());
+  }
+
+  @Test
+  public void testUpdatedVideoKeepsItsNewTags() throws IOException {
+    VideoLibrary library = new VideoLibrary(catalogWithSnapshot(), 1, true, true);
+    CatalogDelta delta = new CatalogDelta();
+    delta.changed.add(new Video("Funny Dogs", "funny_dogs_video_id", List.of("#puppy")));
+    library.apply(delta);
+
+    assertEquals(List.of("#puppy"), library.getVideo("funny_dogs_video_id").getTags());
+    assertEquals(1, library.searchVideosWithTag("#puppy").size());
+  }
+}
@@ -0,0 +1,62 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class NgramIndexTest {
+
+  /** The regex based check the search used before the index. */
+  private static int[] regexSearch(List<String> texts, String query) {
+    Pattern pattern = Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE);
+    return IntStream.range(0, texts.size())
+        .filter(i -> texts.get(i) != null && pattern.matcher(texts.get(i)).find())
+        .toArray();
+  }
+
+  @Test
+  public void testMatchesRegexSearch() {
+    Random random = new Random(42);
+    String alphabet = "aAbBcC ";
+    List<String> texts = new ArrayList<>();
+    NgramIndex index = new NgramIndex();
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; j--)
+        text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      texts.add(text.toString());
+      index.add(i, text.toString());
+    }
+    for (int i = 0; i < 2000; i += 3) {
+      index.remove(i);
+      texts.set(i, null);
+    }
+    for (String query : new String[] {"", "a", "Ab", "abc", "ABCA", "aaaa", "b cB", "zzz", "cc cc"})
+      assertArrayEquals(regexSearch(texts, query), index.search(query), query);
+  }
+
+  @Test
+  public void testOnlyAsciiLettersAreFolded() {
+    NgramIndex index = new NgramIndex();
+    index.add(0, "Life at Google");
+    index.add(1, "\u00c9T\u00c9 at the beach");
+    assertArrayEquals(new int[] {0}, index.search("GOOGLE"));
+    assertArrayEquals(new int[] {1}, index.search("\u00c9t\u00c9"));
+    assertArrayEquals(new int[0], index.search("\u00e9t\u00e9"));
+  }
+
+  @Test
+  public void testReAddAfterRemove() {
+    NgramIndex index = new NgramIndex();
+    index.add(0, "Amazing Cats");
+    index.remove(0);
+    index.add(0, "Funny Dogs");
+    assertArrayEquals(new int[0], index.search("cat"));
+    assertArrayEquals(new int[] {0}, index.search("dog"));
+  }
+}
@@ -0,0 +1,207 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OffHeapVideoLibraryTest {
+
+  @TempDir
+  Path dir;
+
+  private Path catalog(String... lines) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.write(catalog, List.of(lines), StandardCharsets.UTF_8);
+    return catalog;
+  }
+
+  private static List<String> describe(List<Video> videos) {
+    List<String> described = new ArrayList<>();
+    for (Video video : videos)
+      described.add(video.toString());
+    return described;
+  }
+
+  @Test
+  public void testMatchesHeapLibrary() throws IOException {
+    Path catalog = catalog(
+        "Amazing Cats | amazing_cats_video_id | #cat , #animal",
+        "Another Cat Video | another_cat_video_id | #cat , #animal",
+        "Funny Dogs | funny_dogs_video_id | #dog , #animal",
+        "Life at Google | life_at_google_video_id | #google , #career",
+        "Video about nothing | nothing_video_id |",
+        "Same | b_id |",
+        "Same | a_id | #same",
+        "\u00c9clair \ud83c\udf70 | cake_id | #food",
+        "\uff21 wide title | wide_id |");
+    VideoLibrary heap = new VideoLibrary(catalog, 1, false);
+    OffHeapVideoLibrary offHeap = new OffHeapVideoLibrary(catalog, false);
+
+    assertEquals(heap.size(), offHeap.size());
+    assertEquals(describe(heap.getVideosSorted(0, 100)), describe(offHeap.getVideosSorted(0, 100)));
+    assertEquals(describe(heap.getVideosSorted(2, 3)), describe(offHeap.getVideosSorted(2, 3)));
+    assertEquals(describe(heap.searchVideos("cat")), describe(offHeap.searchVideos("CAT")));
+    assertEquals(describe(heap.searchVideosWithTag("#anim")), describe(offHeap.searchVideosWithTag("#anim")));
+    assertEquals("Funny Dogs", offHeap.getVideo("funny_dogs_video_id").getTitle());
+    assertEquals("cake_id", offHeap.getVideoByTitle("\u00c9clair \ud83c\udf70").getVideoId());
+    assertEquals(List.of("#same"), offHeap.getVideoByTitle("Same").getTags());
+    assertNull(offHeap.getVideo("missing_id"));
+    assertNull(offHeap.getVideoByTitle("Missing"));
+    assertNull(offHeap.getVideo(offHeap.size()));
+  }
+
+  @Test
+  public void testIndexedSearchesMatchHeapLibrary() throws IOException {
+    String[] words = {"Cat", "cattle", "Dog", "dogma", "aaaa", "Banana", "ban", "\u00e9clair", "\u732b\u732b", "x"};
+    String[] lines = new String[400];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = words[i % words.length] + " " + words[(i / 7) % words.length] + " " + i + " | id_" + i + " | #"
+          + words[(i / 3) % words.length] + " , #tag" + (i % 13);
+    }
+    Path catalog = catalog(lines);
+    VideoLibrary heap = new VideoLibrary(catalog, 1, false);
+    OffHeapVideoLibrary offHeap = new OffHeapVideoLibrary(catalog, false);
+    for (int i = 0; i < lines.length; i += 9) {
+      heap.flagVideo(heap.getVideo("id_" + i), "");
+      offHeap.flagVideo(offHeap.getVideo("id_" + i), "");
+    }
+
+    for (String term : List.of("cat", "CAT", "at", "a", "", "aaa", "aaaa", "aaaaa", "na ba", "banana dog", "ana",
+        "\u00e9c", "\u732b", "\u732b\u732b", "12", "123", " 1", "missing", "g 3")) {
+      assertEquals(describe(heap.searchVideos(term)), describe(offHeap.searchVideos(term)), term);
+      assertEquals(describe(heap.searchVideosWithTag(term)), describe(offHeap.searchVideosWithTag(term)), term);
+    }
+    for (int i = 0; i < lines.length; i++)
+      assertEquals(i, offHeap.getVideo("id_" + i).getOrdinal());
+    assertEquals("id_2", offHeap.getVideoByTitle("Dog Cat 2").getVideoId());
+    assertNull(offHeap.getVideoByTitle("Dog Cat"));
+  }
+
+  @Test
+  public void testLaterLineReplacesVideoWithSameId() throws IOException {
+    Path catalog = catalog("Old | same_id | #old", "Other | other_id |", "New | same_id | #new");
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog, false);
+
+    assertEquals(2, library.size());
+    Video video = library.getVideo("same_id");
+    assertEquals("New", video.getTitle());
+    assertEquals(0, video.getOrdinal());
+    assertNull(library.getVideoByTitle("Old"));
+    assertEquals(video, library.getVideoByTitle("New"));
+  }
+
+  @Test
+  public void testFlagsLiveOffHeap() throws IOException {
+    Path catalog = catalog("A | a_id |", "B | b_id |", "C | c_id |");
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog, false);
+    library.seedRandom(7);
+
+    library.flagVideo(library.getVideo("a_id"), "spam");
+    library.flagVideo(library.getVideo("c_id"), "dull");
+    Video a = library.getVideo("a_id");
+    assertTrue(a.getFlagInfo());
+    assertEquals("spam", a.getFlagReason());
+    assertEquals(List.of(), library.searchVideos("a"));
+    for (int i = 0; i < 100; i++)
+      assertEquals("b_id", library.getRandomUnflaggedVideo().getVideoId());
+
+    library.flagVideo(library.getVideo("b_id"), "also");
+    assertNull(library.getRandomUnflaggedVideo());
+    library.allowVideo(library.getVideo("a_id"));
+    assertEquals(1, library.searchVideos("a").size());
+    assertNull(library.getVideo("a_id").getFlagReason());
+  }
+
+  @Test
+  public void testFlyweightsOfOneVideoShareItsFlag() throws IOException {
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog("A | a_id |", "B | b_id |"), false);
+    Video first = library.getVideo("a_id");
+    Video second = library.getVideo("a_id");
+
+    assertTrue(library.flagVideo(first, "spam"));
+    assertFalse(library.flagVideo(second, "other"));
+    assertEquals("spam", library.getVideo("a_id").getFlagReason());
+    assertTrue(library.allowVideo(second));
+    assertFalse(library.allowVideo(first));
+    assertEquals(List.of(), library.getFlaggedVideos());
+  }
+
+  @Test
+  public void testRandomVideoFromMostlyFlaggedCatalog() throws IOException {
+    String[] lines = new String[200];
+    for (int i = 0; i < lines.length; i++)
+      lines[i] = "Video " + i + " | id_" + i + " |";
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog(lines), false);
+    library.seedRandom(3);
+    for (int i = 0; i < lines.length; i++) {
+      if (i != 17 && i != 130)
+        library.flagVideo(library.getVideo(i), "");
+    }
+
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < 200; i++)
+      seen.add(library.getRandomUnflaggedVideo().getVideoId());
+    assertEquals(Set.of("id_17", "id_130"), seen);
+  }
+
+  @Test
+  public void testReadsSnapshot() throws IOException {
+    Path catalog = catalog("A | a_id | #x", "B | b_id | #y");
+    new VideoLibrary(catalog, 1, true);
+    assertTrue(Files.exists(CatalogSnapshot.pathFor(catalog)));
+
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog, true);
+    assertEquals(2, library.size());
+    assertNotNull(library.getVideoByTitle("B"));
+    assertEquals(List.of("#y"), library.getVideo("b_id").getTags());
+    assertThrows(IOException.class, new SharedState(library)::watchCatalog);
+  }
+
+  @Test
+  public void testWritesSnapshotWhileStreamingText() throws IOException {
+    String[] lines = new String[100];
+    for (int i = 0; i < lines.length; i++)
+      lines[i] = "Video " + (i % 10) + " | id_" + i + " | #tag" + (i % 7);
+    Path catalog = catalog(lines);
+    OffHeapVideoLibrary library = new OffHeapVideoLibrary(catalog, true);
+    assertNotNull(CatalogSnapshot.open(CatalogSnapshot.pathFor(catalog), catalog));
+
+    VideoLibrary mapped = new VideoLibrary(catalog, 1, true);
+    assertEquals(describe(library.getVideosSorted(0, 100)), describe(mapped.getVideosSorted(0, 100)));
+    for (int i = 0; i < lines.length; i++)
+      assertEquals(i, mapped.getVideo("id_" + i).getOrdinal());
+    assertEquals(library.getVideoByTitle("Video 3").getVideoId(), mapped.getVideoByTitle("Video 3").getVideoId());
+  }
+
+  @Test
+  public void testRegionCrossesPages() {
+    OffHeapRegion region = new OffHeapRegion(6);
+    long[] addresses = new long[40];
+    for (int i = 0; i < addresses.length; i++)
+      addresses[i] = region.append(("string " + i).getBytes(StandardCharsets.UTF_8));
+    for (int i = 0; i < addresses.length; i++) {
+      byte[] expected = ("string " + i).getBytes(StandardCharsets.UTF_8);
+      assertArrayEquals(expected, region.get(addresses[i], expected.length));
+      assertTrue(addresses[i] >>> 6 == (addresses[i] + expected.length - 1) >>> 6);
+    }
+    region.ensureCapacity(1000);
+    region.putLong(992, 42);
+    assertEquals(42, region.getLong(992));
+    assertEquals(0, region.getInt(512));
+  }
+}
@@ -0,0 +1,97 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class OutputSinkTest {
+
+  @Test
+  public void testEncodesUtf8LikeTheJdk() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    // ASCII, two, three and four byte characters, and half a surrogate pair
+    String text = "Cats caf\u00e9 \u732b \ud83d\udc31 \ud83d!";
+    new StreamSink(output).print(text).flush();
+
+    assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), output.toByteArray());
+  }
+
+  @Test
+  public void testPrintsNumbersAsDigits() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputSink sink = new StreamSink(output);
+    for (long value : new long[] {0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE})
+      sink.print(value).print(' ');
+    sink.print((CharSequence) null).flush();
+
+    assertEquals("0 7 -7 10 1234567890123 9223372036854775807 -9223372036854775808 null", output.toString());
+  }
+
+  @Test
+  public void testBufferedSinkWritesOnlyFullChunksUntilFlushed() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputSink sink = new StreamSink(output, 32);
+    for (int i = 0; i < 10; i++)
+      sink.println("0123456789");
+    assertEquals(96, output.size());
+
+    sink.flush();
+    assertEquals(110, output.size());
+  }
+
+  @Test
+  public void testLineSinkWritesEveryLine() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputSink sink = new StreamSink(output);
+    sink.print("Playing video: ");
+    assertEquals(0, output.size());
+
+    sink.println("Amazing Cats");
+    assertEquals("Playing video: Amazing Cats\n", output.toString());
+  }
+
+  @Test
+  public void testChannelSinkHandsOverChunksItDoesNotReuse() {
+    List<ByteBuffer> chunks = new ArrayList<>();
+    OutputSink sink = new ChannelSink(chunks::add);
+    sink.println("first").flush();
+    sink.println("second").flush();
+    sink.flush();
+
+    assertEquals(2, chunks.size());
+    assertEquals("first\n", StandardCharsets.UTF_8.decode(chunks.get(0)).toString());
+    assertEquals("second\n", StandardCharsets.UTF_8.decode(chunks.get(1)).toString());
+
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100_000; i++)
+      large.append((char) ('a' + i % 26));
+    sink.print(large).flush();
+    int total = 0;
+    for (ByteBuffer chunk : chunks.subList(2, chunks.size()))
+      total += chunk.remaining();
+    assertEquals(4, chunks.size());
+    assertEquals(100_000, total);
+  }
+
+  @Test
+  public void testVideoDescribesItselfLikeToString() {
+    VideoLibrary library = new VideoLibrary();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputSink sink = new StreamSink(output, 1 << 16);
+    StringBuilder expected = new StringBuilder();
+    library.flagVideo(library.getVideo("funny_dogs_video_id"), "dont_like_dogs");
+    for (Video video : library.getVideos()) {
+      video.describeTo(sink).println();
+      expected.append(video).append('\n');
+    }
+    sink.flush();
+
+    assertEquals(expected.toString(), output.toString(StandardCharsets.UTF_8));
+  }
+}
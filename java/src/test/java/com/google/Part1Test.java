@@ -41,6 +41,30 @@ public class Part1Test extends TestBase {
         containsString("Video about nothing (nothing_video_id) []"));
   }
 
+  @Test
+  public void testShowAllVideosPage() {
+    videoPlayer.showAllVideos(1, 2);
+
+    String[] lines = getOutputLines();
+    assertEquals(4, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here's a list of all available videos:"));
+    assertThat(lines[1],
+        containsString("Another Cat Video (another_cat_video_id) [#cat #animal]"));
+    assertThat(lines[2],
+        containsString("Funny Dogs (funny_dogs_video_id) [#dog #animal]"));
+    assertThat(lines[3], containsString("More videos available: SHOW_ALL_VIDEOS 3 2"));
+  }
+
+  @Test
+  public void testShowAllVideosLastPage() {
+    videoPlayer.showAllVideos(4, 2);
+
+    String[] lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[1],
+        containsString("Video about nothing (nothing_video_id) []"));
+  }
+
   @Test
   public void testPlayVideo() {
     videoPlayer.playVideo("amazing_cats_video_id");
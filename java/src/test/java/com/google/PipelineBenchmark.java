@@ -0,0 +1,103 @@
+package com.google;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints how fast one client builds a playlist over a {@link PlayerServer}
+ * on localhost, sending ADD_TO_PLAYLIST lock-step, waiting for every answer,
+ * and pipelined, sending the next commands before the answers arrive. Run
+ * with the number of videos to add and the pipelining window, 20000 and 1000
+ * by default:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.google.PipelineBenchmark 20000 1000
+ * </pre>
+ */
+public class PipelineBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int videos = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int window = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    Path dir = Files.createTempDirectory("pipeline");
+    Path catalog = dir.resolve("videos.txt");
+    List<String> lines = new ArrayList<>(videos);
+    for (int i = 0; i < videos; i++)
+      lines.add("Video " + i + " | video_" + i + " | #tag" + i % 100);
+    Files.write(catalog, lines, StandardCharsets.UTF_8);
+
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    try (PlayerServer server = new PlayerServer(new SharedState(new VideoLibrary(catalog, 1, false)),
+        new InetSocketAddress(loopback, 0), Runtime.getRuntime().availableProcessors()).start()) {
+      System.out.printf(Locale.ROOT, "%d ADD_TO_PLAYLIST commands per run, window %d%n", videos, window);
+      for (int round = 0; round < 3; round++) {
+        long lockStep = run(server.getPort(), "lock_step_" + round, videos, 1);
+        long pipelined = run(server.getPort(), "pipelined_" + round, videos, window);
+        System.out.printf(Locale.ROOT, "lock-step %8d commands/s   pipelined %8d commands/s   %.1fx%n", lockStep,
+            pipelined, (double) pipelined / lockStep);
+      }
+    } finally {
+      Files.deleteIfExists(catalog);
+      Files.deleteIfExists(CatalogSnapshot.pathFor(catalog));
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  /** Adds every video to a new playlist keeping up to window commands unanswered, returns commands/s. */
+  private static long run(int port, String playlist, int videos, int window) throws IOException {
+    try (SocketChannel client = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+      ByteBuffer answers = ByteBuffer.allocate(1 << 16);
+      awaitPrompts(client, answers, 1);
+      send(client, "CREATE_PLAYLIST " + playlist + "\n");
+      awaitPrompts(client, answers, 1);
+
+      long start = System.nanoTime();
+      StringBuilder batch = new StringBuilder();
+      int sent = 0;
+      int answered = 0;
+      while (answered < videos) {
+        int room = Math.min(window - (sent - answered), videos - sent);
+        if (room > 0) {
+          batch.setLength(0);
+          for (int i = 0; i < room; i++)
+            batch.append("ADD_TO_PLAYLIST ").append(playlist).append(" video_").append(sent + i).append('\n');
+          send(client, batch.toString());
+          sent += room;
+        }
+        answered += awaitPrompts(client, answers, 1);
+      }
+      return (long) (videos * 1e9 / (System.nanoTime() - start));
+    }
+  }
+
+  private static void send(SocketChannel client, String text) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining())
+      client.write(buffer);
+  }
+
+  /** Reads until at least min prompts arrived, returns how many did. */
+  private static int awaitPrompts(SocketChannel client, ByteBuffer buffer, int min) throws IOException {
+    int prompts = 0;
+    while (prompts < min) {
+      buffer.clear();
+      int read = client.read(buffer);
+      if (read < 0)
+        throw new IOException("server closed the connection");
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '>')
+          prompts++;
+      }
+    }
+    return prompts;
+  }
+}
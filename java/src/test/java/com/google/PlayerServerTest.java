@@ -0,0 +1,160 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PlayerServerTest {
+
+  private PlayerServer server;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = new PlayerServer(new SharedState(new VideoLibrary()),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2).start();
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.close();
+  }
+
+  /** A blocking client reading the server's answers up to each prompt. */
+  private final class Client implements AutoCloseable {
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+
+    Client() throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+      socket.setSoTimeout(10_000);
+      in = socket.getInputStream();
+      out = socket.getOutputStream();
+      assertEquals(PlayerServer.GREETING + "\n", readAnswer());
+    }
+
+    void send(String text) throws IOException {
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+
+    /** Returns what the server printed up to the next prompt, without the prompt. */
+    String readAnswer() throws IOException {
+      ByteArrayOutputStream answer = new ByteArrayOutputStream();
+      byte[] prompt = PlayerServer.PROMPT.getBytes(StandardCharsets.UTF_8);
+      int matched = 0;
+      while (matched < prompt.length) {
+        int b = in.read();
+        if (b < 0)
+          throw new IOException("connection closed after: " + answer);
+        answer.write(b);
+        matched = b == prompt[matched] ? matched + 1 : (b == prompt[0] ? 1 : 0);
+      }
+      String text = answer.toString(StandardCharsets.UTF_8);
+      return text.substring(0, text.length() - prompt.length);
+    }
+
+    String ask(String command) throws IOException {
+      send(command + "\n");
+      return readAnswer();
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testConnectionsAreSessions() throws IOException {
+    try (Client one = new Client(); Client two = new Client()) {
+      assertEquals("Playing video: Amazing Cats\n", one.ask("PLAY amazing_cats_video_id"));
+      assertEquals("Playing video: Funny Dogs\n", two.ask("PLAY funny_dogs_video_id"));
+      assertThat(one.ask("SHOW_PLAYING"), containsString("Currently playing: Amazing Cats"));
+
+      assertEquals("Successfully created new playlist: shared\n", one.ask("CREATE_PLAYLIST shared"));
+      assertEquals("Added video to shared: Funny Dogs\n", two.ask("ADD_TO_PLAYLIST shared funny_dogs_video_id"));
+      assertThat(one.ask("SHOW_PLAYLIST shared"), containsString("Funny Dogs (funny_dogs_video_id)"));
+      assertEquals(2, server.getConnections());
+    }
+  }
+
+  @Test
+  public void testLinesMaySpanReadsAndShareThem() throws IOException {
+    try (Client client = new Client()) {
+      client.send("NUMBER_OF");
+      client.send("_VIDEOS\r\nSEARCH_VIDEOS cat\r\n2\nSHOW_");
+      client.send("PLAYING\n");
+
+      assertEquals("5 videos in the library\n", client.readAnswer());
+      assertThat(client.readAnswer(), containsString("1) Amazing Cats"));
+      assertEquals("Playing video: Another Cat Video\n", client.readAnswer());
+      assertThat(client.readAnswer(), containsString("Currently playing: Another Cat Video"));
+    }
+  }
+
+  @Test
+  public void testPipelinedLinesRunInOrder() throws IOException {
+    String[] ids = {"amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+        "life_at_google_video_id", "nothing_video_id"};
+    try (Client client = new Client()) {
+      StringBuilder batch = new StringBuilder("CREATE_PLAYLIST bulk\n");
+      for (int i = 0; i < 200; i++)
+        batch.append(i % 2 == 0 ? "ADD_TO_PLAYLIST bulk " : "REMOVE_FROM_PLAYLIST bulk ").append(ids[i / 2 % 5])
+            .append('\n');
+      batch.append("ADD_TO_PLAYLIST bulk funny_dogs_video_id\nSHOW_PLAYLIST bulk\n");
+      client.send(batch.toString());
+
+      assertEquals("Successfully created new playlist: bulk\n", client.readAnswer());
+      for (int i = 0; i < 200; i++)
+        assertThat(client.readAnswer(), containsString(i % 2 == 0 ? "Added video to bulk" : "Removed video from bulk"));
+      assertEquals("Added video to bulk: Funny Dogs\n", client.readAnswer());
+      assertEquals("Showing playlist: bulk\nFunny Dogs (funny_dogs_video_id) [#dog #animal]\n", client.readAnswer());
+    }
+  }
+
+  @Test
+  public void testExitClosesTheConnection() throws IOException, InterruptedException {
+    try (Client client = new Client()) {
+      client.send("EXIT\n");
+      String rest = new String(client.in.readAllBytes(), StandardCharsets.UTF_8);
+      assertEquals("YouTube has now terminated its execution. Thank you and goodbye!\n", rest);
+    }
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (server.getConnections() > 0 && System.currentTimeMillis() < deadline)
+      Thread.sleep(1);
+    assertEquals(0, server.getConnections());
+  }
+
+  @Test
+  public void testServesManyConnectionsAtOnce() throws IOException {
+    List<Client> clients = new ArrayList<>();
+    try {
+      for (int i = 0; i < 500; i++)
+        clients.add(new Client());
+      for (Client client : clients)
+        client.send("NUMBER_OF_VIDEOS\n");
+      for (Client client : clients)
+        assertEquals("5 videos in the library\n", client.readAnswer());
+      assertTrue(server.getConnections() >= 500);
+    } finally {
+      for (Client client : clients)
+        client.close();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prints how many playlist changes per second 1, 2, 4 and 8 threads get,
+ * each thread a session adding and removing videos. Three runs per thread
+ * count: every change run alone through SharedState.write as before
+ * playlists had their own locks, each session on its own playlist, and every session on
+ * one shared playlist. Run with the seconds per measurement, 1 by default:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.google.PlaylistContentionBenchmark 1
+ * </pre>
+ */
+public class PlaylistContentionBenchmark {
+
+  private static final String[] IDS = {"amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+      "life_at_google_video_id", "nothing_video_id"};
+
+  private enum Mode {
+    GLOBAL_LOCK, OWN_PLAYLIST, SHARED_PLAYLIST
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+
+    System.out.printf(Locale.ROOT, "%d cores%n", Runtime.getRuntime().availableProcessors());
+    System.out.println("threads   global lock/s   own playlist/s   shared playlist/s");
+    for (Mode mode : Mode.values())
+      run(1, mode, seconds);
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      long global = run(threads, Mode.GLOBAL_LOCK, seconds);
+      long own = run(threads, Mode.OWN_PLAYLIST, seconds);
+      long one = run(threads, Mode.SHARED_PLAYLIST, seconds);
+      System.out.printf(Locale.ROOT, "%7d %15d %16d %19d%n", threads, global, own, one);
+    }
+  }
+
+  /** Returns the changes per second of all threads together. */
+  private static long run(int threads, Mode mode, double seconds) throws InterruptedException {
+    SharedState shared = new SharedState(new VideoLibrary());
+    AtomicBoolean done = new AtomicBoolean();
+    LongAdder changes = new LongAdder();
+    List<Thread> running = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      VideoPlayer player = new VideoPlayer(shared, OutputSink.DISCARD, () -> null);
+      String name = mode == Mode.SHARED_PLAYLIST ? "shared" : "playlist_" + t;
+      player.createPlaylist(name);
+      running.add(new Thread(() -> {
+        long count = 0;
+        for (int i = 0; !done.get(); i++) {
+          String id = IDS[i % IDS.length];
+          if (mode == Mode.GLOBAL_LOCK) {
+            shared.write(() -> {
+              player.addVideoToPlaylist(name, id);
+              player.removeFromPlaylist(name, id);
+            });
+          } else {
+            player.addVideoToPlaylist(name, id);
+            player.removeFromPlaylist(name, id);
+          }
+          count += 2;
+        }
+        changes.add(count);
+      }));
+    }
+    for (Thread thread : running)
+      thread.start();
+    Thread.sleep((long) (seconds * 1000));
+    done.set(true);
+    for (Thread thread : running)
+      thread.join();
+    return (long) (changes.sum() / seconds);
+  }
+}
@@ -0,0 +1,145 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class PlaylistLibraryTest {
+
+  @Test
+  public void testNamesAreUniqueIgnoringCase() {
+    PlaylistLibrary library = new PlaylistLibrary();
+    Playlist playlist = new Playlist("My_Playlist");
+
+    assertTrue(library.addToLibrary(playlist));
+    assertFalse(library.addToLibrary(new Playlist("my_PLAYLIST")));
+    assertSame(playlist, library.getPlaylist("MY_playlist"));
+    assertEquals(List.of("My_Playlist"), new ArrayList<>(library.getPlaylistNames()));
+    assertSame(playlist, library.removeFromLibrary("my_playlist"));
+    assertNull(library.getPlaylist("My_Playlist"));
+    assertTrue(library.isEmpty());
+  }
+
+  @Test
+  public void testNamesStaySorted() {
+    PlaylistLibrary library = new PlaylistLibrary();
+    for (String name : List.of("b", "C", "a", "B2", "c1"))
+      library.addToLibrary(new Playlist(name));
+    library.removeFromLibrary("b2");
+
+    assertEquals(List.of("C", "a", "b", "c1"), new ArrayList<>(library.getPlaylistNames()));
+    assertEquals(4, library.size());
+  }
+
+  private static Video video(int ordinal) {
+    Video video = new Video("Video " + ordinal, "id_" + ordinal, List.of());
+    video.setOrdinal(ordinal);
+    return video;
+  }
+
+  @Test
+  public void testReverseIndexFollowsEveryChange() {
+    PlaylistLibrary library = new PlaylistLibrary();
+    Playlist first = new Playlist("first");
+    Playlist second = new Playlist("second");
+    Playlist third = new Playlist("third");
+    third.addVideo(video(1));
+    library.addToLibrary(first);
+    library.addToLibrary(second);
+    library.addToLibrary(third);
+
+    first.addVideo(video(1));
+    first.addVideo(video(2));
+    second.addVideo(video(1));
+    assertEquals(List.of(first, second, third), new ArrayList<>(library.getPlaylistsContaining(video(1))));
+    assertEquals(1, library.countPlaylistsContaining(video(2)));
+
+    first.removeVideo(video(1));
+    second.clear();
+    assertEquals(List.of(third), new ArrayList<>(library.getPlaylistsContaining(video(1))));
+    library.removeFromLibrary("third");
+    assertEquals(0, library.countPlaylistsContaining(video(1)));
+    third.addVideo(video(3));
+    assertEquals(0, library.countPlaylistsContaining(video(3)));
+  }
+
+  @Test
+  public void testReverseIndexGrowsWithTheOrdinals() {
+    PlaylistLibrary library = new PlaylistLibrary();
+    Playlist playlist = new Playlist("far");
+    library.addToLibrary(playlist);
+    playlist.addVideo(video(100_000));
+    playlist.addVideo(video(3));
+
+    assertEquals(1, library.countPlaylistsContaining(video(100_000)));
+    assertEquals(1, library.countPlaylistsContaining(video(3)));
+    assertEquals(0, library.countPlaylistsContaining(video(4_000)));
+    assertEquals(0, library.countPlaylistsContaining(video(1_000_000)));
+    playlist.removeVideo(video(100_000));
+    assertTrue(library.getPlaylistsContaining(video(100_000)).isEmpty());
+  }
+
+  @Test
+  public void testPurgeRemovesVideoFromEveryPlaylist() {
+    PlaylistLibrary library = new PlaylistLibrary();
+    for (String name : List.of("a", "b", "c")) {
+      Playlist playlist = new Playlist(name);
+      library.addToLibrary(playlist);
+      playlist.addVideo(video(7));
+      playlist.addVideo(video(8));
+    }
+
+    assertEquals(3, library.purgeVideo(video(7)));
+    assertEquals(0, library.purgeVideo(video(7)));
+    for (Playlist playlist : library.getPlaylists()) {
+      assertFalse(playlist.containsVideo(video(7)));
+      assertTrue(playlist.containsVideo(video(8)));
+    }
+  }
+
+  @Test
+  public void testFoldMatchesEqualsIgnoreCase() {
+    for (String name : List.of("abc", "ABC", "\u0130stanbul", "stra\u00dfe", "\u03a3\u03c3\u03c2", "k\u212a"))
+      for (String other : List.of("abc", "aBc", "istanbul", "STRASSE", "\u03c3\u03a3\u03c3", "KK"))
+        assertEquals(name.equalsIgnoreCase(other),
+            PlaylistLibrary.fold(name).equals(PlaylistLibrary.fold(other)), name + " vs " + other);
+  }
+
+  @Test
+  public void testConcurrentChangesOfDifferentPlaylists() throws InterruptedException {
+    PlaylistLibrary library = new PlaylistLibrary();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      String name = "playlist_" + t;
+      Thread thread = new Thread(() -> {
+        for (int round = 0; round < 50; round++) {
+          Playlist playlist = new Playlist(name);
+          assertTrue(library.addToLibrary(playlist));
+          for (int ordinal = 0; ordinal < 100; ordinal++)
+            playlist.addVideo(video(ordinal));
+          for (int ordinal = 0; ordinal < 100; ordinal += 2)
+            playlist.removeVideo(video(ordinal));
+          if (round < 49)
+            assertSame(playlist, library.removeFromLibrary(name.toUpperCase()));
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    assertEquals(List.of("playlist_0", "playlist_1", "playlist_2", "playlist_3"),
+        new ArrayList<>(library.getPlaylistNames()));
+    assertEquals(0, library.countPlaylistsContaining(video(10)));
+    assertEquals(4, library.countPlaylistsContaining(video(11)));
+    assertEquals(4, library.purgeVideo(video(11)));
+    assertEquals(0, library.countPlaylistsContaining(video(11)));
+  }
+}
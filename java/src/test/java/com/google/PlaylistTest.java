@@ -0,0 +1,122 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+public class PlaylistTest {
+
+  private static Video video(int ordinal) {
+    Video video = new Video("Video " + ordinal, "id_" + ordinal, List.of());
+    video.setOrdinal(ordinal);
+    return video;
+  }
+
+  @Test
+  public void testKeepsInsertionOrderAcrossRemovals() {
+    Playlist playlist = new Playlist("my_playlist");
+    List<Integer> expected = new ArrayList<>();
+    for (int ordinal = 0; ordinal < 1000; ordinal++) {
+      assertTrue(playlist.addVideo(video(ordinal * 7 % 1000)));
+      expected.add(ordinal * 7 % 1000);
+    }
+    // removes enough videos to compact several times
+    for (int ordinal = 0; ordinal < 1000; ordinal++) {
+      if (ordinal % 10 != 3) {
+        assertTrue(playlist.removeVideo(video(ordinal)));
+        expected.remove(Integer.valueOf(ordinal));
+      }
+    }
+    playlist.addVideo(video(5));
+    expected.add(5);
+
+    assertEquals(expected.size(), playlist.size());
+    assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), playlist.getVideoOrdinals());
+    assertTrue(playlist.containsVideo(video(13)));
+    assertFalse(playlist.containsVideo(video(14)));
+  }
+
+  @Test
+  public void testAddAndRemoveReportMembership() {
+    Playlist playlist = new Playlist("my_playlist");
+
+    assertTrue(playlist.addVideo(video(1)));
+    assertFalse(playlist.addVideo(video(1)));
+    assertFalse(playlist.removeVideo(video(2)));
+    assertTrue(playlist.removeVideo(video(1)));
+    assertTrue(playlist.isEmpty());
+    assertTrue(playlist.addVideo(video(1)));
+    playlist.clear();
+    assertFalse(playlist.containsVideo(video(1)));
+    assertEquals(0, playlist.getVideoOrdinals().length);
+  }
+
+  @Test
+  public void testIntIntMapMatchesHashMap() {
+    IntIntMap map = new IntIntMap();
+    HashMap<Integer, Integer> reference = new HashMap<>();
+    SplittableRandom random = new SplittableRandom(5);
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(500);
+      if (random.nextBoolean()) {
+        Integer previous = reference.put(key, i);
+        assertEquals(previous == null ? -1 : previous, map.put(key, i));
+      } else {
+        Integer previous = reference.remove(key);
+        assertEquals(previous == null ? -1 : previous, map.remove(key));
+      }
+      assertEquals(reference.size(), map.size());
+    }
+    for (int key = 0; key < 500; key++)
+      assertEquals(reference.getOrDefault(key, -1).intValue(), map.get(key));
+  }
+
+  @Test
+  public void testSnapshotIsNotChangedByLaterChanges() {
+    Playlist playlist = new Playlist("my_playlist");
+    playlist.addVideo(video(1));
+    playlist.addVideo(video(2));
+    int[] snapshot = playlist.snapshot();
+    assertSame(snapshot, playlist.snapshot());
+
+    playlist.removeVideo(video(1));
+    playlist.addVideo(video(3));
+
+    assertArrayEquals(new int[] {1, 2}, snapshot);
+    assertArrayEquals(new int[] {2, 3}, playlist.snapshot());
+  }
+
+  @Test
+  public void testConcurrentAddsAreNotLost() throws InterruptedException {
+    Playlist playlist = new Playlist("my_playlist");
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int first = t;
+      Thread thread = new Thread(() -> {
+        for (int ordinal = first; ordinal < 20_000; ordinal += 4) {
+          playlist.addVideo(video(ordinal));
+          // readers in between must always see a complete playlist
+          int[] seen = playlist.snapshot();
+          for (int i = 1; i < seen.length; i++)
+            assertTrue(seen[i] != seen[i - 1]);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    assertEquals(20_000, playlist.size());
+    for (int ordinal = 0; ordinal < 20_000; ordinal++)
+      assertTrue(playlist.containsVideo(video(ordinal)));
+  }
+}
@@ -0,0 +1,54 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+public class RandomSamplerTest {
+
+  @Test
+  public void testSamplesOnlyMembers() {
+    RandomSampler sampler = new RandomSampler();
+    for (int slot = 0; slot < 100; slot++)
+      sampler.add(slot);
+    for (int slot = 0; slot < 100; slot += 2)
+      sampler.remove(slot);
+    sampler.add(200);
+
+    assertEquals(51, sampler.size());
+    assertFalse(sampler.contains(4));
+    SplittableRandom random = new SplittableRandom(1);
+    Set<Integer> seen = new HashSet<>();
+    for (int i = 0; i < 10000; i++) {
+      int slot = sampler.sample(random);
+      assertTrue(slot % 2 == 1 || slot == 200, "sampled " + slot);
+      seen.add(slot);
+    }
+    assertEquals(51, seen.size());
+  }
+
+  @Test
+  public void testSeededSamplesAgree() {
+    RandomSampler sampler = new RandomSampler();
+    for (int slot = 0; slot < 50; slot++)
+      sampler.add(slot);
+    SplittableRandom first = new SplittableRandom(42);
+    SplittableRandom second = new SplittableRandom(42);
+    for (int i = 0; i < 100; i++)
+      assertEquals(sampler.sample(first), sampler.sample(second));
+  }
+
+  @Test
+  public void testEmptySampler() {
+    RandomSampler sampler = new RandomSampler();
+    sampler.add(3);
+    sampler.remove(3);
+    sampler.remove(3);
+    assertEquals(-1, sampler.sample(null));
+  }
+}
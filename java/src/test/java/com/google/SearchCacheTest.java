@@ -0,0 +1,104 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SearchCacheTest {
+
+  private VideoLibrary videoLibrary;
+  private SearchCache cache;
+
+  @BeforeEach
+  public void setUp() {
+    videoLibrary = new VideoLibrary();
+    cache = videoLibrary.getSearchCache();
+  }
+
+  @Test
+  public void testRepeatedSearchIsServedFromCache() {
+    List<Video> first = videoLibrary.searchVideos("CAT");
+    List<Video> second = videoLibrary.searchVideos("cat");
+
+    assertSame(first, second);
+    assertEquals(2, first.size());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testFlagInvalidatesOnlyAffectedEntries() {
+    videoLibrary.searchVideos("cat");
+    videoLibrary.searchVideos("dog");
+    videoLibrary.searchVideosWithTag("#animal");
+    videoLibrary.searchVideosWithTag("#google");
+
+    videoLibrary.flagVideo(videoLibrary.getVideo("amazing_cats_video_id"), "dont_like_cats");
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.getInvalidations());
+    assertEquals(1, videoLibrary.searchVideos("cat").size());
+    assertEquals(2, videoLibrary.searchVideosWithTag("#animal").size());
+
+    videoLibrary.searchVideos("dog");
+    videoLibrary.searchVideosWithTag("#google");
+    assertEquals(2, cache.getHits());
+
+    videoLibrary.allowVideo(videoLibrary.getVideo("amazing_cats_video_id"));
+    assertEquals(2, videoLibrary.searchVideos("cat").size());
+    assertEquals(3, videoLibrary.searchVideosWithTag("#animal").size());
+  }
+
+  @Test
+  public void testInvalidatesTermsOfEveryLengthInTheText() {
+    SearchCache direct = new SearchCache(100);
+    Video video = videoLibrary.getVideo("funny_dogs_video_id");
+    for (String term : List.of("", "f", "fu", "fun", "funny", "unny d", "dogs", "cats", "nn", "x"))
+      direct.put(SearchCache.Kind.TITLE, term, List.of(video));
+    direct.put(SearchCache.Kind.TAG, "fun", List.of(video));
+
+    direct.invalidate(SearchCache.Kind.TITLE, List.of("funny dogs"));
+    assertEquals(8, direct.getInvalidations());
+    assertEquals(List.of(video), direct.get(SearchCache.Kind.TITLE, "cats"));
+    assertEquals(List.of(video), direct.get(SearchCache.Kind.TITLE, "x"));
+    assertEquals(List.of(video), direct.get(SearchCache.Kind.TAG, "fun"));
+    assertEquals(3, direct.size());
+
+    // an evicted entry no longer takes part in an invalidation
+    SearchCache small = new SearchCache(2);
+    small.put(SearchCache.Kind.TITLE, "dog", List.of(video));
+    small.put(SearchCache.Kind.TITLE, "cat", List.of(video));
+    small.invalidate(SearchCache.Kind.TITLE, List.of("dog"));
+    assertEquals(0, small.getInvalidations());
+    assertEquals(1, small.getEvictions());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedByWeight() {
+    SearchCache small = new SearchCache(6);
+    Video video = videoLibrary.getVideo("funny_dogs_video_id");
+    small.put(SearchCache.Kind.TITLE, "a", List.of(video, video));
+    small.put(SearchCache.Kind.TITLE, "b", List.of(video));
+    small.get(SearchCache.Kind.TITLE, "a");
+    small.put(SearchCache.Kind.TAG, "c", List.of(video));
+
+    assertNull(small.get(SearchCache.Kind.TITLE, "b"));
+    assertEquals(1, small.getEvictions());
+    assertEquals(5, small.getWeight());
+  }
+
+  @Test
+  public void testResultsComputedBeforeAnInvalidationAreNotCached() {
+    List<Video> stale = videoLibrary.searchVideos("dog");
+    cache.clear();
+    long generation = cache.generation();
+    videoLibrary.flagVideo(videoLibrary.getVideo("funny_dogs_video_id"), "Not supplied");
+
+    cache.put(SearchCache.Kind.TITLE, "dog", stale, generation);
+    assertNull(cache.get(SearchCache.Kind.TITLE, "dog"));
+    assertEquals(0, videoLibrary.searchVideos("dog").size());
+  }
+}
@@ -0,0 +1,112 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionManagerTest {
+
+  private final SharedState shared = new SharedState(new VideoLibrary());
+  private final SessionManager manager = new SessionManager(shared, 4);
+
+  @AfterEach
+  public void closeManager() {
+    manager.close();
+  }
+
+  private void awaitLines(long lines) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (manager.getLinesRun() < lines) {
+      assertTrue(System.currentTimeMillis() < deadline, "sessions did not finish");
+      Thread.sleep(1);
+    }
+  }
+
+  private static String[] lines(ByteArrayOutputStream output) {
+    return output.toString().split("\\r?\\n");
+  }
+
+  @Test
+  public void testSessionsKeepTheirOwnPlayback() throws InterruptedException {
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    SessionManager.Session one = manager.open(new StreamSink(first));
+    SessionManager.Session two = manager.open(new StreamSink(second));
+
+    one.submit("PLAY amazing_cats_video_id");
+    two.submit("PLAY funny_dogs_video_id");
+    one.submit("PAUSE");
+    one.submit("SHOW_PLAYING");
+    two.submit("SHOW_PLAYING");
+    awaitLines(5);
+
+    assertThat(lines(first)[2], containsString("Currently playing: Amazing Cats (amazing_cats_video_id) [#cat #animal] - PAUSED"));
+    assertThat(lines(second)[1], containsString("Currently playing: Funny Dogs (funny_dogs_video_id) [#dog #animal]"));
+  }
+
+  @Test
+  public void testSearchAnswerIsTheNextLine() throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SessionManager.Session session = manager.open(new StreamSink(output));
+
+    session.submit("SEARCH_VIDEOS cat");
+    session.submit("2");
+    session.submit("SHOW_PLAYING");
+    awaitLines(3);
+
+    String[] lines = lines(output);
+    assertEquals(7, lines.length, output.toString());
+    assertThat(lines[5], containsString("Playing video: Another Cat Video"));
+    assertThat(lines[6], containsString("Currently playing: Another Cat Video"));
+  }
+
+  @Test
+  public void testSessionsSharePlaylistsAndFlags() throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SessionManager.Session owner = manager.open(new StreamSink(output));
+    owner.submit("CREATE_PLAYLIST shared");
+    awaitLines(1);
+
+    List<SessionManager.Session> sessions = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      sessions.add(manager.open(new StreamSink(new ByteArrayOutputStream())));
+    for (SessionManager.Session session : sessions) {
+      session.submit("ADD_TO_PLAYLIST shared amazing_cats_video_id");
+      session.submit("ADD_TO_PLAYLIST shared funny_dogs_video_id");
+      session.submit("FLAG_VIDEO nothing_video_id");
+    }
+    awaitLines(301);
+    owner.submit("SHOW_PLAYLIST shared");
+    owner.submit("PLAY nothing_video_id");
+    awaitLines(303);
+
+    String[] lines = lines(output);
+    assertEquals(5, lines.length, output.toString());
+    assertThat(lines[2], containsString("Amazing Cats"));
+    assertThat(lines[3], containsString("Funny Dogs"));
+    assertThat(lines[4], containsString("Cannot play video: Video is currently flagged (reason: Not supplied)"));
+  }
+
+  @Test
+  public void testExitClosesTheSession() throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SessionManager.Session session = manager.open(new StreamSink(output));
+    assertEquals(1, manager.size());
+
+    session.submit("EXIT");
+    awaitLines(1);
+    session.submit("NUMBER_OF_VIDEOS");
+
+    assertTrue(session.isClosed());
+    assertEquals(0, manager.size());
+    assertEquals(1, lines(output).length);
+    assertThat(output.toString(), containsString("Thank you and goodbye!"));
+  }
+}
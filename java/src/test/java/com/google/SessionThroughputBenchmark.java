@@ -0,0 +1,80 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints how many commands per second a {@link SessionManager} runs for a
+ * large number of concurrent sessions, with pools of 1, 2, 4, ... threads up
+ * to the number of cores. Run with the number of sessions and the rounds of
+ * commands each session gets, 100000 and 5 by default:
+ *
+ * <pre>
+ * java -Xmx2g -cp target/classes:target/test-classes com.google.SessionThroughputBenchmark 100000 5
+ * </pre>
+ *
+ * Every round is a short viewing session: play, pause, show, search and
+ * answer, a playlist change and a random play. Output is discarded.
+ */
+public class SessionThroughputBenchmark {
+
+  private static final String[] ROUND = {"PLAY amazing_cats_video_id", "PAUSE", "SHOW_PLAYING", "CONTINUE",
+      "SEARCH_VIDEOS cat", "1", "SEARCH_VIDEOS_WITH_TAG #animal", "no", "ADD_TO_PLAYLIST shared funny_dogs_video_id",
+      "SHOW_PLAYLIST shared", "PLAY_RANDOM", "STOP"};
+
+  public static void main(String[] args) throws InterruptedException {
+    int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    System.out.printf(Locale.ROOT, "%d sessions, %d commands each, %d cores%n", sessions, rounds * ROUND.length,
+        cores);
+    System.out.println("threads   commands/s   per thread   heap/session");
+    for (int threads = 1; threads <= cores; threads *= 2) {
+      run(sessions, rounds, threads, OutputSink.DISCARD, true);
+      long[] result = run(sessions, rounds, threads, OutputSink.DISCARD, false);
+      System.out.printf(Locale.ROOT, "%7d %12d %12d %12d%n", threads, result[0], result[0] / threads, result[1]);
+      if (threads < cores && threads * 2 > cores)
+        threads = cores / 2;
+    }
+  }
+
+  /** Returns the commands per second and the heap bytes per open session. */
+  private static long[] run(int sessions, int rounds, int threads, OutputSink out, boolean warmup)
+      throws InterruptedException {
+    SharedState shared = new SharedState(new VideoLibrary());
+    new VideoPlayer(shared, out, () -> null).createPlaylist("shared");
+    SessionManager manager = new SessionManager(shared, threads);
+    try {
+      int count = warmup ? Math.min(sessions, 10_000) : sessions;
+      System.gc();
+      long heapBefore = usedHeap();
+      List<SessionManager.Session> open = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+        open.add(manager.open(out));
+      System.gc();
+      long perSession = (usedHeap() - heapBefore) / count;
+
+      long total = (long) count * rounds * ROUND.length;
+      long start = System.nanoTime();
+      for (int round = 0; round < rounds; round++) {
+        for (String line : ROUND) {
+          for (SessionManager.Session session : open)
+            session.submit(line);
+        }
+      }
+      while (manager.getLinesRun() < total)
+        Thread.sleep(1);
+      long elapsed = System.nanoTime() - start;
+      return new long[] {total * 1_000_000_000L / elapsed, perSession};
+    } finally {
+      manager.close();
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,90 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Prints the memory taken by the titles and ids of a synthetic catalog in
+ * the heap layout of {@link VideoLibrary}, the raw off-heap layout and the
+ * front-coded stores. Run with the catalog size as argument, 10M by default:
+ *
+ * <pre>
+ * java -Xmx4g -cp target/classes:target/test-classes com.google.StringStoreMemoryReport 10000000
+ * </pre>
+ *
+ * Heap sizes are computed for compressed oops and compact strings: 24 bytes
+ * per String, 16 bytes of array header, 32 bytes per HashMap node and 4 per
+ * table slot.
+ */
+public class StringStoreMemoryReport {
+
+  private static final String[] ADJECTIVES = {"Amazing", "Funny", "Another", "Best", "Life at", "Learning",
+      "Cooking", "Video about", "Weekly", "Top Ten", "Epic", "Relaxing", "Daily", "Ultimate", "Classic"};
+  private static final String[] NOUNS = {"Cats", "Dogs", "Google", "Java", "Cooking", "Music", "Travel",
+      "Football", "Gardening", "Nothing", "Space", "Movies", "Chess", "Science", "Cars", "History"};
+
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    SplittableRandom random = new SplittableRandom(1);
+    String[] titles = new String[n];
+    String[] ids = new String[n];
+    for (int i = 0; i < n; i++) {
+      String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+      String noun = NOUNS[random.nextInt(NOUNS.length)];
+      titles[i] = adjective + " " + noun + " " + i;
+      ids[i] = (adjective + "_" + noun).toLowerCase().replace(' ', '_') + "_" + i + "_video_id";
+    }
+
+    long rawBytes = 0;
+    long heapStrings = 0;
+    for (int i = 0; i < n; i++) {
+      rawBytes += titles[i].length() + ids[i].length();
+      heapStrings += stringSize(titles[i]) + stringSize(ids[i]);
+    }
+    long tableSlots = Integer.highestOneBit((int) (n / 0.75f) + 1) << 1;
+    long heapMaps = 2 * (32L * n + 4 * tableSlots);
+    long indexSlots = Integer.highestOneBit(Math.max(n, 2) * 2 - 1) << 1;
+    long offHeapIndexes = 2 * 8 * indexSlots;
+
+    FrontCodedStringStore titleStore = frontCode(titles);
+    FrontCodedStringStore idStore = frontCode(ids);
+    long frontCoded = titleStore.sizeInBytes() + idStore.sizeInBytes();
+    // the id store needs the ordinal of every id rank, the title ranks reuse the sorted column
+    long rankColumn = 4L * n;
+
+    System.out.printf("videos                      %,15d%n", n);
+    System.out.printf("raw UTF-8 title + id bytes  %,15d%n", rawBytes);
+    System.out.println();
+    System.out.printf("heap: strings               %,15d%n", heapStrings);
+    System.out.printf("heap: id and title maps     %,15d%n", heapMaps);
+    System.out.printf("heap: total                 %,15d  %6.1f bytes/video%n", heapStrings + heapMaps,
+        (double) (heapStrings + heapMaps) / n);
+    System.out.printf("off-heap raw: total         %,15d  %6.1f bytes/video%n", rawBytes + offHeapIndexes,
+        (double) (rawBytes + offHeapIndexes) / n);
+    System.out.printf("front-coded: titles         %,15d%n", titleStore.sizeInBytes());
+    System.out.printf("front-coded: ids            %,15d%n", idStore.sizeInBytes());
+    System.out.printf("front-coded: total          %,15d  %6.1f bytes/video%n", frontCoded + rankColumn,
+        (double) (frontCoded + rankColumn) / n);
+    System.out.printf("saved versus heap           %14.1f%%%n",
+        100.0 * (1 - (double) (frontCoded + rankColumn) / (heapStrings + heapMaps)));
+  }
+
+  private static long stringSize(String s) {
+    return 24 + align(16 + s.getBytes(StandardCharsets.ISO_8859_1).length);
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7;
+  }
+
+  private static FrontCodedStringStore frontCode(String[] strings) {
+    Arrays.sort(strings);
+    FrontCodedStringStore.Builder builder = new FrontCodedStringStore.Builder();
+    for (int i = 0; i < strings.length; i++) {
+      builder.add(strings[i]);
+      strings[i] = null;
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,48 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TagDictionaryTest {
+
+  @Test
+  public void testInternReturnsStableIds() {
+    int cat = TagDictionary.intern("#tagdictionary-cat");
+    int dog = TagDictionary.intern("#tagdictionary-dog");
+
+    assertNotEquals(cat, dog);
+    assertEquals(cat, TagDictionary.intern(new String("#tagdictionary-cat")));
+    assertEquals(cat, TagDictionary.lookup("#tagdictionary-cat"));
+    assertEquals(-1, TagDictionary.lookup("#tagdictionary-never-seen"));
+    assertEquals("#tagdictionary-dog", TagDictionary.tag(dog));
+  }
+
+  @Test
+  public void testFoldedTagMatchesSearchFolding() {
+    int id = TagDictionary.intern("#TagDictionary-Folded");
+    assertEquals(NgramIndex.fold("#TagDictionary-Folded"), TagDictionary.folded(id));
+  }
+
+  @Test
+  public void testVideosShareTagIds() {
+    Video first = new Video("First", "first_id", List.of("#shared", "#first"));
+    Video second = new Video("Second", "second_id", List.of("#second", "#shared"));
+
+    assertEquals(first.getTagIds()[0], second.getTagIds()[1]);
+    assertEquals(List.of("#shared", "#first"), first.getTags());
+    assertThrows(UnsupportedOperationException.class, () -> first.getTags().add("#more"));
+  }
+
+  @Test
+  public void testEmptyTagIsInterned() {
+    Video video = new Video("Empty", "empty_id", List.of("#a", "", "#b"));
+    assertArrayEquals(
+        new int[] {TagDictionary.intern("#a"), TagDictionary.intern(""), TagDictionary.intern("#b")},
+        video.getTagIds());
+  }
+}
@@ -6,7 +6,6 @@ import org.junit.jupiter.api.BeforeEach;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.PrintStream;
 
 public class TestBase {
     protected final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -15,8 +14,8 @@ public class TestBase {
 
     @BeforeEach
     public void setUp() {
-      System.setOut(new PrintStream(outputStream));
-      videoPlayer = new VideoPlayer();
+      videoPlayer = new VideoPlayer(new SharedState(new VideoLibrary()), new StreamSink(outputStream),
+          VideoPlayer.CONSOLE);
       stdin = System.in;
     }
 
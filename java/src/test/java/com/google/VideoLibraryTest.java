@@ -1,11 +1,18 @@
 package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -42,4 +49,167 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testVideosWithSameTitleAreOrderedById() {
+    var first = new Video("Same", "a_id", List.of());
+    var second = new Video("Same", "b_id", List.of());
+
+    assertTrue(first.compareTo(second) < 0);
+    assertTrue(second.compareTo(first) > 0);
+    assertEquals(0, first.compareTo(first));
+  }
+
+  @Test
+  public void testSortedViewIsPaged() {
+    var page = videoLibrary.getVideosSorted(3, 10);
+
+    assertEquals(2, page.size());
+    assertEquals("Life at Google", page.get(0).getTitle());
+    assertEquals("Video about nothing", page.get(1).getTitle());
+    assertTrue(videoLibrary.getVideosSorted(5, 10).isEmpty());
+  }
+
+  @Test
+  public void testReloadMergesTitleOrder() {
+    CatalogDelta delta = new CatalogDelta();
+    delta.removed.add("funny_dogs_video_id");
+    delta.changed.add(new Video("Zebras", "amazing_cats_video_id", List.of("#cat")));
+    delta.added.add(new Video("Aardvarks", "aardvark_id", List.of()));
+    delta.added.add(new Video("Koalas", "koala_id", List.of()));
+    videoLibrary.apply(delta);
+
+    List<Video> expected = videoLibrary.getVideos();
+    expected.sort(null);
+    assertEquals(expected, videoLibrary.getVideosSorted(0, 10));
+    assertEquals("Aardvarks", videoLibrary.getVideosSorted(0, 1).get(0).getTitle());
+    assertEquals("Zebras", videoLibrary.getVideosSorted(5, 1).get(0).getTitle());
+  }
+
+  @Test
+  public void testVideosHaveDenseOrdinals() {
+    boolean[] seen = new boolean[5];
+    for (Video video : videoLibrary.getVideos()) {
+      seen[video.getOrdinal()] = true;
+      assertEquals(video, videoLibrary.getVideo(video.getOrdinal()));
+      assertEquals(video.getOrdinal(), video.hashCode());
+    }
+    for (boolean ordinalUsed : seen)
+      assertTrue(ordinalUsed);
+  }
+
+  @Test
+  public void testVideoIdentityIsTheOrdinal() {
+    var video = new Video("Amazing Cats", "amazing_cats_video_id", List.of("#cat", "#animal"));
+    assertNotEquals(videoLibrary.getVideo("amazing_cats_video_id"), video);
+
+    video.setOrdinal(videoLibrary.getVideo("amazing_cats_video_id").getOrdinal());
+    assertEquals(videoLibrary.getVideo("amazing_cats_video_id"), video);
+  }
+
+  @Test
+  public void testOnlyOneConcurrentFlagWins() throws InterruptedException {
+    Video video = videoLibrary.getVideo("funny_dogs_video_id");
+    AtomicInteger wins = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      String reason = "reason " + i;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (videoLibrary.flagVideo(video, reason))
+          wins.incrementAndGet();
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+
+    assertEquals(1, wins.get());
+    assertTrue(video.getFlagReason().startsWith("reason "));
+    assertFalse(videoLibrary.flagVideo(video, "again"));
+    assertTrue(videoLibrary.allowVideo(video));
+    assertFalse(videoLibrary.allowVideo(video));
+    assertNull(video.getFlagReason());
+  }
+
+  @Test
+  public void testReadersNeverSeeHalfAFlag() throws InterruptedException {
+    Video churned = videoLibrary.getVideo("amazing_cats_video_id");
+    for (String id : List.of("another_cat_video_id", "funny_dogs_video_id", "life_at_google_video_id"))
+      videoLibrary.flagVideo(videoLibrary.getVideo(id), "kept");
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> failure = new AtomicReference<>();
+
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 20_000; i++) {
+        videoLibrary.flagVideo(churned, "reason " + i);
+        videoLibrary.allowVideo(churned);
+      }
+      done.set(true);
+    });
+    Thread reader = new Thread(() -> {
+      while (!done.get() && failure.get() == null) {
+        Video.FlagState state = churned.getFlagState();
+        if (state.flagged != (state.reason != null))
+          failure.set("flag without its reason: " + state.reason);
+        Video random = videoLibrary.getRandomUnflaggedVideo();
+        if (random == null || random.getFlagReason() != null && random.getFlagReason().equals("kept"))
+          failure.set("random picked " + random);
+        List<Video> results = videoLibrary.searchVideos("a");
+        for (Video video : results) {
+          if ("kept".equals(video.getFlagReason()))
+            failure.set("search returned " + video);
+        }
+      }
+    });
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+
+    assertNull(failure.get());
+    assertFalse(churned.getFlagInfo());
+    assertEquals(List.of(churned, videoLibrary.getVideo("nothing_video_id")), videoLibrary.searchVideos("a"));
+  }
+
+  @Test
+  public void testFlaggedBitmapMasksTagSearches() throws InterruptedException {
+    Video dogs = videoLibrary.getVideo("funny_dogs_video_id");
+    Video cats = videoLibrary.getVideo("amazing_cats_video_id");
+    videoLibrary.flagVideo(cats, "no cats");
+    videoLibrary.flagVideo(dogs, "no dogs");
+
+    assertEquals(List.of(videoLibrary.getVideo("another_cat_video_id")), videoLibrary.searchVideosWithTag("#animal"));
+    assertEquals(List.of(dogs, cats), videoLibrary.getFlaggedVideos());
+
+    // racing flags and allows of one video leave the bitmap agreeing with its flag
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 2_000; i++) {
+          videoLibrary.allowVideo(dogs);
+          videoLibrary.flagVideo(dogs, "again");
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(List.of(dogs, cats), videoLibrary.getFlaggedVideos());
+
+    CatalogDelta delta = new CatalogDelta();
+    delta.removed.add("amazing_cats_video_id");
+    videoLibrary.apply(delta);
+    videoLibrary.allowVideo(dogs);
+    assertTrue(videoLibrary.getFlaggedVideos().isEmpty());
+    assertEquals(List.of(videoLibrary.getVideo("another_cat_video_id"), dogs), videoLibrary.searchVideosWithTag("#animal"));
+  }
 }